@@ -0,0 +1,174 @@
+import java.util.SplittableRandom;
+
+/**
+ * Computer player that picks moves with an alpha-beta search limited by a
+ * time budget per move, optionally on several threads. Positions found in
+ * an opening book are answered from the book without searching.
+ */
+public class AlphaBetaPlayer implements MancalaPlayer
+{
+   private ParallelSearch search;
+   private long timeBudgetMillis;
+   private int maxDepth;
+   private OpeningBook book;
+   private double bookTemperature;
+   private SplittableRandom random;
+   private long bookMoves;
+   private long searchedMoves;
+   private long searchNanos;
+
+   /**
+    * Constructor for a player limited only by time.
+    * @param timeBudgetMillis time limit per move in milliseconds
+    */
+   public AlphaBetaPlayer(long timeBudgetMillis)
+   {
+      this(timeBudgetMillis, MancalaSearch.MAX_PLY);
+   }
+
+   /**
+    * Constructor.
+    * @param timeBudgetMillis time limit per move in milliseconds
+    * @param maxDepth depth limit per move in plies
+    */
+   public AlphaBetaPlayer(long timeBudgetMillis, int maxDepth)
+   {
+      this(timeBudgetMillis, maxDepth, null);
+   }
+
+   /**
+    * Constructor for a player with a transposition table.
+    * @param timeBudgetMillis time limit per move in milliseconds
+    * @param maxDepth depth limit per move in plies
+    * @param table transposition table to use, or null for none
+    */
+   public AlphaBetaPlayer(long timeBudgetMillis, int maxDepth,
+         TranspositionTable table)
+   {
+      this(timeBudgetMillis, maxDepth, table, 1);
+   }
+
+   /**
+    * Constructor for a player searching on several threads.
+    * @param timeBudgetMillis time limit per move in milliseconds
+    * @param maxDepth depth limit per move in plies
+    * @param table transposition table shared by the threads, or null
+    * @param threads number of search threads
+    */
+   public AlphaBetaPlayer(long timeBudgetMillis, int maxDepth,
+         TranspositionTable table, int threads)
+   {
+      this.timeBudgetMillis = timeBudgetMillis;
+      this.maxDepth = maxDepth;
+      search = new ParallelSearch(threads, table);
+   }
+
+   /**
+    * Set an opening book to answer known positions from.
+    * @param book the book, or null to always search
+    * @param temperature 0 to play the best book move, higher values to vary
+    *    the play, see OpeningBook.choose()
+    * @param seed seed for picking varied book moves
+    */
+   public void setOpeningBook(OpeningBook book, double temperature, long seed)
+   {
+      this.book = book;
+      bookTemperature = temperature;
+      random = new SplittableRandom(seed);
+   }
+
+   /**
+    * Choose a move from the opening book or by searching the position.
+    * @param position current position, not modified by the player
+    * @return pit number to play, 0-5
+    */
+   public int chooseMove(MancalaEngine position)
+   {
+      if (book != null)
+      {
+         int pit = book.choose(position, bookTemperature, random);
+         if (pit >= 0)
+         {
+            bookMoves++;
+            return pit;
+         }
+      }
+
+      long start = System.nanoTime();
+      int pit = search.search(position, timeBudgetMillis, maxDepth);
+      searchNanos += System.nanoTime() - start;
+      searchedMoves++;
+      return pit;
+   }
+
+   /**
+    * Stop a running search; chooseMove() returns the best move of the last
+    * completed iteration. Later searches stop at once until clearAbort().
+    */
+   public void abort()
+   {
+      search.abort();
+   }
+
+   /**
+    * Allow searching again after abort().
+    */
+   public void clearAbort()
+   {
+      search.clearAbort();
+   }
+
+   /**
+    * Get the number of moves played from the opening book.
+    * @return book move count
+    */
+   public long getBookMoves()
+   {
+      return bookMoves;
+   }
+
+   /**
+    * Get the number of moves found by searching.
+    * @return searched move count
+    */
+   public long getSearchedMoves()
+   {
+      return searchedMoves;
+   }
+
+   /**
+    * Get the total time spent searching.
+    * @return time in nanoseconds
+    */
+   public long getSearchNanos()
+   {
+      return searchNanos;
+   }
+
+   /**
+    * Stop the helper threads of the search. The player cannot be used
+    * afterwards.
+    */
+   public void shutdown()
+   {
+      search.shutdown();
+   }
+
+   /**
+    * Get the search deciding the moves, for its statistics.
+    * @return the main search
+    */
+   public MancalaSearch getSearch()
+   {
+      return search.getMainSearch();
+   }
+
+   /**
+    * Get the parallel search used by this player.
+    * @return the search
+    */
+   public ParallelSearch getParallelSearch()
+   {
+      return search;
+   }
+}
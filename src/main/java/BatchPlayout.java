@@ -0,0 +1,497 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Random playouts of many independent games advanced in lockstep. The
+ * boards are stored as structure of arrays, one array per slot holding
+ * that slot of every game, and every call of step() plays one random move
+ * in each game: the moves are chosen game by game, then the stones of all
+ * games are sown slot by slot in plain loops over the games, which the JIT
+ * compiles to SIMD instructions, then captures and game ends are handled
+ * game by game.
+ * The sowing uses the SowingTable, so it costs the same for any number of
+ * stones.
+ *
+ * The rules are those of MancalaModel: moves, captures and, once one side
+ * is empty, the end-of-game sweep of the variant. A game that ends is
+ * scored and started again, so every game slot stays busy.
+ */
+public final class BatchPlayout
+{
+   // The k-th set bit of every mask of up to 8 pits, at mask * 8 + k
+   private static final byte[] NTH_BIT = new byte[256 * 8];
+
+   static
+   {
+      for (int mask = 1; mask < 256; mask++)
+      {
+         int k = 0;
+         for (int bit = 0; bit < 8; bit++)
+         {
+            if ((mask & 1 << bit) != 0)
+               NTH_BIT[mask * 8 + k++] = (byte) bit;
+         }
+      }
+   }
+
+   private final MancalaRules rules;
+   private final SowingTable table;
+   private final int games;
+   private final int stones;
+   private final int pits;
+   private final int stride;
+   private final int slots;
+   private final int cycle;
+   private final int pitBits;
+   private final int[] lapMask = new int[2];
+   private final int[][] board;
+   private final int[] side;
+   private final int[] occupied;
+   private final long[] seeds;
+
+   // Per game state of the move being played
+   private final int[] laps;
+   private final int[] lapSlots;
+   private final int[] extraSlots;
+   private final int[] origin;
+   private final int[] landing;
+   private final int[] lastMove;
+   private final char[] winner;
+   private boolean anyLaps;
+
+   private long finished;
+   private long winsA;
+   private long winsB;
+   private long draws;
+   private long moves;
+
+   /**
+    * Constructor. Every game starts from the starting position.
+    * @param rules board geometry and rule variant
+    * @param stones stones initially in each pit
+    * @param games number of games played at once
+    * @param seed seed of the random moves
+    */
+   public BatchPlayout(MancalaRules rules, int stones, int games, long seed)
+   {
+      this.rules = rules;
+      this.stones = stones;
+      this.games = games;
+      table = SowingTable.get(rules);
+      pits = rules.getPits();
+      stride = pits + 1;
+      slots = rules.getSlots();
+      cycle = slots - 1;
+      pitBits = (1 << pits) - 1;
+      for (int s = 0; s < 2; s++)
+         lapMask[s] = ((1 << slots) - 1) & ~(1 << rules.mancalaSlot(s ^ 1));
+
+      board = new int[slots][games];
+      side = new int[games];
+      occupied = new int[games];
+      seeds = new long[games];
+      laps = new int[games];
+      lapSlots = new int[games];
+      extraSlots = new int[games];
+      origin = new int[games];
+      landing = new int[games];
+      lastMove = new int[games];
+      winner = new char[games];
+      SplittableRandom random = new SplittableRandom(seed);
+      for (int g = 0; g < games; g++)
+      {
+         seeds[g] = random.nextLong() | 1;
+         reset(g);
+      }
+   }
+
+   /**
+    * Play one random move in every game, then score and restart the games
+    * that ended.
+    */
+   public void step()
+   {
+      play();
+      restart();
+   }
+
+   /**
+    * Play one random move in every game. A game that ends is swept as
+    * checkWinner() does and left for restart().
+    */
+   public void play()
+   {
+      choose();
+      sow();
+      capture();
+      findOccupied();
+      finish();
+      moves += games;
+   }
+
+   /**
+    * Score the games that ended in the last play() and start them again.
+    */
+   public void restart()
+   {
+      for (int g = 0; g < games; g++)
+      {
+         if (winner[g] == 'c')
+            continue;
+         int a = board[pits][g];
+         int b = board[slots - 1][g];
+         if (a > b)
+            winsA++;
+         else if (b > a)
+            winsB++;
+         else
+            draws++;
+         finished++;
+         reset(g);
+      }
+   }
+
+   /**
+    * Helper method to choose the moves, filling the per game state.
+    */
+   private void choose()
+   {
+      int allLaps = 0;
+      for (int g = 0; g < games; g++)
+      {
+         int s = side[g];
+         int first = s * stride;
+         int legal = (occupied[g] >>> first) & pitBits;
+
+         // xorshift64 per game
+         long x = seeds[g];
+         x ^= x << 13;
+         x ^= x >>> 7;
+         x ^= x << 17;
+         seeds[g] = x;
+         int pick = (int) (((x >>> 32) * Integer.bitCount(legal)) >>> 32);
+         int pit = NTH_BIT[legal << 3 | pick];
+
+         int from = first + pit;
+         int count = board[from][g];
+         int lap = count >= cycle ? count / cycle : 0;
+         int rest = count - lap * cycle;
+         lastMove[g] = pit;
+         origin[g] = from;
+         laps[g] = lap;
+         allLaps |= lap;
+         lapSlots[g] = lap > 0 ? lapMask[s] : 0;
+         int entry = table.index(s, pit, rest);
+         extraSlots[g] = table.extraSlots(entry);
+         landing[g] = table.landing(entry);
+      }
+      anyLaps = allLaps != 0;
+   }
+
+   /**
+    * Helper method to sow the chosen pits of all games. The played pit
+    * keeps its stones until capture(), like MancalaEngine.
+    */
+   private void sow()
+   {
+      for (int slot = 0; slot < slots; slot++)
+      {
+         int[] column = board[slot];
+         if (anyLaps)
+         {
+            for (int g = 0; g < games; g++)
+            {
+               column[g] += laps[g] * ((lapSlots[g] >>> slot) & 1)
+                  + ((extraSlots[g] >>> slot) & 1);
+            }
+         }
+         else
+         {
+            for (int g = 0; g < games; g++)
+               column[g] += (extraSlots[g] >>> slot) & 1;
+         }
+      }
+   }
+
+   /**
+    * Helper method for the captures and the change of turn. Kalah captures
+    * are done without branches, as masks that are 0 or all ones, because
+    * whether a random move captures cannot be predicted.
+    */
+   private void capture()
+   {
+      MancalaRules.Capture capture = rules.getCapture();
+      for (int g = 0; g < games; g++)
+      {
+         int s = side[g];
+         int first = s * stride;
+         int mancala = first + pits;
+         int slot = landing[g];
+         side[g] = s ^ (-(slot ^ mancala) >>> 31);
+
+         if (capture == MancalaRules.Capture.KALAH)
+         {
+            // Take if the last stone made an own pit hold one
+            int own = ~(slot - first) & (slot - mancala);
+            int one = (board[slot][g] ^ 1) - 1;
+            int take = (own & one) >> 31;
+            int oppSlot = slot + (take & (2 * pits - 2 * slot));
+            board[mancala][g] += take & (board[oppSlot][g] + 1);
+            board[slot][g] &= ~take;
+            board[oppSlot][g] &= ~take;
+         }
+         else if (capture == MancalaRules.Capture.OWARE && slot != mancala)
+         {
+            int other = stride - first;
+            for (int i = slot; i >= other && i < other + pits
+               && (board[i][g] == 2 || board[i][g] == 3); i--)
+            {
+               board[mancala][g] += board[i][g];
+               board[i][g] = 0;
+            }
+         }
+         board[origin[g]][g] = 0;
+      }
+   }
+
+   /**
+    * Helper method to find the slots holding stones in every game, as a
+    * bit mask per game. -x >>> 31 is 1 for a count x above 0, so the loops
+    * have no branches.
+    */
+   private void findOccupied()
+   {
+      Arrays.fill(occupied, 0);
+      for (int slot = 0; slot < slots; slot++)
+      {
+         int[] column = board[slot];
+         for (int g = 0; g < games; g++)
+            occupied[g] |= (-column[g] >>> 31) << slot;
+      }
+   }
+
+   /**
+    * Helper method to sweep and score the games that ended.
+    */
+   private void finish()
+   {
+      boolean sweep = rules.getSweep() == MancalaRules.Sweep.OWNER;
+      int pitsB = pitBits << stride;
+      for (int g = 0; g < games; g++)
+      {
+         int occ = occupied[g];
+         if ((occ & pitBits) != 0 && (occ & pitsB) != 0)
+         {
+            winner[g] = 'c';
+            continue;
+         }
+         if (sweep)
+         {
+            int swept = (occ & pitBits) == 0 ? stride : 0;
+            for (int i = 0; i < pits; i++)
+            {
+               board[swept + pits][g] += board[swept + i][g];
+               board[swept + i][g] = 0;
+            }
+         }
+         winner[g] = board[pits][g] > board[slots - 1][g] ? 'a' : 'b';
+      }
+   }
+
+   /**
+    * Helper method to set up the starting position in a game.
+    * @param g game index
+    */
+   private void reset(int g)
+   {
+      for (int i = 0; i < slots; i++)
+         board[i][g] = i == pits || i == slots - 1 ? 0 : stones;
+      side[g] = MancalaEngine.SIDE_A;
+      occupied[g] = stones > 0 ? pitBits | pitBits << stride : 0;
+      winner[g] = 'c';
+   }
+
+   /**
+    * Get the rules of the games.
+    * @return the rules
+    */
+   public MancalaRules getRules()
+   {
+      return rules;
+   }
+
+   /**
+    * Get the number of games played at once.
+    * @return game count
+    */
+   public int getGames()
+   {
+      return games;
+   }
+
+   /**
+    * Get the stone count of a slot in one game.
+    * @param game game index
+    * @param slot slot index
+    * @return stone count
+    */
+   public int getSlot(int game, int slot)
+   {
+      return board[slot][game];
+   }
+
+   /**
+    * Get the side to move in one game.
+    * @param game game index
+    * @return MancalaEngine.SIDE_A or SIDE_B
+    */
+   public int getSide(int game)
+   {
+      return side[game];
+   }
+
+   /**
+    * Get the pit played in one game by the last play().
+    * @param game game index
+    * @return pit number
+    */
+   public int getLastMove(int game)
+   {
+      return lastMove[game];
+   }
+
+   /**
+    * Get the result of one game after the last play().
+    * @param game game index
+    * @return 'a' or 'b' if the game ended, as checkWinner() reports it,
+    *    'c' if it goes on
+    */
+   public char getWinner(int game)
+   {
+      return winner[game];
+   }
+
+   /**
+    * Get the number of games played to the end.
+    * @return game count
+    */
+   public long getFinished()
+   {
+      return finished;
+   }
+
+   /**
+    * Get the number of finished games A won.
+    * @return game count
+    */
+   public long getWinsA()
+   {
+      return winsA;
+   }
+
+   /**
+    * Get the number of finished games B won.
+    * @return game count
+    */
+   public long getWinsB()
+   {
+      return winsB;
+   }
+
+   /**
+    * Get the number of finished games that were drawn.
+    * @return game count
+    */
+   public long getDraws()
+   {
+      return draws;
+   }
+
+   /**
+    * Get the number of moves played in all games.
+    * @return move count
+    */
+   public long getMoves()
+   {
+      return moves;
+   }
+   /**
+    * Compare the playout speed of one core with a batch, with a
+    * MancalaEngine and with MancalaModel.doTurn() on a new model per game.
+    * Arguments: [stones per pit] [seconds per measurement] [games per
+    * batch] [rules]
+    * @param args command line arguments
+    */
+   public static void main(String[] args)
+   {
+      int stones = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+      double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 3;
+      int games = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+      MancalaRules rules = args.length > 3 ? MancalaRules.parse(args[3])
+         : MancalaRules.KALAH;
+      long nanos = (long) (seconds * 1e9);
+
+      double[] rates = new double[3];
+      for (int round = 0; round < 2; round++) // the first round warms up
+      {
+         SplittableRandom random = new SplittableRandom(1);
+         long count = 0;
+         long start = System.nanoTime();
+         while (System.nanoTime() - start < nanos)
+         {
+            MancalaModel model = new MancalaModel(stones, rules,
+               UndoPolicy.CLASSIC);
+            while (!model.isGameOver())
+            {
+               int legal = 0;
+               int pick = 0;
+               for (int pit = 0; pit < rules.getPits(); pit++)
+               {
+                  if (model.getPitValue(model.getCurrPlayer(), pit) > 0
+                     && random.nextInt(++legal) == 0)
+                     pick = pit;
+               }
+               model.doTurn(model.getCurrPlayer(), pick);
+            }
+            model.checkWinner();
+            count++;
+         }
+         rates[0] = count * 1e9 / (System.nanoTime() - start);
+
+         MancalaEngine first = new MancalaEngine(stones, rules);
+         MancalaEngine engine = first.copy();
+         count = 0;
+         start = System.nanoTime();
+         while (System.nanoTime() - start < nanos)
+         {
+            engine.copyFrom(first);
+            while (!engine.isTerminal())
+            {
+               int moves = engine.getLegalMoves();
+               int pick = random.nextInt(Integer.bitCount(moves));
+               while (pick-- > 0)
+                  moves &= moves - 1;
+               engine.applyMove(Integer.numberOfTrailingZeros(moves));
+            }
+            engine.checkWinner();
+            count++;
+         }
+         rates[1] = count * 1e9 / (System.nanoTime() - start);
+
+         BatchPlayout batch = new BatchPlayout(rules, stones, games, 1);
+         start = System.nanoTime();
+         while (System.nanoTime() - start < nanos)
+            batch.step();
+         rates[2] = batch.getFinished() * 1e9 / (System.nanoTime() - start);
+      }
+
+      System.out.printf("%s, %d stones, %d games per batch%n",
+         rules.getName(), stones, games);
+      String[] names = { "model.doTurn", "engine.applyMove", "batch" };
+      for (int i = 0; i < names.length; i++)
+      {
+         System.out.printf("%-18s %12.0f playouts/s  %6.1fx%n", names[i],
+            rates[i], rates[i] / rates[0]);
+      }
+   }
+}
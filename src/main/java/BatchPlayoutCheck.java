@@ -0,0 +1,118 @@
+/**
+ * Equivalence check of BatchPlayout against MancalaEngine, the rules
+ * underneath MancalaModel. Batches of every variant are stepped, and after
+ * every play() each game must match an engine that played the same move
+ * from the same position: the boards, the side to move, and for games that
+ * ended the board after checkWinner() and the winner it reports.
+ *
+ * Usage: java BatchPlayoutCheck [--games N] [--steps N] [--seed S]
+ */
+public class BatchPlayoutCheck
+{
+   private static final String[] VARIANTS = { "kalah", "kalah1", "kalah4",
+      "kalah8", "oware", "oware8-nosweep", "nocapture", "kalah3-nosweep" };
+
+   private static final int[] STONES = { 1, 3, 4, 6, 20, 500 };
+
+   /**
+    * Run the check from the command line.
+    * @param args command line arguments
+    */
+   public static void main(String[] args)
+   {
+      int games = 256;
+      int steps = 2000;
+      long seed = 1;
+      for (int i = 0; i + 1 < args.length; i += 2)
+      {
+         String value = args[i + 1];
+         switch (args[i])
+         {
+         case "--games":
+            games = Integer.parseInt(value);
+            break;
+         case "--steps":
+            steps = Integer.parseInt(value);
+            break;
+         case "--seed":
+            seed = Long.parseLong(value);
+            break;
+         default:
+            throw new IllegalArgumentException("Unknown option: " + args[i]);
+         }
+      }
+
+      long moves = 0;
+      long finished = 0;
+      long failures = 0;
+      for (String variant : VARIANTS)
+      {
+         MancalaRules rules = MancalaRules.parse(variant);
+         MancalaEngine[] engines = new MancalaEngine[games];
+         for (int g = 0; g < games; g++)
+            engines[g] = new MancalaEngine(0, rules);
+         int[] counts = new int[rules.getSlots()];
+         for (int stones : STONES)
+         {
+            BatchPlayout batch = new BatchPlayout(rules, stones, games,
+               seed++);
+            for (int step = 0; step < steps; step++)
+            {
+               for (int g = 0; g < games; g++)
+               {
+                  for (int i = 0; i < counts.length; i++)
+                     counts[i] = batch.getSlot(g, i);
+                  engines[g].setPosition(counts, batch.getSide(g));
+               }
+               batch.play();
+               for (int g = 0; g < games; g++)
+               {
+                  String error = compare(batch, g, engines[g]);
+                  if (error != null && failures++ < 10)
+                     System.out.println(variant + " stones " + stones
+                        + " game " + g + " step " + step + ": " + error);
+               }
+               moves += games;
+               batch.restart();
+            }
+            finished += batch.getFinished();
+         }
+         System.out.println(variant + " ok");
+      }
+      System.out.printf("%d moves, %d games finished, %d mismatches%n",
+         moves, finished, failures);
+      if (failures > 0)
+      {
+         System.out.println("FAILED");
+         System.exit(1);
+      }
+      System.out.println("ok");
+   }
+
+   /**
+    * Helper method to compare one game with the engine.
+    * @param batch the batch after play()
+    * @param g game index
+    * @param engine the game's position before the move
+    * @return description of the first difference, or null if none
+    */
+   private static String compare(BatchPlayout batch, int g,
+      MancalaEngine engine)
+   {
+      int pit = batch.getLastMove(g);
+      if (!engine.applyMove(pit))
+         return "illegal move " + pit;
+      char winner = engine.checkWinner();
+      if (batch.getWinner(g) != winner)
+         return "winner " + batch.getWinner(g) + ", expected " + winner;
+      for (int i = 0; i < engine.getRules().getSlots(); i++)
+      {
+         if (batch.getSlot(g, i) != engine.getSlot(i))
+            return "slot " + i + " is " + batch.getSlot(g, i)
+               + ", expected " + engine.getSlot(i);
+      }
+      if (batch.getSide(g) != engine.getSide())
+         return "side to move differs";
+      return null;
+   }
+}
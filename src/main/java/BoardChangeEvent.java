@@ -0,0 +1,75 @@
+import javax.swing.event.ChangeEvent;
+
+/**
+ * Change event telling views which board slots changed. Slots are indexed
+ * as in MancalaRules, A0-A5 = 0-5, AM = 6, B0-B5 = 7-12, BM = 13 on the
+ * standard board. Every update sends a new event holding the snapshot it
+ * describes, so views can read the values from it even if the model has
+ * moved on.
+ */
+public class BoardChangeEvent extends ChangeEvent
+{
+   private final BoardSnapshot snapshot;
+
+   /**
+    * Constructor.
+    * @param source the model sending the event
+    * @param snapshot the state after the change
+    */
+   public BoardChangeEvent(Object source, BoardSnapshot snapshot)
+   {
+      super(source);
+      this.snapshot = snapshot;
+   }
+
+   /**
+    * Get the state after the change.
+    * @return the snapshot
+    */
+   public BoardSnapshot getSnapshot()
+   {
+      return snapshot;
+   }
+
+   /**
+    * Check if a slot changed.
+    * @param slot slot index, 0 to getSnapshot().getRules().getSlots() - 1
+    * @return true if the slot's stone count changed
+    */
+   public boolean isChanged(int slot)
+   {
+      return (snapshot.getChangedSlots() & (1 << slot)) != 0;
+   }
+
+   /**
+    * Get the changed slots.
+    * @return bit mask with bit i set if slot i changed
+    */
+   public int getChangedSlots()
+   {
+      return snapshot.getChangedSlots();
+   }
+
+   /**
+    * Get the slot index of a pit.
+    * @param rules board geometry
+    * @param side 'a' or 'b'
+    * @param pitNumber pit number, 0 to rules.getPits() - 1
+    * @return slot index
+    */
+   public static int pitSlot(MancalaRules rules, char side, int pitNumber)
+   {
+      return rules.pitSlot(MancalaEngine.toSide(side), pitNumber);
+   }
+
+   /**
+    * Get the slot index of a mancala.
+    * @param rules board geometry
+    * @param player 'a' or 'b'
+    * @return slot index
+    */
+   public static int mancalaSlot(MancalaRules rules, char player)
+   {
+      return rules.mancalaSlot(MancalaEngine.toSide(player));
+   }
+}
@@ -0,0 +1,191 @@
+/**
+ * Immutable state of a MancalaModel at one point of the game. The model
+ * publishes a new snapshot after every change, so a reader holding one
+ * sees a consistent board and undo state however the game goes on, and
+ * any number of threads can read it without locking.
+ */
+public final class BoardSnapshot
+{
+   private final MancalaRules rules;
+   private final int[] slots;
+   private final int side;
+   private final long hash;
+   private final boolean gameOver;
+   private final long version;
+   private final int changedSlots;
+   private final int ply;
+   private final boolean canUndo;
+   private final boolean canRedo;
+   private final int undoCount;
+
+   /**
+    * Constructor. Copies the position of an engine.
+    * @param engine current position
+    * @param version number of snapshots published before this one
+    * @param changedSlots bit mask of the slots that changed since the
+    *    previous snapshot
+    * @param ply number of journal entries played
+    * @param canUndo true if undo is available
+    * @param canRedo true if redo is available
+    * @param undoCount remaining undo count, -1 if unlimited
+    */
+   BoardSnapshot(MancalaEngine engine, long version, int changedSlots,
+         int ply, boolean canUndo, boolean canRedo, int undoCount)
+   {
+      rules = engine.getRules();
+      slots = new int[rules.getSlots()];
+      for (int i = 0; i < slots.length; i++)
+         slots[i] = engine.getSlot(i);
+      side = engine.getSide();
+      hash = engine.getHash();
+      gameOver = engine.isTerminal();
+      this.version = version;
+      this.changedSlots = changedSlots;
+      this.ply = ply;
+      this.canUndo = canUndo;
+      this.canRedo = canRedo;
+      this.undoCount = undoCount;
+   }
+
+   /**
+    * Get the board geometry and rule variant.
+    * @return the rules
+    */
+   public MancalaRules getRules()
+   {
+      return rules;
+   }
+
+   /**
+    * Get the stone count of a board slot.
+    * @param slot slot index, 0 to getRules().getSlots() - 1
+    * @return number of stones in the slot
+    */
+   public int getSlot(int slot)
+   {
+      return slots[slot];
+   }
+
+   /**
+    * Get the number of stones in a pit.
+    * @param pitSide MancalaEngine.SIDE_A or SIDE_B
+    * @param pitNumber pit number, 0 to getRules().getPits() - 1
+    * @return number of stones in pit
+    */
+   public int getPitValue(int pitSide, int pitNumber)
+   {
+      return slots[rules.pitSlot(pitSide, pitNumber)];
+   }
+
+   /**
+    * Get the number of stones in a mancala.
+    * @param player MancalaEngine.SIDE_A or SIDE_B
+    * @return number of stones in mancala
+    */
+   public int getMancalaValue(int player)
+   {
+      return slots[rules.mancalaSlot(player)];
+   }
+
+   /**
+    * Get the side to move.
+    * @return MancalaEngine.SIDE_A or SIDE_B
+    */
+   public int getSide()
+   {
+      return side;
+   }
+
+   /**
+    * Get the player to move.
+    * @return 'a' or 'b'
+    */
+   public char getCurrPlayer()
+   {
+      return MancalaEngine.toPlayer(side);
+   }
+
+   /**
+    * Get the Zobrist hash of the position.
+    * @return position hash
+    */
+   public long getHash()
+   {
+      return hash;
+   }
+
+   /**
+    * Check if one side has run out of stones.
+    * @return true if the game is over
+    */
+   public boolean isGameOver()
+   {
+      return gameOver;
+   }
+
+   /**
+    * Get the publication number of this snapshot. Later snapshots of the
+    * same model have higher numbers.
+    * @return version, 0 for the first snapshot
+    */
+   public long getVersion()
+   {
+      return version;
+   }
+
+   /**
+    * Get the slots that changed since the previous snapshot.
+    * @return bit mask with bit i set if slot i changed
+    */
+   public int getChangedSlots()
+   {
+      return changedSlots;
+   }
+
+   /**
+    * Get the number of journal entries played.
+    * @return ply
+    */
+   public int getPly()
+   {
+      return ply;
+   }
+
+   /**
+    * Check if undo was available.
+    * @return true if undo was available
+    */
+   public boolean canUndo()
+   {
+      return canUndo;
+   }
+
+   /**
+    * Check if redo was available.
+    * @return true if redo was available
+    */
+   public boolean canRedo()
+   {
+      return canRedo;
+   }
+
+   /**
+    * Get the remaining undo count.
+    * @return remaining undo count, -1 if unlimited
+    */
+   public int getUndoCount()
+   {
+      return undoCount;
+   }
+
+   /**
+    * Create an engine holding this position.
+    * @return new engine
+    */
+   public MancalaEngine toEngine()
+   {
+      MancalaEngine engine = new MancalaEngine(0, rules);
+      engine.setPosition(slots, side);
+      return engine;
+   }
+}
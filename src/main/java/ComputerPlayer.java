@@ -0,0 +1,176 @@
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+/**
+ * Controller that plays one side of a MancalaModel with a MancalaPlayer.
+ * Whenever the model changes and it is the computer's turn, the player
+ * chooses a move on a WorkerPool thread and the move is played on the
+ * Event Dispatch Thread, so the board stays responsive while the computer
+ * thinks.
+ *
+ * Every search belongs to a generation. Any change of the model, such as
+ * an undo, or stop() when the game is reset starts a new generation: the
+ * running search is aborted and its move is dropped, and a new search is
+ * started if it is still the computer's turn.
+ */
+public class ComputerPlayer implements ChangeListener
+{
+   private MancalaModel model;
+   private char side;
+   private MancalaPlayer player;
+   private WorkerPool workers;
+   private WorkerPool.Task task;
+   private long searchedVersion;
+   private volatile long generation;
+   private boolean active;
+
+   /**
+    * Constructor. Searches run on the shared worker pool.
+    * @param model the model to play on
+    * @param side side played by the computer, 'a' or 'b'
+    * @param player the player choosing the moves
+    */
+   public ComputerPlayer(MancalaModel model, char side, MancalaPlayer player)
+   {
+      this(model, side, player, WorkerPool.getShared());
+   }
+
+   /**
+    * Constructor.
+    * @param model the model to play on
+    * @param side side played by the computer, 'a' or 'b'
+    * @param player the player choosing the moves
+    * @param workers pool to search on
+    */
+   public ComputerPlayer(MancalaModel model, char side, MancalaPlayer player,
+         WorkerPool workers)
+   {
+      this.model = model;
+      this.side = side;
+      this.player = player;
+      this.workers = workers;
+      searchedVersion = -1;
+      active = true;
+   }
+
+   /**
+    * Get the side played by the computer.
+    * @return 'a' or 'b'
+    */
+   public char getSide()
+   {
+      return side;
+   }
+
+   /**
+    * Check if the computer is choosing a move.
+    * @return true while a search is running or its move is pending
+    */
+   public boolean isThinking()
+   {
+      return task != null;
+   }
+
+   /**
+    * Stop playing, for example when the game is replaced. A running search
+    * is aborted and the player is shut down once it has returned. Must be
+    * called on the EDT.
+    */
+   public void stop()
+   {
+      active = false;
+      cancel();
+      // Wait for the aborted search on a worker, not on the EDT
+      workers.submit(() ->
+      {
+         synchronized (player)
+         {
+            player.shutdown();
+         }
+         return null;
+      }, null, done ->
+      {
+      }, this::report);
+   }
+
+   /**
+    * Start a search if it is the computer's turn, and cancel a search of a
+    * position the game has left.
+    */
+   public void stateChanged(ChangeEvent e)
+   {
+      if (!SwingUtilities.isEventDispatchThread())
+      {
+         SwingUtilities.invokeLater(new Runnable()
+         {
+            public void run()
+            {
+               stateChanged(e);
+            }
+         });
+         return;
+      }
+      if (!active)
+         return;
+
+      BoardSnapshot snapshot = model.getSnapshot();
+      if (task != null && snapshot.getVersion() == searchedVersion)
+         return; // Already searching this position
+      cancel();
+      if (snapshot.getCurrPlayer() != side || snapshot.isGameOver())
+         return;
+
+      final long searched = snapshot.getVersion();
+      final long myGeneration = generation;
+      final MancalaEngine position = snapshot.toEngine();
+      searchedVersion = searched;
+      task = workers.submit(() ->
+      {
+         // The player is not thread safe, wait for an aborted search
+         synchronized (player)
+         {
+            // Clear before checking: an abort() after the clear belongs to
+            // a newer generation, which the check then sees
+            player.clearAbort();
+            if (generation != myGeneration)
+               return -1;
+            return player.chooseMove(position);
+         }
+      }, player::abort, move ->
+      {
+         task = null;
+         if (active && move >= 0
+            && model.getSnapshot().getVersion() == searched)
+            model.doTurn(side, move);
+      }, error ->
+      {
+         // The next change of the model, such as an undo, searches again
+         task = null;
+         report(error);
+      });
+   }
+
+   /**
+    * Helper method to report a failed search.
+    * @param error the exception thrown by the player
+    */
+   private void report(Exception error)
+   {
+      System.out.println("Computer player failed: " + error);
+   }
+
+   /**
+    * Helper method to start a new generation, aborting the running search
+    * and dropping its move.
+    */
+   private void cancel()
+   {
+      generation++;
+      if (task != null)
+      {
+         task.cancel();
+         task = null;
+      }
+   }
+}
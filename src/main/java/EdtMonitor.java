@@ -0,0 +1,120 @@
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.util.Arrays;
+
+/**
+ * Event queue that measures how long the Event Dispatch Thread is blocked
+ * by each event. Dispatch times go into a LatencyHistogram, and events
+ * taking longer than one 60 Hz frame (16 ms) are counted as slow. Time spent
+ * in events dispatched from inside another event, such as while a modal
+ * dialog is open, counts for the inner event only.
+ *
+ * Start the GUI with -Dmancala.edt.log=true to print every slow event.
+ * The statistics are kept on the EDT and must be read there.
+ */
+public class EdtMonitor extends EventQueue
+{
+   public static final long FRAME_NANOS = 16_000_000L;
+
+   private static EdtMonitor installed;
+
+   private final boolean log = Boolean.getBoolean("mancala.edt.log");
+   private final LatencyHistogram dispatch = new LatencyHistogram();
+   private long slowEvents;
+   private long[] nested = new long[16];
+   private int depth;
+
+   /**
+    * Replace the system event queue with a monitor, once.
+    * @return the installed monitor
+    */
+   public static synchronized EdtMonitor install()
+   {
+      if (installed == null)
+      {
+         installed = new EdtMonitor();
+         Toolkit.getDefaultToolkit().getSystemEventQueue().push(installed);
+      }
+      return installed;
+   }
+
+   /**
+    * Get the installed monitor.
+    * @return the monitor, or null if none was installed
+    */
+   public static synchronized EdtMonitor getInstalled()
+   {
+      return installed;
+   }
+
+   /**
+    * Dispatch an event and record how long it took.
+    * @param event the event
+    */
+   protected void dispatchEvent(AWTEvent event)
+   {
+      if (depth == nested.length)
+         nested = Arrays.copyOf(nested, depth * 2);
+      nested[depth++] = 0;
+      long start = System.nanoTime();
+      try
+      {
+         super.dispatchEvent(event);
+      }
+      finally
+      {
+         long elapsed = System.nanoTime() - start;
+         long own = elapsed - nested[--depth];
+         if (depth > 0)
+            nested[depth - 1] += elapsed;
+         dispatch.record(own);
+         if (own > FRAME_NANOS)
+         {
+            slowEvents++;
+            if (log)
+               System.out.printf("EDT blocked %.1f ms by %s%n", own / 1e6,
+                  event.getClass().getSimpleName());
+         }
+      }
+   }
+
+   /**
+    * Get the number of events dispatched.
+    * @return event count
+    */
+   public long getEvents()
+   {
+      return dispatch.getCount();
+   }
+
+   /**
+    * Get the number of events that blocked the EDT for more than a frame.
+    * @return slow event count
+    */
+   public long getSlowEvents()
+   {
+      return slowEvents;
+   }
+
+   /**
+    * Get the dispatch times of all events.
+    * @return histogram of dispatch times in nanoseconds
+    */
+   public LatencyHistogram getDispatchTimes()
+   {
+      return dispatch;
+   }
+
+   /**
+    * Get a one line summary of the dispatch times.
+    * @return summary text
+    */
+   public String getSummary()
+   {
+      return String.format("EDT: %d events, p99 %.1f ms, max %.1f ms,"
+         + " %d over 16 ms", getEvents(),
+         dispatch.getValueAtPercentile(99) / 1e6, dispatch.getMax() / 1e6,
+         slowEvents);
+   }
+}
@@ -11,44 +11,57 @@ import java.util.ArrayList;
  */
 public class EllipseFormat implements StyleFormatter {
 
+   private static final Shape MANCALA_SHAPE = new RoundRectangle2D.Double(
+      25, 0, GameBoard.MANCALA_WIDTH, GameBoard.MANCALA_HEIGHT, 40, 40);
+   private static final Shape PIT_SHAPE = new RoundRectangle2D.Double(
+      5, 5, GameBoard.PIT_WIDTH, GameBoard.PIT_HEIGHT, 30, 30);
+
+   // Stone layouts are built once per stone count and reused on repaint
+   private final StoneLayoutCache cache = new StoneLayoutCache() {
+      protected Shape[] createShapes(int kind, int stoneAmount) {
+         if (kind == PIT) {
+            return createStoneShapes(stoneAmount, GameBoard.PIT_WIDTH, GameBoard.PIT_HEIGHT, 10);
+         }
+         return createStoneShapes(stoneAmount, GameBoard.MANCALA_WIDTH, GameBoard.MANCALA_HEIGHT, 30);
+      }
+   };
+
    /**
     * Returns a rounded rectangle shape for the mancala.
     * 
-    * @return The Shape object for the mancala.
+    * @return The shared Shape object for the mancala.
     */
    public Shape getMancalaShape() {
-      return new RoundRectangle2D.Double(
-         25, 0, GameBoard.MANCALA_WIDTH, GameBoard.MANCALA_HEIGHT, 40, 40);
+      return MANCALA_SHAPE;
    }
 
    /**
     * Returns a rounded rectangle shape for the pit.
     * 
-    * @return The Shape object for the pit.
+    * @return The shared Shape object for the pit.
     */
    public Shape getPitShape() {
-      return new RoundRectangle2D.Double(
-         5, 5, GameBoard.PIT_WIDTH, GameBoard.PIT_HEIGHT, 30, 30);
+      return PIT_SHAPE;
    }
 
    /**
-    * Creates and returns an array of shapes for stones in a pit.
+    * Returns the cached array of shapes for stones in a pit.
     * 
     * @param stoneAmount The number of stones to draw.
-    * @return An array of Shape objects.
+    * @return A shared array of Shape objects.
     */
    public Shape[] getPitStoneShapes(int stoneAmount) {
-      return createStoneShapes(stoneAmount, GameBoard.PIT_WIDTH, GameBoard.PIT_HEIGHT, 10);
+      return cache.get(StoneLayoutCache.PIT, stoneAmount);
    }
 
    /**
-    * Creates and returns an array of shapes for stones in a mancala.
+    * Returns the cached array of shapes for stones in a mancala.
     * 
     * @param stoneAmount The number of stones to draw.
-    * @return An array of Shape objects.
+    * @return A shared array of Shape objects.
     */
    public Shape[] getMancalaStoneShapes(int stoneAmount) {
-      return createStoneShapes(stoneAmount, GameBoard.MANCALA_WIDTH, GameBoard.MANCALA_HEIGHT, 30);
+      return cache.get(StoneLayoutCache.MANCALA, stoneAmount);
    }
 
    /**
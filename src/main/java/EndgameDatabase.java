@@ -0,0 +1,450 @@
+import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Database of exact values for positions with few stones left in the pits.
+ *
+ * The rules never look at the mancalas, so the outcome of a position only
+ * depends on the 12 pit counts and the side to move. Positions are stored
+ * from the point of view of the side to move, its pits first, and the
+ * value is the number of stones the side to move will still gain over its
+ * opponent with best play. Each position takes one byte, ranked by total
+ * stone count and then lexicographically by pit counts, so a probe is a
+ * single index computation.
+ *
+ * Generation works backwards from zero stones: all positions with n stones
+ * are solved using the already finished layers below n. Moves that keep
+ * n stones only move stones forward on the mover's own side, so the
+ * dependencies inside a layer are acyclic and are solved by memoized
+ * recursion. Each layer is split across threads.
+ */
+public class EndgameDatabase
+{
+   /** Value returned by probe() for positions not in the database. */
+   public static final int NO_VALUE = Integer.MIN_VALUE;
+   public static final int MAX_STONES = 24;
+
+   private static final int PITS = 2 * MancalaEngine.PITS;
+   private static final int MAGIC = 0x4D454442; // "MEDB"
+   private static final int VERSION = 1;
+   private static final int HEADER_BYTES = 12;
+   private static final byte UNKNOWN = Byte.MIN_VALUE;
+   private static final long[][] BINOMIAL = binomials(MAX_STONES + PITS);
+
+   private final int maxStones;
+   private final MappedByteBuffer values;
+
+   /**
+    * Constructor. Opens a database file and maps it into memory.
+    * @param fileName file written by generate()
+    * @throws IOException if the file cannot be read or is not a database
+    */
+   public EndgameDatabase(String fileName) throws IOException
+   {
+      try (RandomAccessFile file = new RandomAccessFile(fileName, "r");
+           FileChannel channel = file.getChannel())
+      {
+         if (file.readInt() != MAGIC || file.readInt() != VERSION)
+            throw new IOException(fileName + " is not an endgame database");
+         maxStones = file.readInt();
+         if (maxStones < 0 || maxStones > MAX_STONES
+            || channel.size() != HEADER_BYTES + positions(maxStones))
+            throw new IOException(fileName + " is damaged");
+         values = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES,
+            positions(maxStones));
+      }
+   }
+
+   /**
+    * Get the largest number of stones in the pits covered by the database.
+    * @return stone count
+    */
+   public int getMaxStones()
+   {
+      return maxStones;
+   }
+
+   /**
+    * Look up the value of a position.
+    * @param position position to look up, not modified
+    * @return stones the side to move gains over the opponent from here on,
+    *    or NO_VALUE if the position has too many stones or is not standard
+    *    Kalah
+    */
+   public int probe(MancalaEngine position)
+   {
+      if (!position.getRules().isStandard())
+         return NO_VALUE;
+      int mover = position.getSide() * 7;
+      int other = 7 - mover;
+      int stones = 0;
+      for (int i = 0; i < MancalaEngine.PITS; i++)
+         stones += position.getSlot(mover + i) + position.getSlot(other + i);
+      if (stones > maxStones)
+         return NO_VALUE;
+
+      // Rank the pit counts, mover's pits first
+      long index = positions(stones - 1);
+      int remaining = stones;
+      for (int i = 0; i < PITS - 1; i++)
+      {
+         int count = position.getSlot(i < 6 ? mover + i : other + i - 6);
+         index += rankStep(i, remaining, count);
+         remaining -= count;
+      }
+      return values.get((int) index);
+   }
+
+   /**
+    * Generate a database and write it to a file, printing the time and size
+    * of every stone count layer.
+    * @param maxStones largest number of stones in the pits, at most
+    *    MAX_STONES
+    * @param threads number of worker threads
+    * @param fileName file to write
+    * @throws IOException if the file cannot be written
+    */
+   public static void generate(int maxStones, int threads, String fileName)
+      throws IOException
+   {
+      if (maxStones < 0 || maxStones > MAX_STONES)
+         throw new IllegalArgumentException(
+            "maxStones must be 0-" + MAX_STONES);
+
+      final byte[] table = new byte[(int) positions(maxStones)];
+      Arrays.fill(table, UNKNOWN);
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      long started = System.nanoTime();
+      System.out.println("stones    positions   seconds   positions/s"
+         + "    file bytes");
+      try
+      {
+         for (int n = 0; n <= maxStones; n++)
+         {
+            long layerStart = System.nanoTime();
+            final long first = positions(n - 1);
+            final long last = positions(n);
+            final int stones = n;
+            long chunk = Math.max(1, (last - first) / (threads * 8L) + 1);
+            List<Future<?>> tasks = new ArrayList<Future<?>>();
+            for (long lo = first; lo < last; lo += chunk)
+            {
+               final long from = lo;
+               final long to = Math.min(last, lo + chunk);
+               tasks.add(pool.submit(new Runnable()
+               {
+                  public void run()
+                  {
+                     new Solver(table, stones).solveRange(from, to);
+                  }
+               }));
+            }
+            for (Future<?> task : tasks)
+               task.get();
+
+            double seconds = (System.nanoTime() - layerStart) / 1e9;
+            System.out.printf("%6d  %11d  %8.3f  %12.0f  %12d%n", n,
+               last - first, seconds, (last - first) / Math.max(seconds, 1e-9),
+               HEADER_BYTES + last);
+         }
+      }
+      catch (Exception e)
+      {
+         throw new IllegalStateException("Generation failed", e);
+      }
+      finally
+      {
+         pool.shutdown();
+      }
+
+      try (DataOutputStream out = new DataOutputStream(
+         new BufferedOutputStream(new FileOutputStream(fileName))))
+      {
+         out.writeInt(MAGIC);
+         out.writeInt(VERSION);
+         out.writeInt(maxStones);
+         out.write(table);
+      }
+      System.out.printf("Wrote %s, %d bytes in %.3f s%n", fileName,
+         HEADER_BYTES + table.length, (System.nanoTime() - started) / 1e9);
+   }
+
+   /**
+    * Generate a database from the command line.
+    * Arguments: max stones, file name, [threads]
+    * @param args command line arguments
+    * @throws IOException if the file cannot be written
+    */
+   public static void main(String[] args) throws IOException
+   {
+      if (args.length < 2)
+      {
+         System.out.println(
+            "Usage: java EndgameDatabase <max stones> <file> [threads]");
+         return;
+      }
+      int threads = args.length > 2 ? Integer.parseInt(args[2])
+         : Runtime.getRuntime().availableProcessors();
+      generate(Integer.parseInt(args[0]), threads, args[1]);
+   }
+
+   /**
+    * Helper method to count positions with at most a number of stones.
+    * @param stones stone count, -1 for none
+    * @return number of ways to put 0 to stones stones into 12 pits
+    */
+   private static long positions(int stones)
+   {
+      return stones < 0 ? 0 : BINOMIAL[stones + PITS][PITS];
+   }
+
+   /**
+    * Helper method giving the rank offset of one pit count. Counts the
+    * positions with the same earlier pits and fewer stones in this pit.
+    * @param pit pit index in the rank order, 0-10
+    * @param remaining stones in this and later pits
+    * @param count stones in this pit
+    * @return rank offset
+    */
+   private static long rankStep(int pit, int remaining, int count)
+   {
+      int later = PITS - 1 - pit;
+      return BINOMIAL[remaining + later][later]
+         - BINOMIAL[remaining - count + later][later];
+   }
+
+   /**
+    * Helper method to build Pascal's triangle.
+    * @param size largest n
+    * @return table of n choose k
+    */
+   private static long[][] binomials(int size)
+   {
+      long[][] c = new long[size + 1][size + 1];
+      for (int n = 0; n <= size; n++)
+      {
+         c[n][0] = 1;
+         for (int k = 1; k <= n; k++)
+            c[n][k] = c[n - 1][k - 1] + c[n - 1][k];
+      }
+      return c;
+   }
+
+   /**
+    * Solves the positions of one layer. Each worker task has its own solver
+    * with scratch space for the recursion.
+    */
+   private static class Solver
+   {
+      private final byte[] table;
+      private final int stones;
+      private final MancalaEngine engine = new MancalaEngine(0);
+      private final int[] slots = new int[MancalaEngine.SLOTS];
+      private final ArrayList<int[]> frames = new ArrayList<int[]>();
+
+      /**
+       * Constructor.
+       * @param table values of all positions, filled up to this layer
+       * @param stones stone count of the layer
+       */
+      Solver(byte[] table, int stones)
+      {
+         this.table = table;
+         this.stones = stones;
+      }
+
+      /**
+       * Solve a range of positions of the layer.
+       * @param from first index
+       * @param to index after the last
+       */
+      void solveRange(long from, long to)
+      {
+         int[] pits = frame(0);
+         unrank(from, pits);
+         for (long index = from; index < to; index++)
+         {
+            if (table[(int) index] == UNKNOWN)
+               table[(int) index] = (byte) solve(pits, 0);
+            next(pits);
+         }
+      }
+
+      /**
+       * Helper method to solve one position.
+       * @param pits 12 pit counts, side to move first
+       * @param depth recursion depth, selects the scratch frame
+       * @return stones the side to move gains over the opponent
+       */
+      private int solve(int[] pits, int depth)
+      {
+         int mine = 0;
+         int theirs = 0;
+         for (int i = 0; i < 6; i++)
+         {
+            mine += pits[i];
+            theirs += pits[i + 6];
+         }
+         // An empty side ends the game before anyone moves
+         if (mine == 0)
+            return -theirs;
+         if (theirs == 0)
+            return mine;
+
+         int[] child = frame(depth + 1);
+         int best = Integer.MIN_VALUE;
+         for (int pit = 0; pit < 6; pit++)
+         {
+            if (pits[pit] == 0)
+               continue;
+
+            load(pits);
+            engine.applyMove(pit);
+            int gain = engine.getMancalaValue(MancalaEngine.SIDE_A)
+               - engine.getMancalaValue(MancalaEngine.SIDE_B);
+            int value;
+            if (engine.isTerminal())
+            {
+               engine.checkWinner();
+               value = engine.getMancalaValue(MancalaEngine.SIDE_A)
+                  - engine.getMancalaValue(MancalaEngine.SIDE_B);
+            }
+            else if (engine.getSide() == MancalaEngine.SIDE_A)
+               value = gain + lookup(child, MancalaEngine.SIDE_A, depth + 1);
+            else
+               value = gain - lookup(child, MancalaEngine.SIDE_B, depth + 1);
+
+            if (value > best)
+               best = value;
+         }
+         return best;
+      }
+
+      /**
+       * Helper method to get the value of the position in the engine,
+       * solving it first if it is in the current layer and unknown.
+       * @param child scratch for the child's pit counts
+       * @param mover side to move in the engine
+       * @param depth recursion depth of the child
+       * @return value for the side to move
+       */
+      private int lookup(int[] child, int mover, int depth)
+      {
+         int first = mover * 7;
+         int other = 7 - first;
+         int count = 0;
+         for (int i = 0; i < 6; i++)
+         {
+            child[i] = engine.getSlot(first + i);
+            child[i + 6] = engine.getSlot(other + i);
+            count += child[i] + child[i + 6];
+         }
+         int index = (int) index(child, count);
+         byte value = table[index];
+         if (value == UNKNOWN)
+         {
+            // Only positions of the current layer can still be unknown
+            value = (byte) solve(child, depth);
+            table[index] = value;
+         }
+         return value;
+      }
+
+      /**
+       * Helper method to put a position into the engine, side to move as A.
+       * @param pits 12 pit counts, side to move first
+       */
+      private void load(int[] pits)
+      {
+         for (int i = 0; i < 6; i++)
+         {
+            slots[i] = pits[i];
+            slots[i + 7] = pits[i + 6];
+         }
+         slots[MancalaEngine.A_MANCALA] = 0;
+         slots[MancalaEngine.B_MANCALA] = 0;
+         engine.setPosition(slots, MancalaEngine.SIDE_A);
+      }
+
+      /**
+       * Helper method to get the scratch array of a recursion depth.
+       * @param depth recursion depth
+       * @return array of 12 ints
+       */
+      private int[] frame(int depth)
+      {
+         while (frames.size() <= depth)
+            frames.add(new int[PITS]);
+         return frames.get(depth);
+      }
+
+      /**
+       * Helper method to rank a position.
+       * @param pits 12 pit counts
+       * @param count total stones
+       * @return index in the table
+       */
+      private static long index(int[] pits, int count)
+      {
+         long index = positions(count - 1);
+         int remaining = count;
+         for (int i = 0; i < PITS - 1; i++)
+         {
+            index += rankStep(i, remaining, pits[i]);
+            remaining -= pits[i];
+         }
+         return index;
+      }
+
+      /**
+       * Helper method to find the position of an index in this layer.
+       * @param index index in the table
+       * @param pits receives the 12 pit counts
+       */
+      private void unrank(long index, int[] pits)
+      {
+         long rank = index - positions(stones - 1);
+         int remaining = stones;
+         for (int i = 0; i < PITS - 1; i++)
+         {
+            int count = 0;
+            while (count < remaining && rankStep(i, remaining, count + 1) <= rank)
+               count++;
+            rank -= rankStep(i, remaining, count);
+            pits[i] = count;
+            remaining -= count;
+         }
+         pits[PITS - 1] = remaining;
+      }
+
+      /**
+       * Helper method to step to the next position in rank order.
+       * @param pits 12 pit counts, changed in place
+       */
+      private static void next(int[] pits)
+      {
+         int rest = pits[PITS - 1];
+         int i = PITS - 2;
+         while (i >= 0 && rest == 0)
+            rest += pits[i--];
+         if (i < 0)
+            return; // last position of the layer
+         // pits[i + 1 .. PITS - 1] hold rest stones; move one into pit i
+         for (int j = i + 1; j < PITS; j++)
+            pits[j] = 0;
+         pits[i]++;
+         pits[PITS - 1] = rest - 1;
+      }
+   }
+}
@@ -0,0 +1,482 @@
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Archive of game records with random access by game id. The data file is
+ * a binary record stream as written by GameRecordWriter, so it can also be
+ * read sequentially with GameRecordReader. A second file, the data file name
+ * with ".idx" appended, holds an 8 byte header and the offset of every game
+ * as a long, so game i is found with one index read at 8 + 8 * i.
+ *
+ * Both files are read through memory-mapped chunks. New games are appended
+ * to the end of both files without rewriting them. An index that is missing
+ * or behind the data file, for example after a crash, is rebuilt from the
+ * data on open. Not safe for concurrent use.
+ *
+ * Usage: java GameArchive FILE [--generate N] [--stones S] [--import FILE]
+ *    [--fetches N] [--show ID]
+ */
+public class GameArchive implements Closeable
+{
+   private static final byte[] INDEX_MAGIC = { 'M', 'N', 'C', 'I' };
+   private static final int HEADER = 8;
+   private static final int CHUNK_BITS = 28;
+   private static final long CHUNK = 1L << CHUNK_BITS;
+   // Chunks overlap by this much so that a record starting near the end of
+   // a chunk can still be read from one mapping
+   private static final int MARGIN = 1 << 16;
+   private static final int WRITE_BUFFER = 1 << 16;
+
+   private final MappedFile data;
+   private final MappedFile index;
+   private final ByteBuffer pendingData;
+   private final ByteBuffer pendingIndex;
+   private long games;
+   private long end;
+
+   /**
+    * Constructor. Opens an archive, creating it if it does not exist.
+    * @param fileName name of the data file
+    * @throws IOException if the files cannot be opened or are not archives
+    */
+   public GameArchive(String fileName) throws IOException
+   {
+      data = new MappedFile(Paths.get(fileName));
+      index = new MappedFile(Paths.get(fileName + ".idx"));
+      pendingData = ByteBuffer.allocate(WRITE_BUFFER);
+      pendingIndex = ByteBuffer.allocate(WRITE_BUFFER);
+
+      if (data.size == 0)
+      {
+         ByteBuffer header = ByteBuffer.allocate(5);
+         header.put(GameRecordWriter.MAGIC);
+         header.put((byte) GameRecordWriter.VERSION);
+         data.write(header.flip());
+      }
+      checkHeader(data, GameRecordWriter.MAGIC, GameRecordWriter.VERSION);
+      if (index.size < HEADER)
+      {
+         index.truncate(0);
+         ByteBuffer header = ByteBuffer.allocate(HEADER);
+         header.put(INDEX_MAGIC).put((byte) GameRecordWriter.VERSION);
+         index.write(header.position(HEADER).flip());
+      }
+      checkHeader(index, INDEX_MAGIC, GameRecordWriter.VERSION);
+
+      games = (index.size - HEADER) / 8;
+      index.truncate(HEADER + games * 8);
+      recover();
+   }
+
+   /**
+    * Get the number of games in the archive.
+    * @return game count
+    */
+   public long size()
+   {
+      return games;
+   }
+
+   /**
+    * Get the size of the data file, including games not yet flushed.
+    * @return size in bytes
+    */
+   public long dataSize()
+   {
+      return end;
+   }
+
+   /**
+    * Append a game.
+    * @param record the game
+    * @return id of the game
+    * @throws IOException if writing fails
+    */
+   public long append(GameRecord record) throws IOException
+   {
+      byte[] bytes = record.encode();
+      if (bytes.length > pendingData.remaining()
+         || pendingIndex.remaining() < 8)
+         flush();
+      if (bytes.length > pendingData.capacity())
+         data.write(ByteBuffer.wrap(bytes));
+      else
+         pendingData.put(bytes);
+      pendingIndex.putLong(end);
+      end += bytes.length;
+      return games++;
+   }
+
+   /**
+    * Write appended games to the files.
+    * @throws IOException if writing fails
+    */
+   public void flush() throws IOException
+   {
+      // Data first, so an index entry never points past the data file
+      data.write(pendingData.flip());
+      pendingData.clear();
+      index.write(pendingIndex.flip());
+      pendingIndex.clear();
+   }
+
+   /**
+    * Get a game.
+    * @param id game id, 0 to size() - 1
+    * @return the game
+    * @throws IOException if reading fails or the game is malformed
+    */
+   public GameRecord get(long id) throws IOException
+   {
+      if (id < 0 || id >= games)
+         throw new IndexOutOfBoundsException("No game " + id);
+      if (HEADER + id * 8 >= index.size)
+         flush();
+      return read(index.read(HEADER + id * 8, 8).getLong());
+   }
+
+   /**
+    * Replay a game through the rules.
+    * @param id game id
+    * @return the final position
+    * @throws IOException if reading fails or the game is malformed
+    */
+   public MancalaEngine replay(long id) throws IOException
+   {
+      return get(id).replay();
+   }
+
+   /**
+    * Flush and close the archive.
+    * @throws IOException if writing fails
+    */
+   public void close() throws IOException
+   {
+      flush();
+      data.channel.close();
+      index.channel.close();
+   }
+
+   /**
+    * Helper method to read the game at a data file offset.
+    * @param offset offset of the record's length prefix
+    * @return the game
+    * @throws IOException if the game is malformed
+    */
+   private GameRecord read(long offset) throws IOException
+   {
+      int length = (int) (next(offset) - offset);
+      try
+      {
+         return GameRecord.decode(data.read(offset, length));
+      }
+      catch (IllegalArgumentException e)
+      {
+         throw new IOException("Malformed game at " + offset, e);
+      }
+   }
+
+   /**
+    * Helper method to index games in the data file after the last indexed
+    * game. A truncated last game is removed.
+    * @throws IOException if reading or writing fails
+    */
+   private void recover() throws IOException
+   {
+      long offset = 5;
+      if (games > 0)
+         offset = next(index.read(HEADER + (games - 1) * 8, 8).getLong());
+      while (offset < data.size)
+      {
+         long following;
+         try
+         {
+            following = next(offset);
+         }
+         catch (IOException e)
+         {
+            break;
+         }
+         pendingIndex.putLong(offset);
+         games++;
+         if (pendingIndex.remaining() < 8)
+            flush();
+         offset = following;
+      }
+      data.truncate(offset);
+      end = offset;
+      flush();
+   }
+
+   /**
+    * Helper method to find the end of the record at an offset.
+    * @param offset offset of the record's length prefix
+    * @return offset of the next record
+    * @throws IOException if the record is malformed or truncated
+    */
+   private long next(long offset) throws IOException
+   {
+      try
+      {
+         int available = (int) Math.min(5, data.size - offset);
+         ByteBuffer prefix = data.read(offset, available);
+         int start = prefix.position();
+         int payload = GameRecord.getVarint(prefix);
+         long following = offset + prefix.position() - start + payload;
+         if (payload < 0 || following > data.size)
+            throw new IOException("Truncated game at " + offset);
+         return following;
+      }
+      catch (IllegalArgumentException | BufferUnderflowException e)
+      {
+         throw new IOException("Truncated game at " + offset, e);
+      }
+   }
+
+   /**
+    * Helper method to check the header of a file.
+    * @param file the file
+    * @param magic expected magic bytes
+    * @param version expected version
+    * @throws IOException if the header does not match
+    */
+   private static void checkHeader(MappedFile file, byte[] magic, int version)
+      throws IOException
+   {
+      if (file.size < magic.length + 1)
+         throw new IOException("Not an archive file: " + file.path);
+      ByteBuffer header = file.read(0, magic.length + 1);
+      for (byte b : magic)
+      {
+         if (header.get() != b)
+            throw new IOException("Not an archive file: " + file.path);
+      }
+      if (header.get() != version)
+         throw new IOException("Unsupported archive version: " + file.path);
+   }
+
+   /**
+    * A file read through read-only mappings of overlapping chunks and
+    * appended to through its channel. Chunks are remapped when the file has
+    * grown past their end.
+    */
+   private static class MappedFile
+   {
+      final Path path;
+      final FileChannel channel;
+      MappedByteBuffer[] chunks;
+      long size;
+
+      /**
+       * Constructor.
+       * @param path file to open or create
+       * @throws IOException if the file cannot be opened
+       */
+      MappedFile(Path path) throws IOException
+      {
+         this.path = path;
+         channel = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+         chunks = new MappedByteBuffer[4];
+         size = channel.size();
+      }
+
+      /**
+       * Get a buffer over a range of the file.
+       * @param position file offset
+       * @param length number of bytes, at most MARGIN unless the range fits
+       *    in one chunk
+       * @return buffer whose position to limit covers the range
+       * @throws IOException if the range cannot be read
+       */
+      ByteBuffer read(long position, int length) throws IOException
+      {
+         int c = (int) (position >>> CHUNK_BITS);
+         int offset = (int) (position & (CHUNK - 1));
+         if (c >= chunks.length)
+            chunks = Arrays.copyOf(chunks, Math.max(c + 1, chunks.length * 2));
+
+         MappedByteBuffer chunk = chunks[c];
+         if (chunk == null || offset + length > chunk.capacity())
+         {
+            long start = (long) c << CHUNK_BITS;
+            long mapped = Math.min(size - start, CHUNK + MARGIN);
+            if (offset + length > mapped)
+            {
+               // Longer than the overlap, read it directly
+               ByteBuffer direct = ByteBuffer.allocate(length);
+               while (direct.hasRemaining())
+               {
+                  if (channel.read(direct, position + direct.position()) < 0)
+                     throw new IOException("Read past end of " + path);
+               }
+               return direct.flip();
+            }
+            chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, mapped);
+            chunks[c] = chunk;
+         }
+         return chunk.duplicate().limit(offset + length).position(offset);
+      }
+
+      /**
+       * Append bytes to the file.
+       * @param bytes buffer whose remaining bytes are written
+       * @throws IOException if writing fails
+       */
+      void write(ByteBuffer bytes) throws IOException
+      {
+         while (bytes.hasRemaining())
+            size += channel.write(bytes, size);
+      }
+
+      /**
+       * Cut the file to a size.
+       * @param newSize size in bytes
+       * @throws IOException if truncating fails
+       */
+      void truncate(long newSize) throws IOException
+      {
+         if (newSize < size)
+         {
+            channel.truncate(newSize);
+            size = newSize;
+            Arrays.fill(chunks, null);
+         }
+      }
+   }
+
+   /**
+    * Create, import or inspect an archive from the command line and report
+    * the sequential scan rate and random fetch latency.
+    * @param args command line arguments
+    * @throws IOException if the archive cannot be used
+    */
+   public static void main(String[] args) throws IOException
+   {
+      if (args.length == 0)
+      {
+         System.out.println("Usage: java GameArchive FILE [--generate N]"
+            + " [--stones S] [--import FILE] [--fetches N] [--show ID]");
+         return;
+      }
+
+      long generate = 0;
+      int stones = 4;
+      String importFile = null;
+      int fetches = 100000;
+      long show = -1;
+      for (int i = 1; i + 1 < args.length; i += 2)
+      {
+         String value = args[i + 1];
+         switch (args[i])
+         {
+         case "--generate":
+            generate = Long.parseLong(value);
+            break;
+         case "--stones":
+            stones = Integer.parseInt(value);
+            break;
+         case "--import":
+            importFile = value;
+            break;
+         case "--fetches":
+            fetches = Integer.parseInt(value);
+            break;
+         case "--show":
+            show = Long.parseLong(value);
+            break;
+         default:
+            throw new IllegalArgumentException("Unknown option: " + args[i]);
+         }
+      }
+
+      try (GameArchive archive = new GameArchive(args[0]))
+      {
+         long start = System.nanoTime();
+         long before = archive.size();
+         if (importFile != null)
+         {
+            try (GameRecordReader reader =
+               new GameRecordReader(new FileInputStream(importFile)))
+            {
+               GameRecord record;
+               while ((record = reader.next()) != null)
+                  archive.append(record);
+            }
+         }
+         RandomPlayer player = new RandomPlayer(1);
+         byte[] moves = new byte[64];
+         for (long g = 0; g < generate; g++)
+         {
+            MancalaEngine engine = new MancalaEngine(stones);
+            int count = 0;
+            while (!engine.isTerminal())
+            {
+               int pit = player.chooseMove(engine);
+               engine.applyMove(pit);
+               if (count == moves.length)
+                  moves = Arrays.copyOf(moves, count * 2);
+               moves[count++] = (byte) pit;
+            }
+            archive.append(new GameRecord(stones, MancalaRules.KALAH, "random",
+               "random", moves, count));
+         }
+         archive.flush();
+         if (archive.size() > before)
+         {
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("appended %d games in %.2f s, %.0f games/s%n",
+               archive.size() - before, seconds,
+               (archive.size() - before) / seconds);
+         }
+
+         long games = archive.size();
+         System.out.printf("%d games, %.1f MB%n", games,
+            archive.dataSize() / 1e6);
+         if (games == 0)
+            return;
+
+         if (show >= 0)
+         {
+            GameRecord record = archive.get(show);
+            MancalaEngine engine = record.replay();
+            System.out.println(record.toText());
+            System.out.printf("final A %d B %d%n",
+               engine.getMancalaValue(MancalaEngine.SIDE_A),
+               engine.getMancalaValue(MancalaEngine.SIDE_B));
+         }
+
+         start = System.nanoTime();
+         long moveTotal = 0;
+         for (long id = 0; id < games; id++)
+            moveTotal += archive.get(id).getMoveCount();
+         double seconds = (System.nanoTime() - start) / 1e9;
+         System.out.printf("scan %.1f MB/s, %.0f games/s, %d moves%n",
+            archive.dataSize() / 1e6 / seconds, games / seconds, moveTotal);
+
+         long[] nanos = new long[fetches];
+         SplittableRandom random = new SplittableRandom(7);
+         for (int i = 0; i < fetches; i++)
+         {
+            long id = random.nextLong(games);
+            long t = System.nanoTime();
+            moveTotal += archive.get(id).getMoveCount();
+            nanos[i] = System.nanoTime() - t;
+         }
+         Arrays.sort(nanos);
+         System.out.printf("random fetch p50 %.2f us  p99 %.2f us"
+            + "  max %.2f us%n", nanos[fetches / 2] / 1e3,
+            nanos[(int) (fetches * 0.99)] / 1e3, nanos[fetches - 1] / 1e3);
+      }
+   }
+}
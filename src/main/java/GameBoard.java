@@ -2,8 +2,10 @@
 import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.awt.GridLayout;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
@@ -15,9 +17,21 @@ public class GameBoard extends JFrame implements ChangeListener
    public static final int MANCALA_HEIGHT = 400;
    public static final int PIT_WIDTH = 60;
    public static final int PIT_HEIGHT = 145;
+   // Width added to the board for every pit per side beyond six
+   private static final int PIT_COLUMN_WIDTH = 80;
+   // Analysis of the move hints stops deepening after this time
+   private static final long HINT_TIME_MILLIS = 30000;
+   
+   private static final AtomicLong repaints = new AtomicLong();
+   private static final AtomicLong repaintsSkipped = new AtomicLong();
    
    private MancalaGame game;
    private MancalaModel mancalaModel;
+   private PitPanel[] a;
+   private PitPanel[] b;
+   private char computerSide;
+   private MoveAnalyzer analyzer;
+   private boolean hints;
    boolean winCheck = false;
    
    /**
@@ -36,15 +50,17 @@ public class GameBoard extends JFrame implements ChangeListener
 	   mancalaModel.attach(this);
 	   
 	   // Top status bar
-	   TopPanel top = new TopPanel(game, mancalaModel);
+	   TopPanel top = new TopPanel(game, mancalaModel, this);
 	   mancalaModel.attach(top);
      
       //Initializing PitPanels and MancalaPanels and attaching it to the model
+       int pits = mancalaModel.getRules().getPits();
+       int extraWidth = (pits - 6) * PIT_COLUMN_WIDTH;
        MancalaPanel mancalaA = new MancalaPanel(mancalaModel, 'a');
        mancalaA.setFormat(format);
        mancalaModel.attach(mancalaA);
-       PitPanel[] a = new PitPanel[6];
-       for (int i = 0; i < 6; i++)
+       a = new PitPanel[pits];
+       for (int i = 0; i < pits; i++)
        {
           a[i] = new PitPanel(mancalaModel, 'a', i);
           a[i].setFormat(format);
@@ -54,8 +70,8 @@ public class GameBoard extends JFrame implements ChangeListener
        MancalaPanel mancalaB = new MancalaPanel(mancalaModel, 'b');
        mancalaB.setFormat(format);
        mancalaModel.attach(mancalaB);
-       PitPanel[] b = new PitPanel[6];
-       for (int i = 0; i < 6; i++)
+       b = new PitPanel[pits];
+       for (int i = 0; i < pits; i++)
        {
           b[i] = new PitPanel(mancalaModel, 'b', i);
           b[i].setFormat(format);
@@ -64,28 +80,28 @@ public class GameBoard extends JFrame implements ChangeListener
        
        //Group the PitPanels together to form two rows
        JPanel middlePits = new JPanel();
-       GridLayout middleLayout = new GridLayout(2,6);
+       GridLayout middleLayout = new GridLayout(2, pits);
        middleLayout.setHgap(17);
        middlePits.setLayout(middleLayout);
-       for (int i = 5; i >= 0; i--)
+       for (int i = pits - 1; i >= 0; i--)
           middlePits.add(b[i]);
-       for (int i = 0; i < 6; i++)
+       for (int i = 0; i < pits; i++)
           middlePits.add(a[i]);       
        
        JPanel mainPanel = new JPanel();
        mainPanel.setLayout(new BorderLayout());
-       top.setPreferredSize(new Dimension(800, 100));
+       top.setPreferredSize(new Dimension(800 + extraWidth, 100));
        mainPanel.add(top, BorderLayout.PAGE_START);
        mancalaB.setPreferredSize(new Dimension(150, 500));
        mainPanel.add(mancalaB, BorderLayout.LINE_START);
-       middlePits.setPreferredSize(new Dimension(500, 500));
+       middlePits.setPreferredSize(new Dimension(500 + extraWidth, 500));
        mainPanel.add(middlePits, BorderLayout.CENTER);
        mancalaA.setPreferredSize(new Dimension(150, 500));
        mainPanel.add(mancalaA, BorderLayout.LINE_END);
        
        add(mainPanel);    
        
-	   setSize(DEFAULT_WIDTH, DEFAULT_HEIGHT);
+	   setSize(DEFAULT_WIDTH + extraWidth, DEFAULT_HEIGHT);
 	   setTitle("Mancala");
 	   setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 	   setResizable(false);
@@ -93,22 +109,162 @@ public class GameBoard extends JFrame implements ChangeListener
    }
    
    /**
-    * Controller that causes a repaint and checks to see if there is a winner.
+    * Disable the pits of the side played by the computer so that they
+    * cannot be clicked.
+    * @param side 'a' or 'b'
+    */
+   public void setComputerSide(char side)
+   {
+	   computerSide = side;
+	   PitPanel[] pits = (side == 'a') ? a : b;
+	   for (int i = 0; i < pits.length; i++)
+		   pits[i].setEnabled(false);
+   }
+   
+   /**
+    * Turn the move hints on or off. While on, every legal move of the
+    * player to move is scored under its pit, improving as the analysis
+    * deepens. No hints are shown while the computer is to move.
+    * @param enabled true to show hints
+    */
+   public void setHintsEnabled(boolean enabled)
+   {
+	   hints = enabled;
+	   if (enabled)
+		   updateHints();
+	   else
+	   {
+		   if (analyzer != null)
+			   analyzer.cancel();
+		   clearHints();
+	   }
+   }
+
+   /**
+    * Close the board, stopping the hint analysis.
+    */
+   public void dispose()
+   {
+	   if (analyzer != null)
+		   analyzer.cancel();
+	   super.dispose();
+   }
+
+   /**
+    * Helper method to start analyzing the current position for hints.
+    */
+   private void updateHints()
+   {
+	   clearHints();
+	   BoardSnapshot snapshot = mancalaModel.getSnapshot();
+	   if (analyzer == null)
+		   analyzer = new MoveAnalyzer(new TranspositionTable(16),
+			   WorkerPool.getShared(), HINT_TIME_MILLIS);
+	   if (snapshot.isGameOver() || snapshot.getCurrPlayer() == computerSide)
+	   {
+		   analyzer.cancel();
+		   return;
+	   }
+	   analyzer.analyze(snapshot.toEngine(), this::showHints);
+   }
+
+   /**
+    * Helper method to show the scores of an analysis under the pits.
+    * @param analysis scores of the current position
+    */
+   private void showHints(MoveAnalyzer.Analysis analysis)
+   {
+	   if (!hints || analysis.getHash() != mancalaModel.getSnapshot().getHash())
+		   return;
+	   PitPanel[] pits = analysis.getSide() == MancalaEngine.SIDE_A ? a : b;
+	   for (int i = 0; i < pits.length; i++)
+	   {
+		   int score = analysis.getScore(i);
+		   if (score == MoveAnalyzer.NO_SCORE)
+		   {
+			   pits[i].setHint(null, false, null);
+			   continue;
+		   }
+		   String text = (score > 0 ? "+" : "") + score;
+		   String tip = analysis.isExact() ? "Final margin " + text
+			   : "Margin " + text + " at depth " + analysis.getDepth();
+		   pits[i].setHint(text, i == analysis.getBestPit(), tip);
+	   }
+   }
+
+   /**
+    * Helper method to remove all hints.
+    */
+   private void clearHints()
+   {
+	   for (int i = 0; i < a.length; i++)
+	   {
+		   a[i].setHint(null, false, null);
+		   b[i].setHint(null, false, null);
+	   }
+   }
+
+   /**
+    * Record a board panel update.
+    * @param skipped true if the panel did not need to repaint
+    */
+   public static void countRepaint(boolean skipped)
+   {
+	   if (skipped)
+		   repaintsSkipped.incrementAndGet();
+	   else
+		   repaints.incrementAndGet();
+   }
+   
+   /**
+    * Get the number of board panel repaints requested.
+    * @return repaint count
+    */
+   public static long getRepaints()
+   {
+	   return repaints.get();
+   }
+   
+   /**
+    * Get the number of board panel updates that skipped repainting because
+    * their value did not change.
+    * @return skipped repaint count
+    */
+   public static long getRepaintsSkipped()
+   {
+	   return repaintsSkipped.get();
+   }
+   
+   /**
+    * Controller that checks to see if there is a winner. The pit and
+    * mancala panels repaint themselves when their values change. The check
+    * runs after all views have seen the change, since the sweep at the end
+    * of the game sends another change.
     */
    public void stateChanged(ChangeEvent e) 
    {
-		repaint();
+		if (hints)
+			updateHints();
 		if (!winCheck)
 		{
 			winCheck = true;
-			char winner = mancalaModel.checkWinner();
-			if (winner != 'c')
-			{
-				repaint();
-				game.endGame(winner);
-			}
-			else
-				winCheck = false;
+			SwingUtilities.invokeLater(this::checkWinner);
+		}
+   }
+
+   /**
+    * Helper method to end the game if there is a winner.
+    */
+   private void checkWinner()
+   {
+		if (!isDisplayable())
+			return; // The game was replaced
+		char winner = mancalaModel.checkWinner();
+		if (winner != 'c')
+		{
+			game.endGame(winner);
 		}
+		else
+			winCheck = false;
    }   
 }
\ No newline at end of file
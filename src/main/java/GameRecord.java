@@ -0,0 +1,416 @@
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A recorded game: the starting stone count, the rule variant, the names
+ * of the players and the pits played in order. The side playing each move
+ * follows from the rules, so it is not stored.
+ *
+ * Binary record: varint payload length, then a payload of varint stones,
+ * variant byte, player A and B as varint length plus UTF-8 bytes, varint
+ * move count and the moves packed two per byte, first move in the low
+ * nibble. The variant byte holds the capture rule in bits 0-1 and the
+ * sweep rule in bit 2; bit 3 is set when a byte with the pits per side
+ * follows, which is left out for 6 pits. Standard Kalah is variant 0.
+ *
+ * Text notation, one game per line:
+ * [Stones "3"] [Variant "kalah"] [A "name"] [B "name"] A3 B1 A6 ...
+ * where the variant is named as in MancalaRules and each move is the side
+ * letter and the pit number starting at 1.
+ */
+public class GameRecord
+{
+   private final int stones;
+   private final MancalaRules rules;
+   private final String playerA;
+   private final String playerB;
+   private final byte[] moves;
+
+   /**
+    * Constructor.
+    * @param stones stones initially in each pit
+    * @param rules board geometry and rule variant
+    * @param playerA name of player A
+    * @param playerB name of player B
+    * @param moves pits played in order, starting at 0
+    * @param moveCount number of moves used from the array
+    */
+   public GameRecord(int stones, MancalaRules rules, String playerA,
+         String playerB, byte[] moves, int moveCount)
+   {
+      this.stones = stones;
+      this.rules = rules;
+      this.playerA = playerA;
+      this.playerB = playerB;
+      this.moves = Arrays.copyOf(moves, moveCount);
+   }
+
+   /**
+    * Create a record of a game kept in a journal.
+    * @param stones stones initially in each pit
+    * @param rules board geometry and rule variant
+    * @param journal the game's history, moves up to the current ply are
+    *    recorded
+    * @param playerA name of player A
+    * @param playerB name of player B
+    * @return the record
+    */
+   public static GameRecord fromJournal(int stones, MancalaRules rules,
+         MoveJournal journal, String playerA, String playerB)
+   {
+      byte[] moves = new byte[journal.getPly()];
+      int count = 0;
+      for (int i = 0; i < journal.getPly(); i++)
+      {
+         int pit = journal.getMove(i);
+         if (pit >= 0)
+            moves[count++] = (byte) pit;
+      }
+      return new GameRecord(stones, rules, playerA, playerB, moves, count);
+   }
+
+   /**
+    * Get the stones initially in each pit.
+    * @return stone count
+    */
+   public int getStones()
+   {
+      return stones;
+   }
+
+   /**
+    * Get the board geometry and rule variant.
+    * @return the rules
+    */
+   public MancalaRules getRules()
+   {
+      return rules;
+   }
+
+   /**
+    * Get the name of player A.
+    * @return the name
+    */
+   public String getPlayerA()
+   {
+      return playerA;
+   }
+
+   /**
+    * Get the name of player B.
+    * @return the name
+    */
+   public String getPlayerB()
+   {
+      return playerB;
+   }
+
+   /**
+    * Get the number of moves.
+    * @return move count
+    */
+   public int getMoveCount()
+   {
+      return moves.length;
+   }
+
+   /**
+    * Get a move.
+    * @param index move number, starting at 0
+    * @return pit played, starting at 0
+    */
+   public int getMove(int index)
+   {
+      return moves[index];
+   }
+
+   /**
+    * Encode the game in the binary format.
+    * @return varint payload length followed by the payload
+    */
+   public byte[] encode()
+   {
+      byte[] a = playerA.getBytes(StandardCharsets.UTF_8);
+      byte[] b = playerB.getBytes(StandardCharsets.UTF_8);
+      int variant = rules.getCapture().ordinal()
+         | rules.getSweep().ordinal() << 2;
+      if (rules.getPits() != 6)
+         variant |= 8;
+      int payload = varintSize(stones) + 1 + (variant >> 3)
+         + varintSize(a.length) + a.length
+         + varintSize(b.length) + b.length + varintSize(moves.length)
+         + (moves.length + 1) / 2;
+
+      ByteBuffer out = ByteBuffer.allocate(varintSize(payload) + payload);
+      putVarint(out, payload);
+      putVarint(out, stones);
+      out.put((byte) variant);
+      if ((variant & 8) != 0)
+         out.put((byte) rules.getPits());
+      putVarint(out, a.length);
+      out.put(a);
+      putVarint(out, b.length);
+      out.put(b);
+      putVarint(out, moves.length);
+      for (int i = 0; i < moves.length; i += 2)
+      {
+         int high = i + 1 < moves.length ? moves[i + 1] : 0;
+         out.put((byte) (moves[i] | (high << 4)));
+      }
+      return out.array();
+   }
+
+   /**
+    * Decode a game in the binary format.
+    * @param in buffer positioned at the payload length, left positioned
+    *    after the record
+    * @return the record
+    * @throws IllegalArgumentException if the record is malformed
+    */
+   public static GameRecord decode(ByteBuffer in)
+   {
+      try
+      {
+         return decodePayload(in, getVarint(in));
+      }
+      catch (BufferUnderflowException e)
+      {
+         throw new IllegalArgumentException("Truncated record", e);
+      }
+   }
+
+   /**
+    * Decode the payload of a game in the binary format.
+    * @param in buffer positioned at the payload, left positioned after it
+    * @param length payload length
+    * @return the record
+    * @throws IllegalArgumentException if the payload is malformed
+    */
+   static GameRecord decodePayload(ByteBuffer in, int length)
+   {
+      try
+      {
+         int end = in.position() + length;
+         int stones = getVarint(in);
+         MancalaRules rules = decodeRules(in.get() & 0xFF, in);
+         String playerA = getString(in);
+         String playerB = getString(in);
+         int count = getVarint(in);
+         if (count > 2 * (end - in.position()))
+            throw new IllegalArgumentException("Bad move count " + count);
+         byte[] moves = new byte[count];
+         for (int i = 0; i < count; i += 2)
+         {
+            int b = in.get();
+            moves[i] = (byte) (b & 0xF);
+            if (i + 1 < count)
+               moves[i + 1] = (byte) ((b >> 4) & 0xF);
+         }
+         if (in.position() != end)
+            throw new IllegalArgumentException("Bad record length " + length);
+         return new GameRecord(stones, rules, playerA, playerB, moves,
+            count);
+      }
+      catch (BufferUnderflowException | IndexOutOfBoundsException e)
+      {
+         throw new IllegalArgumentException("Truncated record", e);
+      }
+   }
+
+   /**
+    * Helper method to decode the rules from the variant byte.
+    * @param variant the variant byte
+    * @param in buffer positioned after it, holding the pit count if the
+    *    variant says so
+    * @return the rules
+    */
+   private static MancalaRules decodeRules(int variant, ByteBuffer in)
+   {
+      if (variant == 0)
+         return MancalaRules.KALAH;
+
+      MancalaRules.Capture[] captures = MancalaRules.Capture.values();
+      if ((variant & 3) >= captures.length || (variant & ~15) != 0)
+         throw new IllegalArgumentException("Unknown variant " + variant);
+      int pits = (variant & 8) != 0 ? in.get() & 0xFF : 6;
+      return new MancalaRules(pits, captures[variant & 3],
+         MancalaRules.Sweep.values()[(variant >> 2) & 1]);
+   }
+
+   /**
+    * Replay the game from the start. If the game is over the final sweep
+    * is done as well.
+    * @return the final position
+    * @throws IllegalArgumentException if a move is illegal
+    */
+   public MancalaEngine replay()
+   {
+      MancalaEngine engine = new MancalaEngine(stones, rules);
+      for (int i = 0; i < moves.length; i++)
+      {
+         if (!engine.applyMove(moves[i]))
+            throw new IllegalArgumentException("Illegal move " + (i + 1));
+      }
+      engine.checkWinner();
+      return engine;
+   }
+
+   /**
+    * Write the game in text notation.
+    * @return one line without line terminator
+    */
+   public String toText()
+   {
+      StringBuilder sb = new StringBuilder();
+      sb.append("[Stones \"").append(stones).append("\"] [Variant \"")
+         .append(rules.getName()).append("\"] [A \"")
+         .append(escape(playerA)).append("\"] [B \"")
+         .append(escape(playerB)).append("\"]");
+      MancalaEngine engine = new MancalaEngine(stones, rules);
+      for (int i = 0; i < moves.length; i++)
+      {
+         sb.append(' ').append(Character.toUpperCase(engine.getCurrPlayer()))
+            .append(moves[i] + 1);
+         engine.applyMove(moves[i]);
+      }
+      return sb.toString();
+   }
+
+   /**
+    * Read a game in text notation.
+    * @param line one line written by toText()
+    * @return the record
+    * @throws IllegalArgumentException if the line is not a valid game
+    */
+   public static GameRecord parseText(String line)
+   {
+      String[] tags = new String[4];
+      String[] names = { "Stones", "Variant", "A", "B" };
+      int at = 0;
+      for (int t = 0; t < tags.length; t++)
+      {
+         String prefix = "[" + names[t] + " \"";
+         at = skipSpaces(line, at);
+         if (!line.startsWith(prefix, at))
+            throw new IllegalArgumentException("Expected " + prefix + " at "
+               + at);
+         at += prefix.length();
+         StringBuilder value = new StringBuilder();
+         while (at < line.length() && line.charAt(at) != '"')
+         {
+            if (line.charAt(at) == '\\' && at + 1 < line.length())
+               at++;
+            value.append(line.charAt(at++));
+         }
+         if (!line.startsWith("\"]", at))
+            throw new IllegalArgumentException("Unterminated tag " + names[t]);
+         at += 2;
+         tags[t] = value.toString();
+      }
+
+      MancalaRules rules = MancalaRules.parse(tags[1]);
+      int stones = Integer.parseInt(tags[0]);
+
+      String[] tokens = line.substring(at).trim().split("\\s+");
+      byte[] moves = new byte[tokens.length];
+      int count = 0;
+      MancalaEngine engine = new MancalaEngine(stones, rules);
+      for (String token : tokens)
+      {
+         if (token.isEmpty())
+            continue;
+         int pit = token.length() == 2 ? token.charAt(1) - '1' : -1;
+         if (Character.toLowerCase(token.charAt(0)) != engine.getCurrPlayer()
+            || !engine.applyMove(pit))
+            throw new IllegalArgumentException("Illegal move " + token);
+         moves[count++] = (byte) pit;
+      }
+      return new GameRecord(stones, rules, tags[2], tags[3], moves, count);
+   }
+
+   /**
+    * Helper method to get the encoded size of a varint.
+    * @param value non-negative value
+    * @return number of bytes, seven bits each
+    */
+   static int varintSize(int value)
+   {
+      int size = 1;
+      while ((value >>>= 7) != 0)
+         size++;
+      return size;
+   }
+
+   /**
+    * Helper method to write an unsigned varint, seven bits per byte.
+    * @param out buffer to write to
+    * @param value non-negative value
+    */
+   private static void putVarint(ByteBuffer out, int value)
+   {
+      while ((value & ~0x7F) != 0)
+      {
+         out.put((byte) ((value & 0x7F) | 0x80));
+         value >>>= 7;
+      }
+      out.put((byte) value);
+   }
+
+   /**
+    * Helper method to read an unsigned varint.
+    * @param in buffer to read from
+    * @return the value
+    */
+   static int getVarint(ByteBuffer in)
+   {
+      int value = 0;
+      for (int shift = 0; shift < 35; shift += 7)
+      {
+         int b = in.get();
+         value |= (b & 0x7F) << shift;
+         if ((b & 0x80) == 0)
+            return value;
+      }
+      throw new IllegalArgumentException("Bad varint");
+   }
+
+   /**
+    * Helper method to read a length-prefixed UTF-8 string.
+    * @param in buffer to read from
+    * @return the string
+    */
+   private static String getString(ByteBuffer in)
+   {
+      int length = getVarint(in);
+      if (length < 0 || length > in.remaining())
+         throw new IllegalArgumentException("Bad string length " + length);
+      byte[] bytes = new byte[length];
+      in.get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+   }
+
+   /**
+    * Helper method to escape quotes and backslashes in a tag value.
+    * @param value tag value
+    * @return escaped value
+    */
+   private static String escape(String value)
+   {
+      return value.replace("\\", "\\\\").replace("\"", "\\\"");
+   }
+
+   /**
+    * Helper method to skip spaces.
+    * @param line text
+    * @param at start offset
+    * @return offset of the next non-space character
+    */
+   private static int skipSpaces(String line, int at)
+   {
+      while (at < line.length() && line.charAt(at) == ' ')
+         at++;
+      return at;
+   }
+}
@@ -0,0 +1,173 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads game records written by GameRecordWriter one at a time. Binary and
+ * text streams are told apart by the magic bytes at the start, so callers
+ * do not need to know the format.
+ */
+public class GameRecordReader implements Closeable
+{
+   private final InputStream in;
+   private final boolean text;
+   private byte[] buffer;
+   private long records;
+
+   /**
+    * Constructor. Reads the stream header.
+    * @param in stream to read from, buffered by the reader
+    * @throws IOException if the stream is neither a binary record stream
+    *    nor text notation
+    */
+   public GameRecordReader(InputStream in) throws IOException
+   {
+      this.in = new BufferedInputStream(in, 1 << 16);
+      buffer = new byte[256];
+
+      byte[] magic = GameRecordWriter.MAGIC;
+      this.in.mark(magic.length + 1);
+      int matched = 0;
+      while (matched < magic.length && this.in.read() == magic[matched])
+         matched++;
+      if (matched == magic.length)
+      {
+         int version = this.in.read();
+         if (version != GameRecordWriter.VERSION)
+            throw new IOException("Unsupported record version " + version);
+         text = false;
+      }
+      else
+      {
+         this.in.reset();
+         text = true;
+      }
+   }
+
+   /**
+    * Check if the stream holds text notation.
+    * @return true for text, false for the binary format
+    */
+   public boolean isText()
+   {
+      return text;
+   }
+
+   /**
+    * Read the next record.
+    * @return the game, or null at the end of the stream
+    * @throws IOException if reading fails or a record is malformed
+    */
+   public GameRecord next() throws IOException
+   {
+      if (text)
+         return nextText();
+
+      int first = in.read();
+      if (first < 0)
+         return null;
+      int payload = readVarint(first);
+      if (payload < 0)
+         throw new IOException("Malformed record " + (records + 1));
+      if (payload > buffer.length)
+         buffer = new byte[Math.max(payload, buffer.length * 2)];
+      int read = in.readNBytes(buffer, 0, payload);
+      if (read < payload)
+         throw new EOFException("Truncated record " + (records + 1));
+
+      try
+      {
+         GameRecord record =
+            GameRecord.decodePayload(ByteBuffer.wrap(buffer, 0, payload),
+               payload);
+         records++;
+         return record;
+      }
+      catch (IllegalArgumentException e)
+      {
+         throw new IOException("Malformed record " + (records + 1), e);
+      }
+   }
+
+   /**
+    * Get the number of records read.
+    * @return record count
+    */
+   public long getRecordCount()
+   {
+      return records;
+   }
+
+   /**
+    * Close the underlying stream.
+    * @throws IOException if closing fails
+    */
+   public void close() throws IOException
+   {
+      in.close();
+   }
+
+   /**
+    * Helper method to read the next non-empty line of text notation.
+    * @return the game, or null at the end of the stream
+    * @throws IOException if reading fails or the line is not a valid game
+    */
+   private GameRecord nextText() throws IOException
+   {
+      while (true)
+      {
+         int length = 0;
+         int c;
+         while ((c = in.read()) >= 0 && c != '\n')
+         {
+            if (length == buffer.length)
+               buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            buffer[length++] = (byte) c;
+         }
+         if (c < 0 && length == 0)
+            return null;
+
+         String line = new String(buffer, 0, length, StandardCharsets.UTF_8)
+            .trim();
+         if (line.isEmpty())
+            continue;
+         try
+         {
+            GameRecord record = GameRecord.parseText(line);
+            records++;
+            return record;
+         }
+         catch (IllegalArgumentException e)
+         {
+            throw new IOException("Malformed game " + (records + 1), e);
+         }
+      }
+   }
+
+   /**
+    * Helper method to read a varint length prefix from the stream.
+    * @param first first byte, already read
+    * @return the value
+    * @throws IOException if the stream ends inside the varint
+    */
+   private int readVarint(int first) throws IOException
+   {
+      int value = first & 0x7F;
+      int shift = 7;
+      int b = first;
+      while ((b & 0x80) != 0)
+      {
+         b = in.read();
+         if (b < 0 || shift > 28)
+            throw new EOFException("Truncated record " + (records + 1));
+         value |= (b & 0x7F) << shift;
+         shift += 7;
+      }
+      return value;
+   }
+}
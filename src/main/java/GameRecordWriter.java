@@ -0,0 +1,95 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streams game records to an output stream, either in the binary format or
+ * in text notation. Records are written one at a time, so archives of any
+ * size can be produced with constant memory.
+ *
+ * A binary stream starts with the magic bytes "MNCR" and a version byte,
+ * followed by the records as encoded by GameRecord.encode(). A text stream
+ * holds one game per line.
+ */
+public class GameRecordWriter implements Closeable
+{
+   static final byte[] MAGIC = { 'M', 'N', 'C', 'R' };
+   static final int VERSION = 1;
+
+   private final OutputStream out;
+   private final boolean text;
+   private long records;
+
+   /**
+    * Constructor for a binary stream.
+    * @param out stream to write to, buffered by the writer
+    * @throws IOException if the header cannot be written
+    */
+   public GameRecordWriter(OutputStream out) throws IOException
+   {
+      this(out, false);
+   }
+
+   /**
+    * Constructor.
+    * @param out stream to write to, buffered by the writer
+    * @param text true for text notation, false for the binary format
+    * @throws IOException if the header cannot be written
+    */
+   public GameRecordWriter(OutputStream out, boolean text) throws IOException
+   {
+      this.out = new BufferedOutputStream(out, 1 << 16);
+      this.text = text;
+      if (!text)
+      {
+         this.out.write(MAGIC);
+         this.out.write(VERSION);
+      }
+   }
+
+   /**
+    * Write one record.
+    * @param record the game
+    * @throws IOException if writing fails
+    */
+   public void write(GameRecord record) throws IOException
+   {
+      records++;
+      if (text)
+      {
+         out.write(record.toText().getBytes(StandardCharsets.UTF_8));
+         out.write('\n');
+      }
+      else
+         out.write(record.encode());
+   }
+
+   /**
+    * Get the number of records written.
+    * @return record count
+    */
+   public long getRecordCount()
+   {
+      return records;
+   }
+
+   /**
+    * Write out any buffered records.
+    * @throws IOException if writing fails
+    */
+   public void flush() throws IOException
+   {
+      out.flush();
+   }
+
+   /**
+    * Flush and close the underlying stream.
+    * @throws IOException if writing fails
+    */
+   public void close() throws IOException
+   {
+      out.close();
+   }
+}
@@ -0,0 +1,41 @@
+/**
+ * Computer player that looks one move ahead and plays the move giving the
+ * best mancala difference, preferring free turns on equal scores.
+ */
+public class GreedyPlayer implements MancalaPlayer
+{
+   private MancalaEngine scratch = new MancalaEngine(0);
+
+   /**
+    * Choose the move with the best immediate result.
+    * @param position current position, not modified by the player
+    * @return pit number to play, or -1 if there is no legal move
+    */
+   public int chooseMove(MancalaEngine position)
+   {
+      int side = position.getSide();
+      int best = -1;
+      int bestScore = Integer.MIN_VALUE;
+      if (!scratch.getRules().equals(position.getRules()))
+         scratch = position.copy();
+      int pits = position.getRules().getPits();
+      for (int pit = 0; pit < pits; pit++)
+      {
+         if (!position.isLegal(pit))
+            continue;
+
+         scratch.copyFrom(position);
+         scratch.applyMove(pit);
+         int score = 2 * (scratch.getMancalaValue(side)
+            - scratch.getMancalaValue(side ^ 1));
+         if (scratch.getSide() == side)
+            score++;
+         if (score > bestScore)
+         {
+            bestScore = score;
+            best = pit;
+         }
+      }
+      return best;
+   }
+}
@@ -0,0 +1,147 @@
+import java.util.Arrays;
+
+/**
+ * Histogram of latencies with log-linear buckets in the style of
+ * HdrHistogram. Values below 2^PRECISION_BITS have a bucket each; above
+ * that every power of two range is split into 2^PRECISION_BITS buckets, so
+ * any positive long is counted with a relative error below 1% in a fixed
+ * 60 KB table and recording never allocates. Not thread safe.
+ */
+public class LatencyHistogram
+{
+   public static final int PRECISION_BITS = 7;
+
+   private static final int SUB_BUCKETS = 1 << PRECISION_BITS;
+
+   private final long[] counts =
+      new long[(65 - PRECISION_BITS) * SUB_BUCKETS];
+   private long count;
+   private long sum;
+   private long min = Long.MAX_VALUE;
+   private long max;
+
+   /**
+    * Count a value.
+    * @param value the value, negative values count as 0
+    */
+   public void record(long value)
+   {
+      value = Math.max(0, value);
+      counts[index(value)]++;
+      count++;
+      sum += value;
+      min = Math.min(min, value);
+      max = Math.max(max, value);
+   }
+
+   /**
+    * Add the counts of another histogram to this one.
+    * @param other histogram to add
+    */
+   public void add(LatencyHistogram other)
+   {
+      for (int i = 0; i < counts.length; i++)
+         counts[i] += other.counts[i];
+      count += other.count;
+      sum += other.sum;
+      min = Math.min(min, other.min);
+      max = Math.max(max, other.max);
+   }
+
+   /**
+    * Remove all counts.
+    */
+   public void reset()
+   {
+      Arrays.fill(counts, 0);
+      count = 0;
+      sum = 0;
+      min = Long.MAX_VALUE;
+      max = 0;
+   }
+
+   /**
+    * Get the number of values counted.
+    * @return value count
+    */
+   public long getCount()
+   {
+      return count;
+   }
+
+   /**
+    * Get the smallest value counted.
+    * @return the value, or 0 if the histogram is empty
+    */
+   public long getMin()
+   {
+      return count == 0 ? 0 : min;
+   }
+
+   /**
+    * Get the largest value counted.
+    * @return the value, or 0 if the histogram is empty
+    */
+   public long getMax()
+   {
+      return max;
+   }
+
+   /**
+    * Get the exact mean of the values counted.
+    * @return the mean, or 0 if the histogram is empty
+    */
+   public double getMean()
+   {
+      return count == 0 ? 0 : (double) sum / count;
+   }
+
+   /**
+    * Get a percentile of the values counted. The result is the upper end
+    * of the bucket holding the percentile, never more than the largest
+    * value.
+    * @param percentile percentile, 0 to 100
+    * @return the value, or 0 if the histogram is empty
+    */
+   public long getValueAtPercentile(double percentile)
+   {
+      if (count == 0)
+         return 0;
+      long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++)
+      {
+         seen += counts[i];
+         if (seen >= rank)
+            return Math.min(max, highestValue(i));
+      }
+      return max;
+   }
+
+   /**
+    * Helper method to get the bucket of a value.
+    * @param value value, not negative
+    * @return bucket index
+    */
+   private static int index(long value)
+   {
+      if (value < SUB_BUCKETS)
+         return (int) value;
+      int shift = 63 - Long.numberOfLeadingZeros(value) - PRECISION_BITS;
+      return shift * SUB_BUCKETS + (int) (value >>> shift);
+   }
+
+   /**
+    * Helper method to get the largest value that falls in a bucket.
+    * @param index bucket index
+    * @return largest value of the bucket
+    */
+   private static long highestValue(int index)
+   {
+      if (index < 2 * SUB_BUCKETS)
+         return index;
+      int shift = index / SUB_BUCKETS - 1;
+      long top = index - (long) shift * SUB_BUCKETS;
+      return (top << shift) + (1L << shift) - 1;
+   }
+}
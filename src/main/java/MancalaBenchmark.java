@@ -0,0 +1,493 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.regex.Pattern;
+
+/**
+ * Micro benchmarks for the rules engine, the packed playout board, the
+ * batch playouts and the stone shape generators.
+ * Each benchmark is warmed up, then timed over several fixed-length
+ * iterations; the mean throughput and its error are printed and can be
+ * written as JSON in the layout JMH uses, for comparison between runs.
+ *
+ * Usage: java MancalaBenchmark [--filter REGEX] [--warmup N]
+ *    [--iterations N] [--time-ms MS] [--json FILE]
+ */
+public class MancalaBenchmark
+{
+   // Results are folded into this field so the JIT cannot drop the work
+   private static volatile long sink;
+
+   private int warmup = 3;
+   private int iterations = 5;
+   private long iterationMillis = 500;
+   private ArrayList<Result> results = new ArrayList<Result>();
+
+   /**
+    * A benchmark case. One call of op() is one measured operation.
+    */
+   private abstract static class Case
+   {
+      final String name;
+      final String param;
+
+      Case(String name, String param)
+      {
+         this.name = name;
+         this.param = param;
+      }
+
+      /**
+       * Run one operation.
+       * @return a value depending on the work done
+       */
+      abstract long op();
+   }
+
+   /**
+    * Result of one benchmark case.
+    */
+   private static class Result
+   {
+      String name;
+      String param;
+      double score;
+      double error;
+      double[] samples;
+   }
+
+   /**
+    * Run the benchmarks from the command line.
+    * @param args command line arguments
+    * @throws IOException if the JSON file cannot be written
+    */
+   public static void main(String[] args) throws IOException
+   {
+      MancalaBenchmark bench = new MancalaBenchmark();
+      String filter = ".*";
+      String json = null;
+      for (int i = 0; i + 1 < args.length; i += 2)
+      {
+         String value = args[i + 1];
+         switch (args[i])
+         {
+         case "--filter":
+            filter = value;
+            break;
+         case "--warmup":
+            bench.warmup = Integer.parseInt(value);
+            break;
+         case "--iterations":
+            bench.iterations = Integer.parseInt(value);
+            break;
+         case "--time-ms":
+            bench.iterationMillis = Long.parseLong(value);
+            break;
+         case "--json":
+            json = value;
+            break;
+         default:
+            throw new IllegalArgumentException("Unknown option: " + args[i]);
+         }
+      }
+
+      Pattern pattern = Pattern.compile(filter);
+      System.out.printf("%-38s %-26s %16s %14s%n", "Benchmark", "Param",
+         "ops/s", "error");
+      for (Case c : cases())
+      {
+         if (pattern.matcher(c.name).find())
+            bench.measure(c);
+      }
+      if (json != null)
+         bench.writeJson(json);
+   }
+
+   /**
+    * Build the list of benchmark cases.
+    * @return all cases
+    */
+   private static ArrayList<Case> cases()
+   {
+      ArrayList<Case> cases = new ArrayList<Case>();
+      for (final int stones : new int[] { 3, 4, 6 })
+      {
+         final MancalaEngine[] positions = randomPositions(stones, 1024);
+         cases.add(new Case("engine.applyMove", "stones=" + stones)
+         {
+            final MancalaEngine engine = new MancalaEngine(0);
+            int next;
+
+            long op()
+            {
+               MancalaEngine from = positions[next++ & 1023];
+               engine.copyFrom(from);
+               engine.applyMove(Integer.numberOfTrailingZeros(
+                  from.getLegalMoves()));
+               return engine.getHash();
+            }
+         });
+         cases.add(playoutCase("stones=" + stones,
+            new MancalaEngine(stones)));
+         cases.add(packedPlayoutCase("stones=" + stones,
+            new PackedBoard(stones, MancalaRules.KALAH)));
+         cases.add(batchPlayoutCase("stones=" + stones,
+            MancalaRules.KALAH, stones));
+         cases.add(new Case("model.playout", "stones=" + stones)
+         {
+            final SplittableRandom random = new SplittableRandom(1);
+
+            long op()
+            {
+               MancalaModel model = new MancalaModel(stones);
+               while (!model.isGameOver())
+               {
+                  int legal = 0;
+                  int pick = 0;
+                  for (int pit = 0; pit < MancalaEngine.PITS; pit++)
+                  {
+                     if (model.getPitValue(model.getCurrPlayer(), pit) > 0
+                        && random.nextInt(++legal) == 0)
+                        pick = pit;
+                  }
+                  model.doTurn(model.getCurrPlayer(), pick);
+               }
+               return model.checkWinner();
+            }
+         });
+         cases.add(new Case("engine.checkWinner", "stones=" + stones)
+         {
+            final MancalaEngine engine = new MancalaEngine(0);
+            int next;
+
+            long op()
+            {
+               engine.copyFrom(positions[next++ & 1023]);
+               return engine.checkWinner();
+            }
+         });
+         cases.add(new Case("model.doTurnUndo", "stones=" + stones)
+         {
+            MancalaModel model = new MancalaModel(stones);
+
+            long op()
+            {
+               // The undo rule allows three undos in a row
+               if (model.getUndoCount() == 0)
+                  model = new MancalaModel(stones);
+               model.doTurn(model.getCurrPlayer(), 2);
+               model.undo();
+               return model.getMancalaValue('a');
+            }
+         });
+      }
+
+      // Sowing a large pit, against sowing it one stone at a time
+      for (final int stones : new int[] { 3, 13, 100, 1000, 10000, 100000,
+         1000000 })
+      {
+         final MancalaEngine start = new MancalaEngine(stones);
+         cases.add(new Case("engine.sow", "stones=" + stones)
+         {
+            final MancalaEngine engine = start.copy();
+
+            long op()
+            {
+               engine.copyFrom(start);
+               engine.applyMove(2);
+               return engine.getHash();
+            }
+         });
+         cases.add(new Case("reference.sowByStone", "stones=" + stones)
+         {
+            final int[] board = new int[14];
+            final int[] result = new int[3];
+
+            long op()
+            {
+               for (int i = 0; i < board.length; i++)
+                  board[i] = start.getSlot(i);
+               SowingCheck.sowByStone(MancalaRules.KALAH, board, 0, 2,
+                  result);
+               return result[0];
+            }
+         });
+      }
+
+      // Other variants run on the engine's general path
+      for (String variant : new String[] { "kalah4", "kalah8", "oware",
+         "nocapture-nosweep" })
+      {
+         cases.add(playoutCase("stones=4 rules=" + variant,
+            new MancalaEngine(4, MancalaRules.parse(variant))));
+         cases.add(packedPlayoutCase("stones=4 rules=" + variant,
+            new PackedBoard(4, MancalaRules.parse(variant))));
+         cases.add(batchPlayoutCase("stones=4 rules=" + variant,
+            MancalaRules.parse(variant), 4));
+      }
+
+      StyleFormatter[] formats = { new RectangleFormat(), new EllipseFormat() };
+      for (final StyleFormatter format : formats)
+      {
+         final String style = format.getClass().getSimpleName();
+         for (final int stones : new int[] { 3, 48, 1000, 100000 })
+         {
+            cases.add(new Case(style + ".getPitStoneShapes",
+               "stones=" + stones)
+            {
+               long op()
+               {
+                  return format.getPitStoneShapes(stones).length;
+               }
+            });
+            cases.add(new Case(style + ".getMancalaStoneShapes",
+               "stones=" + stones)
+            {
+               long op()
+               {
+                  return format.getMancalaStoneShapes(stones).length;
+               }
+            });
+         }
+      }
+      return cases;
+   }
+
+   /**
+    * Helper method to create a case playing random games to the end.
+    * @param param description of the start position
+    * @param start position every game starts from
+    * @return the case
+    */
+   private static Case playoutCase(String param, final MancalaEngine start)
+   {
+      return new Case("engine.playout", param)
+      {
+         final MancalaEngine engine = start.copy();
+         final SplittableRandom random = new SplittableRandom(1);
+
+         long op()
+         {
+            engine.copyFrom(start);
+            while (!engine.isTerminal())
+            {
+               int moves = engine.getLegalMoves();
+               int pick = random.nextInt(Integer.bitCount(moves));
+               while (pick-- > 0)
+                  moves &= moves - 1;
+               engine.applyMove(Integer.numberOfTrailingZeros(moves));
+            }
+            return engine.checkWinner();
+         }
+      };
+   }
+
+   /**
+    * Helper method to create a case playing random games to the end on a
+    * packed board.
+    * @param param description of the start position
+    * @param start position every game starts from
+    * @return the case
+    */
+   private static Case packedPlayoutCase(String param,
+      final PackedBoard start)
+   {
+      return new Case("packed.playout", param)
+      {
+         final PackedBoard board = start.copy();
+         final SplittableRandom random = new SplittableRandom(1);
+
+         long op()
+         {
+            board.copyFrom(start);
+            while (!board.isTerminal())
+            {
+               int moves = board.getLegalMoves();
+               int pick = random.nextInt(Integer.bitCount(moves));
+               while (pick-- > 0)
+                  moves &= moves - 1;
+               board.applyMove(Integer.numberOfTrailingZeros(moves));
+            }
+            return board.checkWinner();
+         }
+      };
+   }
+
+   /**
+    * Helper method to create a case playing random games in lockstep. One
+    * operation is one finished game, so the score is playouts per second.
+    * @param param description of the start position
+    * @param rules rules of the games
+    * @param stones stones initially in each pit
+    * @return the case
+    */
+   private static Case batchPlayoutCase(String param, MancalaRules rules,
+      int stones)
+   {
+      return new Case("batch.playout", param)
+      {
+         final BatchPlayout batch = new BatchPlayout(rules, stones, 1024, 1);
+         long pending;
+
+         long op()
+         {
+            while (pending == 0)
+            {
+               long before = batch.getFinished();
+               batch.step();
+               pending = batch.getFinished() - before;
+            }
+            pending--;
+            return batch.getMoves();
+         }
+      };
+   }
+
+   /**
+    * Helper method to collect positions from random games.
+    * @param stones stones initially in each pit
+    * @param count number of positions
+    * @return positions that are not over
+    */
+   private static MancalaEngine[] randomPositions(int stones, int count)
+   {
+      SplittableRandom random = new SplittableRandom(stones);
+      MancalaEngine[] positions = new MancalaEngine[count];
+      MancalaEngine engine = new MancalaEngine(stones);
+      for (int i = 0; i < count; i++)
+      {
+         if (engine.isTerminal())
+            engine = new MancalaEngine(stones);
+         positions[i] = engine.copy();
+         int moves = engine.getLegalMoves();
+         int pick = random.nextInt(Integer.bitCount(moves));
+         while (pick-- > 0)
+            moves &= moves - 1;
+         engine.applyMove(Integer.numberOfTrailingZeros(moves));
+      }
+      return positions;
+   }
+
+   /**
+    * Warm up and measure one case.
+    * @param c the case
+    */
+   private void measure(Case c)
+   {
+      long batch = calibrate(c);
+      for (int i = 0; i < warmup; i++)
+         time(c, batch);
+
+      double[] samples = new double[iterations];
+      double sum = 0;
+      for (int i = 0; i < iterations; i++)
+      {
+         samples[i] = batch * 1e9 / time(c, batch);
+         sum += samples[i];
+      }
+      double mean = sum / iterations;
+      double variance = 0;
+      for (double s : samples)
+         variance += (s - mean) * (s - mean);
+      double error = iterations > 1
+         ? 2 * Math.sqrt(variance / (iterations - 1)) / Math.sqrt(iterations)
+         : 0;
+
+      Result r = new Result();
+      r.name = c.name;
+      r.param = c.param;
+      r.score = mean;
+      r.error = error;
+      r.samples = samples;
+      results.add(r);
+      System.out.printf("%-38s %-26s %16.1f %14.1f%n", c.name, c.param,
+         mean, error);
+   }
+
+   /**
+    * Helper method to find a batch size lasting about one iteration.
+    * @param c the case
+    * @return operations per iteration
+    */
+   private long calibrate(Case c)
+   {
+      long batch = 1;
+      long target = iterationMillis * 1000000L;
+      while (true)
+      {
+         long nanos = time(c, batch);
+         if (nanos >= target / 10)
+            return Math.max(1, batch * target / nanos);
+         batch *= 4;
+      }
+   }
+
+   /**
+    * Helper method to time a batch of operations.
+    * @param c the case
+    * @param batch number of operations
+    * @return elapsed nanoseconds, at least one
+    */
+   private static long time(Case c, long batch)
+   {
+      long acc = 0;
+      long start = System.nanoTime();
+      for (long i = 0; i < batch; i++)
+         acc += c.op();
+      long nanos = System.nanoTime() - start;
+      sink += acc;
+      return Math.max(1, nanos);
+   }
+
+   /**
+    * Helper method to write the results in JMH's JSON layout.
+    * @param fileName file to write
+    * @throws IOException if the file cannot be written
+    */
+   private void writeJson(String fileName) throws IOException
+   {
+      try (PrintWriter out = new PrintWriter(new FileWriter(fileName)))
+      {
+         out.println("[");
+         for (int i = 0; i < results.size(); i++)
+         {
+            Result r = results.get(i);
+            String[] param = r.param.split("=");
+            out.printf(Locale.ROOT, "  {%n    \"benchmark\" : \"%s\",%n"
+               + "    \"mode\" : \"thrpt\",%n"
+               + "    \"warmupIterations\" : %d,%n"
+               + "    \"measurementIterations\" : %d,%n"
+               + "    \"params\" : { \"%s\" : \"%s\" },%n"
+               + "    \"primaryMetric\" : {%n"
+               + "      \"score\" : %.3f,%n"
+               + "      \"scoreError\" : %.3f,%n"
+               + "      \"scoreUnit\" : \"ops/s\",%n"
+               + "      \"rawData\" : [ [ %s ] ]%n"
+               + "    }%n  }%s%n", r.name, warmup, iterations, param[0],
+               param[1], r.score, r.error, join(r.samples),
+               i + 1 < results.size() ? "," : "");
+         }
+         out.println("]");
+      }
+   }
+
+   /**
+    * Helper method to format samples as a JSON list body.
+    * @param samples the samples
+    * @return comma separated values
+    */
+   private static String join(double[] samples)
+   {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < samples.length; i++)
+      {
+         if (i > 0)
+            sb.append(", ");
+         sb.append(String.format(Locale.ROOT, "%.3f", samples[i]));
+      }
+      return sb.toString();
+   }
+}
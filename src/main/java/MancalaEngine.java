@@ -0,0 +1,643 @@
+/**
+ * Headless implementation of the Mancala rules. The engine holds the board
+ * and the side to move and has no Swing dependencies, so it can be used for
+ * simulations and servers as well as underneath MancalaModel.
+ *
+ * The board geometry and rule variant come from MancalaRules. Standard
+ * Kalah is played on a path specialized for its 14 slot board, other
+ * variants on a general path driven by the rules.
+ */
+public class MancalaEngine
+{
+   // Standard board slots: A0-A5 = 0-5, AM = 6, B0-B5 = 7-12, BM = 13
+   public static final int SLOTS = 14;
+   public static final int PITS = 6;
+   public static final int A_MANCALA = 6;
+   public static final int B_MANCALA = 13;
+   public static final int SIDE_A = 0;
+   public static final int SIDE_B = 1;
+
+   // Next slot when sowing on the standard board for each side, skipping
+   // the opponent's mancala
+   private static final int[][] NEXT = {
+      { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 0, 0 },
+      { 1, 2, 3, 4, 5, 7, 7, 8, 9, 10, 11, 12, 13, 0 } };
+
+   private final MancalaRules rules;
+   private final boolean standard;
+   private final int pits;
+   private final int stride;
+   private final int slots;
+   private final int[] board;
+   private int side;
+   private long hash;
+   private int lastCapture;
+
+   /**
+    * Constructor. Sets up the standard Kalah starting position with a
+    * specified stone count in every pit and player A to move.
+    * @param stoneAmount amount of stones to put in each pit
+    */
+   public MancalaEngine(int stoneAmount)
+   {
+      this(stoneAmount, MancalaRules.KALAH);
+   }
+
+   /**
+    * Constructor. Sets up the starting position of a variant with a
+    * specified stone count in every pit and player A to move.
+    * @param stoneAmount amount of stones to put in each pit
+    * @param rules board geometry and rule variant
+    */
+   public MancalaEngine(int stoneAmount, MancalaRules rules)
+   {
+      this(rules);
+      for (int i = 0; i < pits; i++)
+      {
+         board[i] = stoneAmount;
+         board[i + stride] = stoneAmount;
+      }
+      side = SIDE_A;
+      hash = computeHash();
+   }
+
+   /**
+    * Copy constructor.
+    * @param other engine whose position is copied
+    */
+   public MancalaEngine(MancalaEngine other)
+   {
+      this(other.rules);
+      copyFrom(other);
+   }
+
+   /**
+    * Helper constructor setting up an empty board.
+    * @param rules board geometry and rule variant
+    */
+   private MancalaEngine(MancalaRules rules)
+   {
+      this.rules = rules;
+      standard = rules.isStandard();
+      pits = rules.getPits();
+      stride = pits + 1;
+      slots = rules.getSlots();
+      board = new int[slots];
+   }
+
+   /**
+    * Create an independent copy of this engine.
+    * @return the copy
+    */
+   public MancalaEngine copy()
+   {
+      return new MancalaEngine(this);
+   }
+
+   /**
+    * Restore this engine to the position of another engine without
+    * allocating.
+    * @param other engine with the same rules whose position is copied
+    */
+   public void copyFrom(MancalaEngine other)
+   {
+      System.arraycopy(other.board, 0, board, 0, slots);
+      side = other.side;
+      hash = other.hash;
+   }
+
+   /**
+    * Set an arbitrary position.
+    * @param counts stone count of every slot, A's pits, AM, B's pits, BM
+    * @param sideToMove SIDE_A or SIDE_B
+    */
+   public void setPosition(int[] counts, int sideToMove)
+   {
+      System.arraycopy(counts, 0, board, 0, slots);
+      side = sideToMove;
+      hash = computeHash();
+   }
+
+   /**
+    * Get the board geometry and rule variant.
+    * @return the rules
+    */
+   public MancalaRules getRules()
+   {
+      return rules;
+   }
+
+   /**
+    * Get the stone count of a board slot.
+    * @param slot slot index, 0 to getRules().getSlots() - 1
+    * @return number of stones in the slot
+    */
+   public int getSlot(int slot)
+   {
+      return board[slot];
+   }
+
+   /**
+    * Get the number of stones in a pit.
+    * @param pitSide SIDE_A or SIDE_B
+    * @param pitNumber pit number, 0 to pits - 1
+    * @return number of stones in pit
+    */
+   public int getPitValue(int pitSide, int pitNumber)
+   {
+      return board[pitSide * stride + pitNumber];
+   }
+
+   /**
+    * Get the number of stones in a mancala.
+    * @param player SIDE_A or SIDE_B
+    * @return number of stones in mancala
+    */
+   public int getMancalaValue(int player)
+   {
+      return board[player * stride + pits];
+   }
+
+   /**
+    * Get the Zobrist hash of the position, kept up to date as moves are
+    * played.
+    * @return hash of the board and side to move
+    */
+   public long getHash()
+   {
+      return hash;
+   }
+
+   /**
+    * Compute the Zobrist hash of the position from scratch.
+    * @return hash of the board, side to move and rule variant
+    */
+   public long computeHash()
+   {
+      long h = Zobrist.rules(rules);
+      if (side == SIDE_B)
+         h ^= Zobrist.SIDE;
+      for (int i = 0; i < slots; i++)
+         h ^= Zobrist.key(i, board[i]);
+      return h;
+   }
+
+   /**
+    * Get the side to move.
+    * @return SIDE_A or SIDE_B
+    */
+   public int getSide()
+   {
+      return side;
+   }
+
+   /**
+    * Get the player to move.
+    * @return 'a' or 'b'
+    */
+   public char getCurrPlayer()
+   {
+      return toPlayer(side);
+   }
+
+   /**
+    * Check if the side to move may play a pit.
+    * @param pitNumber pit number, 0 to pits - 1
+    * @return true if the pit exists and holds stones
+    */
+   public boolean isLegal(int pitNumber)
+   {
+      return pitNumber >= 0 && pitNumber < pits
+         && board[side * stride + pitNumber] > 0;
+   }
+
+   /**
+    * Get the legal moves of the side to move.
+    * @return bit mask with bit i set if pit i may be played
+    */
+   public int getLegalMoves()
+   {
+      int[] b = board;
+      if (standard)
+      {
+         int first = side * 7;
+         return (b[first] > 0 ? 1 : 0) | (b[first + 1] > 0 ? 2 : 0)
+            | (b[first + 2] > 0 ? 4 : 0) | (b[first + 3] > 0 ? 8 : 0)
+            | (b[first + 4] > 0 ? 16 : 0) | (b[first + 5] > 0 ? 32 : 0);
+      }
+
+      int first = side * stride;
+      int moves = 0;
+      for (int i = 0; i < pits; i++)
+      {
+         if (b[first + i] > 0)
+            moves |= 1 << i;
+      }
+      return moves;
+   }
+
+   /**
+    * Get the slot where the last stone of a move would land, without
+    * playing it. Sowing cycles through the slots other than the
+    * opponent's mancala.
+    * @param pitNumber pit number, 0 to pits - 1
+    * @return landing slot index
+    */
+   public int landingSlot(int pitNumber)
+   {
+      int first = side * stride;
+      int offset = (pitNumber + board[first + pitNumber]) % (slots - 1);
+      return (first + offset) % slots;
+   }
+
+   /**
+    * Check if a move ends in the own mancala and gives a free turn.
+    * @param pitNumber pit number, 0 to pits - 1
+    * @return true if the move gives a free turn
+    */
+   public boolean isFreeTurn(int pitNumber)
+   {
+      return landingSlot(pitNumber) == side * stride + pits;
+   }
+
+   /**
+    * Check if a move captures under the variant's capture rule.
+    * @param pitNumber pit number, 0 to pits - 1
+    * @return true if the move captures
+    */
+   public boolean isCapture(int pitNumber)
+   {
+      int first = side * stride;
+      int stones = board[first + pitNumber];
+      int slot = landingSlot(pitNumber);
+      switch (rules.getCapture())
+      {
+      case KALAH:
+         if (stones >= slots - 1)
+            return false; // a full lap leaves at least two stones behind
+         return slot >= first && slot < first + pits && board[slot] == 0;
+      case OWARE:
+         int other = stride - first;
+         if (slot < other || slot >= other + pits)
+            return false;
+         int count = board[slot] + stones / (slots - 1) + 1;
+         return count == 2 || count == 3;
+      default:
+         return false;
+      }
+   }
+
+   /**
+    * Play a pit for the side to move. Stones are sown counterclockwise,
+    * skipping the opponent's mancala. Ending in the own mancala gives a
+    * free turn, otherwise the capture rule decides what is taken.
+    * @param pitNumber pit number, 0 to pits - 1
+    * @return true if the move was played, false if it was illegal
+    */
+   public boolean applyMove(int pitNumber)
+   {
+      if (!isLegal(pitNumber))
+         return false;
+
+      if (standard)
+         applyKalah(pitNumber);
+      else
+         applyVariant(pitNumber);
+      return true;
+   }
+
+   /**
+    * Helper method to play a legal move on the standard Kalah board.
+    * @param pitNumber pit number, 0-5
+    */
+   private void applyKalah(int pitNumber)
+   {
+      int first = side * 7;
+      int mancala = first + 6;
+      int[] next = NEXT[side];
+      int origin = first + pitNumber;
+      lastCapture = -1;
+      int slot = sow(origin, next);
+
+      if (slot != mancala)
+      {
+         side ^= 1;
+         hash ^= Zobrist.SIDE;
+
+         // Ended on an empty pit, opposite pit of slot s is 12 - s
+         if (slot >= first && slot < mancala && board[slot] == 1)
+         {
+            int oppSlot = 12 - slot;
+            lastCapture = board[oppSlot];
+            set(mancala, board[mancala] + board[oppSlot] + 1);
+            set(slot, 0);
+            set(oppSlot, 0);
+         }
+      }
+      set(origin, 0);
+   }
+
+   /**
+    * Helper method to play a legal move of any variant.
+    * @param pitNumber pit number, 0 to pits - 1
+    */
+   private void applyVariant(int pitNumber)
+   {
+      int first = side * stride;
+      int mancala = first + pits;
+      int[] next = rules.nextSlots(side);
+      int origin = first + pitNumber;
+      lastCapture = -1;
+      int slot = sow(origin, next);
+
+      if (slot != mancala)
+      {
+         side ^= 1;
+         hash ^= Zobrist.SIDE;
+
+         MancalaRules.Capture capture = rules.getCapture();
+         if (capture == MancalaRules.Capture.KALAH)
+         {
+            // Opposite pit of slot s is 2 * pits - s
+            if (slot >= first && slot < mancala && board[slot] == 1)
+            {
+               int oppSlot = 2 * pits - slot;
+               lastCapture = board[oppSlot];
+               set(mancala, board[mancala] + board[oppSlot] + 1);
+               set(slot, 0);
+               set(oppSlot, 0);
+            }
+         }
+         else if (capture == MancalaRules.Capture.OWARE)
+         {
+            // Take the run of 2s and 3s ending at the last stone, noting
+            // which pits held 3 so the move can be taken back
+            int other = stride - first;
+            int taken = 0;
+            int threes = 0;
+            int total = 0;
+            for (int s = slot; s >= other && s < other + pits
+               && (board[s] == 2 || board[s] == 3); s--)
+            {
+               threes |= (board[s] - 2) << taken;
+               total += board[s];
+               taken++;
+               set(s, 0);
+            }
+            if (taken > 0)
+            {
+               lastCapture = taken << 8 | threes;
+               set(mancala, board[mancala] + total);
+            }
+         }
+      }
+      set(origin, 0);
+   }
+
+   /**
+    * Helper method to sow the stones of a pit. The chosen pit keeps its
+    * stones until the end of the turn, so a lap around the board passes
+    * through it. Full laps are added to every slot of the cycle at once and
+    * only the remaining stones are sown one by one, which gives the same
+    * board as sowing every stone.
+    * @param origin slot of the pit played
+    * @param next next slot of each slot for the side to move
+    * @return slot of the last stone sown
+    */
+   private int sow(int origin, int[] next)
+   {
+      int stones = board[origin];
+      int cycle = slots - 1;
+      long h = hash;
+      if (stones >= cycle)
+      {
+         // The cycle is every slot but the opponent's mancala
+         int skip = (side ^ 1) * stride + pits;
+         int laps = stones / cycle;
+         for (int s = 0; s < slots; s++)
+         {
+            if (s != skip)
+            {
+               h ^= Zobrist.key(s, board[s])
+                  ^ Zobrist.key(s, board[s] + laps);
+               board[s] += laps;
+            }
+         }
+         stones -= laps * cycle;
+      }
+
+      int slot = origin;
+      while (stones != 0)
+      {
+         slot = next[slot];
+         h ^= Zobrist.step(slot, board[slot]++);
+         stones--;
+      }
+      hash = h;
+      return slot;
+   }
+
+   /**
+    * Get what the last move played with applyMove() captured. With Kalah
+    * captures this is the number of stones taken from the opponent's pit,
+    * with Oware captures the number of pits taken times 256 plus a bit for
+    * every taken pit that held 3, starting with the last pit sown.
+    * @return the capture, or -1 if the last move did not capture
+    */
+   public int getLastCapture()
+   {
+      return lastCapture;
+   }
+
+   /**
+    * Take back a move played with applyMove().
+    * @param mover side that played the move
+    * @param pitNumber pit that was played, 0 to pits - 1
+    * @param stones stones the pit held before the move
+    * @param captured value of getLastCapture() after the move
+    */
+   public void undoMove(int mover, int pitNumber, int stones, int captured)
+   {
+      int first = mover * stride;
+      int mancala = first + pits;
+      int[] next = rules.nextSlots(mover);
+      int origin = first + pitNumber;
+      int cycle = slots - 1;
+
+      if (captured >= 0)
+      {
+         int slot = (first + (pitNumber + stones) % cycle) % slots;
+         if (rules.getCapture() == MancalaRules.Capture.KALAH)
+         {
+            set(mancala, board[mancala] - captured - 1);
+            set(slot, 1);
+            set(2 * pits - slot, captured);
+         }
+         else
+         {
+            int total = 0;
+            for (int i = 0; i < captured >> 8; i++)
+            {
+               int value = 2 + ((captured >> i) & 1);
+               set(slot - i, value);
+               total += value;
+            }
+            set(mancala, board[mancala] - total);
+         }
+      }
+
+      // Every slot of the sowing cycle got one stone per full lap, the
+      // first stones % cycle slots after the origin one more
+      int laps = stones / cycle;
+      int extra = stones % cycle;
+      int slot = origin;
+      for (int i = 1; i <= cycle; i++)
+      {
+         slot = next[slot];
+         if (slot != origin)
+            set(slot, board[slot] - laps - (i <= extra ? 1 : 0));
+      }
+      set(origin, stones);
+
+      if (side != mover)
+      {
+         side = mover;
+         hash ^= Zobrist.SIDE;
+      }
+   }
+
+   /**
+    * Take back the end-of-game sweep of one side done by checkWinner().
+    * @param pitSide side whose stones were swept into its mancala
+    * @param counts stones each pit of that side held before the sweep
+    */
+   public void undoSweep(int pitSide, int[] counts)
+   {
+      int first = pitSide * stride;
+      int mancala = first + pits;
+      for (int i = 0; i < pits; i++)
+      {
+         set(mancala, board[mancala] - counts[i]);
+         set(first + i, counts[i]);
+      }
+   }
+
+   /**
+    * Check if one side has run out of stones, which ends the game.
+    * @return true if the game is over
+    */
+   public boolean isTerminal()
+   {
+      if (standard)
+      {
+         int[] b = board;
+         return (b[0] | b[1] | b[2] | b[3] | b[4] | b[5]) == 0
+            || (b[7] | b[8] | b[9] | b[10] | b[11] | b[12]) == 0;
+      }
+      return sideEmpty(0) || sideEmpty(stride);
+   }
+
+   /**
+    * Check for a winner. When one side is empty the remaining stones are
+    * swept into the mancala of the side that owns them, unless the
+    * variant leaves them on the board.
+    * @return 'a' or 'b' if winner, 'c' if no winner
+    */
+   public char checkWinner()
+   {
+      if (standard)
+      {
+         int[] b = board;
+         if ((b[0] | b[1] | b[2] | b[3] | b[4] | b[5]) == 0)
+            sweep(7, B_MANCALA);
+         else if ((b[7] | b[8] | b[9] | b[10] | b[11] | b[12]) == 0)
+            sweep(0, A_MANCALA);
+         else
+            return 'c';
+      }
+      else
+      {
+         boolean keep = rules.getSweep() == MancalaRules.Sweep.NONE;
+         if (sideEmpty(0))
+         {
+            if (!keep)
+               sweep(stride, slots - 1);
+         }
+         else if (sideEmpty(stride))
+         {
+            if (!keep)
+               sweep(0, pits);
+         }
+         else
+            return 'c';
+      }
+
+      if (board[pits] > board[slots - 1])
+         return 'a';
+      else
+         return 'b';
+   }
+
+   /**
+    * Convert a side index to the player character used by the views.
+    * @param side SIDE_A or SIDE_B
+    * @return 'a' or 'b'
+    */
+   public static char toPlayer(int side)
+   {
+      return side == SIDE_A ? 'a' : 'b';
+   }
+
+   /**
+    * Convert a player character to a side index.
+    * @param player 'a' or 'b'
+    * @return SIDE_A or SIDE_B, -1 for any other character
+    */
+   public static int toSide(char player)
+   {
+      if (player == 'a')
+         return SIDE_A;
+      else if (player == 'b')
+         return SIDE_B;
+
+      return -1;
+   }
+
+   /**
+    * Helper method to check if all pits on one side are empty.
+    * @param first slot of the side's first pit
+    * @return true if the side has no stones
+    */
+   private boolean sideEmpty(int first)
+   {
+      int stones = 0;
+      for (int i = first; i < first + pits; i++)
+         stones |= board[i];
+      return stones == 0;
+   }
+
+   /**
+    * Helper method to move all stones of one side into a mancala.
+    * @param first slot of the side's first pit
+    * @param mancala slot of the mancala receiving the stones
+    */
+   private void sweep(int first, int mancala)
+   {
+      for (int i = first; i < first + pits; i++)
+      {
+         set(mancala, board[mancala] + board[i]);
+         set(i, 0);
+      }
+   }
+
+   /**
+    * Helper method to change a slot and update the hash.
+    * @param slot slot index
+    * @param value new stone count
+    */
+   private void set(int slot, int value)
+   {
+      hash ^= Zobrist.key(slot, board[slot]) ^ Zobrist.key(slot, value);
+      board[slot] = value;
+   }
+}
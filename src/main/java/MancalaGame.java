@@ -1,13 +1,19 @@
-
+import java.io.File;
+import java.io.IOException;
 import javax.swing.JOptionPane;
 
 public class MancalaGame 
 {
+	// Opening book used by the computer player if present
+	private static final String BOOK_FILE = "mancala.book";
+
 	private MancalaModel model;
 	private GameBoard board;
+	private ComputerPlayer computer;
 	
 	public static void main(String [] args)
 	{
+		EdtMonitor.install();
 		MancalaGame m = new MancalaGame();
 	}
 	
@@ -25,12 +31,23 @@ public class MancalaGame
 	 */
 	public void initGame()
 	{
+		if (computer != null)
+		{
+			computer.stop();
+			computer = null;
+		}
 		if (board != null)
 		{
 			board.dispose();
 		}
 		String initPits = JOptionPane.showInputDialog("Enter the number of stones initially in the pits: ", "3");
-		model = new MancalaModel(Integer.parseInt(initPits));
+		String pitsPerSide = JOptionPane.showInputDialog("Enter the number of pits per side (" + MancalaRules.MIN_PITS + "-" + MancalaRules.MAX_PITS + "): ", "6");
+		int ruleOpt = JOptionPane.showOptionDialog(null, "Choose the rules:", "Rules", JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, new String[] { "Kalah", "Kalah, no sweep", "Oware captures", "No captures" }, 0);
+		MancalaRules.Capture capture = ruleOpt == 2 ? MancalaRules.Capture.OWARE : ruleOpt == 3 ? MancalaRules.Capture.NONE : MancalaRules.Capture.KALAH;
+		MancalaRules.Sweep sweep = ruleOpt == 1 ? MancalaRules.Sweep.NONE : MancalaRules.Sweep.OWNER;
+		MancalaRules rules = new MancalaRules(Integer.parseInt(pitsPerSide), capture, sweep);
+		int undoOpt = JOptionPane.showOptionDialog(null, "Choose an undo rule:", "Undo", JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, new String[] { "3 Undos", "Unlimited" }, 0);
+		model = new MancalaModel(Integer.parseInt(initPits), rules, undoOpt == 1 ? UndoPolicy.UNLIMITED : UndoPolicy.CLASSIC);
 		int opt = JOptionPane.showOptionDialog(null, "Choose a board style:", "Board Style", JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, new String[] { "Rectangle", "Elliptical" }, 0);
 		switch (opt)
 		{
@@ -43,6 +60,34 @@ public class MancalaGame
 		default:
 			board = new GameBoard(this, model, new RectangleFormat());
 		}
+		int opponent = JOptionPane.showOptionDialog(board, "Choose an opponent:", "Opponent", JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, new String[] { "Human", "Computer", "Computer (Monte Carlo)" }, 0);
+		if (opponent == 2)
+		{
+			String budget = JOptionPane.showInputDialog(board, "Enter the computer's time per move in milliseconds: ", "1000");
+			MctsPlayer ai = new MctsPlayer(Long.parseLong(budget), Runtime.getRuntime().availableProcessors(), MctsPlayer.DEFAULT_EXPLORATION, MctsPlayer.DEFAULT_NODES, System.nanoTime());
+			computer = new ComputerPlayer(model, 'b', ai);
+			model.attach(computer);
+			board.setComputerSide('b');
+		}
+		else if (opponent == 1)
+		{
+			String budget = JOptionPane.showInputDialog(board, "Enter the computer's time per move in milliseconds: ", "1000");
+			AlphaBetaPlayer ai = new AlphaBetaPlayer(Long.parseLong(budget), MancalaSearch.MAX_PLY, new TranspositionTable(64), Runtime.getRuntime().availableProcessors());
+			if (new File(BOOK_FILE).isFile())
+			{
+				try
+				{
+					ai.setOpeningBook(new OpeningBook(BOOK_FILE), 0.05, System.nanoTime());
+				}
+				catch (IOException e)
+				{
+					System.out.println("Opening book not loaded: " + e.getMessage());
+				}
+			}
+			computer = new ComputerPlayer(model, 'b', ai);
+			model.attach(computer);
+			board.setComputerSide('b');
+		}
 	}
 	
 	/**
@@ -0,0 +1,560 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.SplittableRandom;
+
+/**
+ * Load generator for MancalaServer. Opens a number of client connections
+ * that each keep several games going and play random legal moves, picked
+ * from the pit counts of the states the server sends, until the run time
+ * is over. By default a connection holds both seats of its games like two
+ * players sharing one GameBoard; with --separate-seats connections are
+ * paired and each plays one side of its partner's games, so every move
+ * also goes out to the opponent.
+ *
+ * The move acknowledge latency, from sending MOVE to reading its OK, is
+ * counted in LatencyHistograms. Every report interval a line with the
+ * move and game throughput and the latency percentiles of that interval is
+ * printed, and at the end the percentiles of the whole run and the most
+ * games the server had in progress. A game whose NEW, JOIN or MOVE is
+ * answered with ERR, for example beyond the server's game limits, is
+ * dropped and not replaced; the summary counts the errors. Without --host
+ * a server is started in this process on a free port.
+ *
+ * Usage: java MancalaLoadGenerator [--host H] [--port P] [--clients N]
+ *        [--games-per-client G] [--seconds S] [--report-ms MS]
+ *        [--separate-seats] [--stones S] [--rules VARIANT] [--seed N]
+ */
+public class MancalaLoadGenerator
+{
+   // Game id recorded for a NEW that has not been answered yet
+   private static final long NEW_GAME = -1;
+
+   private final Selector selector;
+   private final Client[] clients;
+   private final int gamesPerClient;
+   private final String newCommand;
+   private final SplittableRandom random;
+   private final ArrayList<Client> dirty = new ArrayList<Client>();
+   private final LatencyHistogram latency = new LatencyHistogram();
+   private final LatencyHistogram interval = new LatencyHistogram();
+   private long games;
+   private long errors;
+   private int activeGames;
+   private int maxActiveGames;
+   private boolean stopping;
+
+   /**
+    * Constructor. Connects all clients.
+    * @param address server address
+    * @param clientCount number of connections
+    * @param gamesPerClient games each connection keeps going
+    * @param separateSeats true to pair connections as opponents, false
+    *    for each connection to hold both seats of its games
+    * @param stones stones per pit
+    * @param rules rules of the games
+    * @param seed seed for the moves
+    * @throws IOException if a connection fails
+    */
+   public MancalaLoadGenerator(InetSocketAddress address, int clientCount,
+      int gamesPerClient, boolean separateSeats, int stones,
+      MancalaRules rules, long seed)
+      throws IOException
+   {
+      if (separateSeats && clientCount % 2 != 0)
+         throw new IllegalArgumentException(
+            "Separate seats need an even number of clients");
+      this.gamesPerClient = gamesPerClient;
+      newCommand = "NEW " + stones + " " + rules.getName();
+      random = new SplittableRandom(seed);
+      selector = Selector.open();
+      clients = new Client[clientCount];
+      for (int i = 0; i < clientCount; i++)
+      {
+         SocketChannel channel = SocketChannel.open(address);
+         channel.socket().setTcpNoDelay(true);
+         channel.configureBlocking(false);
+         clients[i] = new Client(channel);
+         clients[i].key = channel.register(selector, SelectionKey.OP_READ,
+            clients[i]);
+      }
+      for (int i = 0; i < clientCount; i++)
+         clients[i].opponent = separateSeats ? clients[i ^ 1] : clients[i];
+   }
+
+   /**
+    * Play games until the run time is over and every game has ended.
+    * @param seconds time to keep starting games
+    * @param reportMillis time between progress lines, 0 for none
+    * @throws IOException if a connection fails
+    */
+   public void run(double seconds, long reportMillis) throws IOException
+   {
+      for (Client c : clients)
+      {
+         for (int i = 0; i < gamesPerClient; i++)
+         {
+            c.pending++;
+            request(c, NEW_GAME, newCommand);
+         }
+      }
+
+      long start = System.nanoTime();
+      long stopAt = start + (long) (seconds * 1e9);
+      long reportNanos = reportMillis * 1000000L;
+      long nextReport = start + reportNanos;
+      long lastMoves = 0;
+      long lastGames = 0;
+      while (!stopping || activeGames > 0 || pendingGames() > 0)
+      {
+         for (int i = 0; i < dirty.size(); i++)
+            flush(dirty.get(i));
+         dirty.clear();
+
+         selector.select(10);
+         long now = System.nanoTime();
+         if (now - stopAt >= 0)
+            stopping = true;
+         Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+         while (keys.hasNext())
+         {
+            SelectionKey key = keys.next();
+            keys.remove();
+            Client c = (Client) key.attachment();
+            if (key.isReadable())
+               read(c);
+            if (key.isValid() && key.isWritable())
+               flush(c);
+         }
+
+         if (reportNanos > 0 && now - nextReport >= 0)
+         {
+            double elapsed = reportNanos / 1e9;
+            System.out.printf("%6.1f s  %8.0f moves/s  %7.0f games/s"
+               + "  p50 %8.1f us  p99 %8.1f us  max %8.1f us  games %d%n",
+               (now - start) / 1e9, (getMoves() - lastMoves) / elapsed,
+               (games - lastGames) / elapsed,
+               interval.getValueAtPercentile(50) / 1e3,
+               interval.getValueAtPercentile(99) / 1e3,
+               interval.getMax() / 1e3, activeGames);
+            lastMoves = getMoves();
+            lastGames = games;
+            interval.reset();
+            nextReport += reportNanos;
+         }
+         if (now - stopAt >= 10_000_000_000L)
+            throw new IOException("Games did not end after the run time");
+      }
+      for (Client c : clients)
+         c.channel.close();
+      selector.close();
+   }
+
+   /**
+    * Get the number of games played to the end.
+    * @return game count
+    */
+   public long getGames()
+   {
+      return games;
+   }
+
+   /**
+    * Get the number of moves acknowledged.
+    * @return move count
+    */
+   public long getMoves()
+   {
+      return latency.getCount();
+   }
+
+   /**
+    * Get the number of ERR replies.
+    * @return error count
+    */
+   public long getErrors()
+   {
+      return errors;
+   }
+
+   /**
+    * Get the largest number of games this generator had going at once.
+    * @return game count
+    */
+   public int getMaxActiveGames()
+   {
+      return maxActiveGames;
+   }
+
+   /**
+    * Get the move acknowledge latencies of the whole run.
+    * @return histogram of latencies in nanoseconds
+    */
+   public LatencyHistogram getLatency()
+   {
+      return latency;
+   }
+
+   /**
+    * Helper method to count games asked for but not started yet.
+    * @return game count
+    */
+   private int pendingGames()
+   {
+      int pending = 0;
+      for (Client c : clients)
+         pending += c.pending;
+      return pending;
+   }
+
+   /**
+    * Helper method to read from a client and handle complete lines.
+    * @param c the client
+    * @throws IOException if reading fails
+    */
+   private void read(Client c) throws IOException
+   {
+      ByteBuffer in = c.in;
+      if (c.channel.read(in) < 0)
+         throw new IOException("Server closed the connection");
+      long now = System.nanoTime();
+      in.flip();
+      int start = 0;
+      for (int i = 0; i < in.limit(); i++)
+      {
+         if (in.get(i) == '\n')
+         {
+            handle(c, new String(in.array(), start, i - start,
+               StandardCharsets.US_ASCII), now);
+            start = i + 1;
+         }
+      }
+      in.position(start);
+      in.compact();
+   }
+
+   /**
+    * Helper method to handle a reply.
+    * @param c client that read it
+    * @param line the reply
+    * @param now System.nanoTime() when it was read
+    */
+   private void handle(Client c, String line, long now)
+   {
+      String[] args = line.split(" ");
+      switch (args[0])
+      {
+      case "GAME":
+         c.requests.poll();
+         long id = Long.parseLong(args[1]);
+         if (args[2].equals("A"))
+         {
+            c.pending--;
+            activeGames++;
+            maxActiveGames = Math.max(maxActiveGames, activeGames);
+            c.seats.put(id, c.opponent == c ? 3 : 1);
+            if (c.opponent != c)
+               c.opponent.seats.put(id, 2);
+            request(c.opponent, id, "JOIN " + id);
+         }
+         else
+            moveIfOurs(c, id, args, 3, now);
+         break;
+      case "JOINED":
+         moveIfOurs(c, Long.parseLong(args[1]), args, 2, now);
+         break;
+      case "OK":
+         c.requests.poll();
+         long sent = c.sentAt.remove(Long.parseLong(args[1]));
+         latency.record(now - sent);
+         interval.record(now - sent);
+         moveIfOurs(c, Long.parseLong(args[1]), args, 2, now);
+         break;
+      case "MOVED":
+         moveIfOurs(c, Long.parseLong(args[1]), args, 3, now);
+         break;
+      case "END":
+         // The creator of a game counts it and starts the next one
+         Integer seats = c.seats.remove(Long.parseLong(args[1]));
+         if (seats != null && (seats & 1) != 0)
+         {
+            activeGames--;
+            if (args[2].equals("abandoned"))
+               break; // Dropped after an ERR
+            games++;
+            if (!stopping)
+            {
+               c.pending++;
+               request(c, NEW_GAME, newCommand);
+            }
+         }
+         break;
+      case "ERR":
+         if (errors++ < 10)
+            System.err.println(line);
+         Long failed = c.requests.poll();
+         if (failed == null)
+            break;
+         if (failed == NEW_GAME)
+            c.pending--; // The game was not created
+         else
+            drop(c, failed);
+         break;
+      default:
+         break;
+      }
+   }
+
+   /**
+    * Helper method to play a random legal move from a state if the side to
+    * move is one of the client's seats.
+    * @param c client holding the game
+    * @param id game id
+    * @param args reply split into words
+    * @param state index of the state's ply in args
+    * @param now current System.nanoTime()
+    */
+   private void moveIfOurs(Client c, long id, String[] args, int state,
+      long now)
+   {
+      String next = args[state + 1];
+      if (next.equals("end"))
+         return;
+      int side = next.equals("a") ? MancalaEngine.SIDE_A
+         : MancalaEngine.SIDE_B;
+      if ((c.seats.get(id) & (1 << side)) == 0)
+         return;
+
+      int pits = (args.length - state - 2 - 2) / 2;
+      int first = state + 2 + side * (pits + 1);
+      int legal = 0;
+      int pick = -1;
+      for (int pit = 0; pit < pits; pit++)
+      {
+         // Reservoir sampling over the non-empty pits
+         if (!args[first + pit].equals("0") && random.nextInt(++legal) == 0)
+            pick = pit;
+      }
+      c.sentAt.put(id, now);
+      request(c, id, "MOVE " + id + " " + (pick + 1));
+   }
+
+   /**
+    * Helper method to give up a game after an ERR reply to its JOIN or
+    * MOVE. The creator leaves the game, and the server's END ends it.
+    * @param c client whose command failed
+    * @param id game id
+    */
+   private void drop(Client c, long id)
+   {
+      c.sentAt.remove(id);
+      Integer seats = c.seats.get(id);
+      if (seats == null)
+         return; // Already ended
+      Client creator = c;
+      if ((seats & 1) == 0)
+      {
+         // The END of the game may not reach a client that failed to join
+         c.seats.remove(id);
+         creator = c.opponent;
+      }
+      send(creator, "LEAVE " + id);
+   }
+
+   /**
+    * Helper method to queue a command the server answers with GAME, OK or
+    * ERR. The server answers a connection's commands in order, so the
+    * game recorded here tells which game an ERR belongs to.
+    * @param c the client
+    * @param id game id the command refers to, or NEW_GAME
+    * @param line line without terminator
+    */
+   private void request(Client c, long id, String line)
+   {
+      c.requests.add(id);
+      send(c, line);
+   }
+
+   /**
+    * Helper method to queue a line for a client. Queued lines are written
+    * before the next select.
+    * @param c the client
+    * @param line line without terminator
+    */
+   private void send(Client c, String line)
+   {
+      byte[] bytes = (line + "\n").getBytes(StandardCharsets.US_ASCII);
+      if (c.out.remaining() < bytes.length)
+      {
+         ByteBuffer bigger = ByteBuffer.allocate(
+            Math.max(c.out.capacity() * 2, c.out.position() + bytes.length));
+         c.out.flip();
+         bigger.put(c.out);
+         c.out = bigger;
+      }
+      c.out.put(bytes);
+      if (!c.dirty)
+      {
+         c.dirty = true;
+         dirty.add(c);
+      }
+   }
+
+   /**
+    * Helper method to write queued lines.
+    * @param c the client
+    * @throws IOException if writing fails
+    */
+   private static void flush(Client c) throws IOException
+   {
+      c.dirty = false;
+      c.out.flip();
+      c.channel.write(c.out);
+      c.out.compact();
+      int ops = c.out.position() > 0
+         ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+      if (c.key.interestOps() != ops)
+         c.key.interestOps(ops);
+   }
+
+   /**
+    * A client connection with the seats it holds, as bits 1 for A and 2
+    * for B, the send times of its unanswered moves per game, and the games
+    * of its unanswered commands in the order they were sent.
+    */
+   private static class Client
+   {
+      final SocketChannel channel;
+      final ByteBuffer in = ByteBuffer.allocate(1 << 16);
+      final HashMap<Long, Integer> seats = new HashMap<Long, Integer>();
+      final HashMap<Long, Long> sentAt = new HashMap<Long, Long>();
+      final ArrayDeque<Long> requests = new ArrayDeque<Long>();
+      ByteBuffer out = ByteBuffer.allocate(1024);
+      Client opponent;
+      SelectionKey key;
+      int pending;
+      boolean dirty;
+
+      /**
+       * Constructor.
+       * @param channel the socket
+       */
+      Client(SocketChannel channel)
+      {
+         this.channel = channel;
+      }
+   }
+
+   /**
+    * Run a load test from the command line.
+    * @param args command line arguments
+    * @throws IOException if the server cannot be reached
+    * @throws InterruptedException if interrupted while stopping the server
+    */
+   public static void main(String[] args)
+      throws IOException, InterruptedException
+   {
+      String host = null;
+      int port = MancalaServer.DEFAULT_PORT;
+      int clientCount = 100;
+      int gamesPerClient = 10;
+      double seconds = 10;
+      long reportMillis = 1000;
+      boolean separateSeats = false;
+      int stones = 4;
+      MancalaRules rules = MancalaRules.KALAH;
+      long seed = 1;
+      for (int i = 0; i < args.length; i++)
+      {
+         if (args[i].equals("--separate-seats"))
+         {
+            separateSeats = true;
+            continue;
+         }
+         if (i + 1 == args.length)
+            throw new IllegalArgumentException("Missing value: " + args[i]);
+         String value = args[++i];
+         switch (args[i - 1])
+         {
+         case "--host":
+            host = value;
+            break;
+         case "--port":
+            port = Integer.parseInt(value);
+            break;
+         case "--clients":
+            clientCount = Integer.parseInt(value);
+            break;
+         case "--games-per-client":
+            gamesPerClient = Integer.parseInt(value);
+            break;
+         case "--seconds":
+            seconds = Double.parseDouble(value);
+            break;
+         case "--report-ms":
+            reportMillis = Long.parseLong(value);
+            break;
+         case "--stones":
+            stones = Integer.parseInt(value);
+            break;
+         case "--rules":
+            rules = MancalaRules.parse(value);
+            break;
+         case "--seed":
+            seed = Long.parseLong(value);
+            break;
+         default:
+            throw new IllegalArgumentException("Unknown option: "
+               + args[i - 1]);
+         }
+      }
+
+      MancalaServer server = null;
+      Thread loop = null;
+      InetSocketAddress address;
+      if (host == null)
+      {
+         server = new MancalaServer(0);
+         loop = new Thread(server, "mancala-server");
+         loop.start();
+         address = new InetSocketAddress("localhost", server.getPort());
+      }
+      else
+         address = new InetSocketAddress(host, port);
+
+      MancalaLoadGenerator generator = new MancalaLoadGenerator(address,
+         clientCount, gamesPerClient, separateSeats, stones, rules, seed);
+      long start = System.nanoTime();
+      generator.run(seconds, reportMillis);
+      double elapsed = (System.nanoTime() - start) / 1e9;
+
+      System.out.printf("%d clients, %d games, %d moves in %.1f s:"
+         + " %.0f moves/s, %d errors%n", clientCount, generator.getGames(),
+         generator.getMoves(), elapsed, generator.getMoves() / elapsed,
+         generator.getErrors());
+      LatencyHistogram latency = generator.getLatency();
+      System.out.printf("move ack latency  mean %.1f us", latency.getMean()
+         / 1e3);
+      double[] percentiles = { 50, 90, 99, 99.9, 99.99 };
+      for (double p : percentiles)
+         System.out.printf("  p%s %.1f us", p == (int) p ? ""
+            + (int) p : "" + p, latency.getValueAtPercentile(p) / 1e3);
+      System.out.printf("  max %.1f us%n", latency.getMax() / 1e3);
+      System.out.println("max concurrent games "
+         + (server != null ? server.getMaxActiveGames()
+            : generator.getMaxActiveGames()));
+      if (server != null)
+      {
+         server.stop();
+         loop.join();
+      }
+   }
+}
@@ -1,65 +1,105 @@
-import java.util.ArrayList;
-import javax.swing.event.ChangeEvent;
+import java.util.concurrent.CopyOnWriteArrayList;
 import javax.swing.event.ChangeListener;
 
+/**
+ * Swing model of a game. The rules live in MancalaEngine; this class keeps
+ * the game history, applies the undo policy and notifies the attached
+ * views.
+ *
+ * Changes are made by one writer at a time, the methods changing the game
+ * are synchronized. After every change the new state is published as an
+ * immutable BoardSnapshot, and all getters read the latest snapshot
+ * without locking, so views, spectators and AI threads never see a half
+ * applied move. Readers needing several values that belong together
+ * should take one snapshot with getSnapshot(). Listeners are called after
+ * the writer lock is released, on the thread that made the change.
+ */
 public class MancalaModel
 {
-   private char currentPlayer;   
-   private int hand;   
-   private Pit[] a;   
-   private Pit[] b;   
-   private Mancala mancalaA;   
-   private Mancala mancalaB;   
-   private int[] undoValues;   
-   private char undoPlayer;   
-   private boolean undoActive;   
-   private int undoCount;   
-   private int undoReset;   
-   private ArrayList<ChangeListener> listeners;
-   
-   /**
-    * Constructor. Initializes the model with a specified starting stone 
-    * count.
+   private final int stoneAmount;
+   private final MancalaRules rules;
+   private MancalaEngine engine;
+   private MoveJournal journal;
+   private UndoPolicy undoPolicy;
+   private int[] sweepPits;
+   private boolean undoActive;
+   private int undoCount;
+   private int undoReset;
+   private final CopyOnWriteArrayList<ChangeListener> listeners;
+   private volatile BoardSnapshot snapshot;
+
+   /**
+    * Constructor. Initializes the model with a specified starting stone
+    * count and the classic undo rule.
     * @param stoneAmount amount of stones to put in each pit
     */
    public MancalaModel(int stoneAmount)
    {
-	      hand = 0;
-	      currentPlayer = 'a';
-	      a = new Pit[6];
-	      for (int i = 0; i < 6; i++)
-	         a[i] = new Pit(stoneAmount);
-	      b = new Pit[6];
-	      for (int i = 0; i < 6; i++)
-	         b[i] = new Pit(stoneAmount);
-	      
-	      mancalaA = new Mancala();
-	      mancalaB = new Mancala(); 
-	      
+	      this(stoneAmount, UndoPolicy.CLASSIC);
+   }
+
+   /**
+    * Constructor. Initializes the model with a specified starting stone
+    * count.
+    * @param stoneAmount amount of stones to put in each pit
+    * @param undoPolicy rule for taking back moves
+    */
+   public MancalaModel(int stoneAmount, UndoPolicy undoPolicy)
+   {
+	      this(stoneAmount, MancalaRules.KALAH, undoPolicy);
+   }
+
+   /**
+    * Constructor. Initializes the model with a specified starting stone
+    * count and rule variant.
+    * @param stoneAmount amount of stones to put in each pit
+    * @param rules board geometry and rule variant
+    * @param undoPolicy rule for taking back moves
+    */
+   public MancalaModel(int stoneAmount, MancalaRules rules,
+         UndoPolicy undoPolicy)
+   {
+	      this.stoneAmount = stoneAmount;
+	      this.rules = rules;
+	      engine = new MancalaEngine(stoneAmount, rules);
+	      journal = new MoveJournal(engine);
+	      this.undoPolicy = undoPolicy;
+	      sweepPits = new int[rules.getPits()];
+
 	      undoActive = false;
-	      undoValues = new int[14];
 	      undoCount = 3;
 	      undoReset = 0;
 
-	      listeners = new ArrayList<ChangeListener>();
+	      listeners = new CopyOnWriteArrayList<ChangeListener>();
+	      snapshot = new BoardSnapshot(engine, 0, 0, 0, canUndoNow(),
+	         canRedoNow(), undoCountNow());
+   }
+
+   /**
+    * Get the current state of the game. The snapshot never changes; later
+    * changes publish new ones.
+    * @return the latest snapshot
+    */
+   public BoardSnapshot getSnapshot()
+   {
+      return snapshot;
    }
-   
+
    /**
-    * Get the number of stones in a pit.      
+    * Get the number of stones in a pit.
     * @param side 'a' or 'b', side of board
-    * @param pitNumber pit number, 1-6
+    * @param pitNumber pit number, 0 to getRules().getPits() - 1
     * @return number of stones in pit
     */
    public int getPitValue(char side, int pitNumber)
    {
-      if (side == 'a')
-         return a[pitNumber].getAmount();
-      else if (side == 'b')
-         return b[pitNumber].getAmount();
+      int pitSide = MancalaEngine.toSide(side);
+      if (pitSide < 0)
+         return -1;
 
-      return -1;
+      return snapshot.getPitValue(pitSide, pitNumber);
    }
-   
+
    /**
     * Get the number of stones in a mancala.
     * @param player 'a' or 'b'
@@ -67,15 +107,48 @@ public class MancalaModel
     */
    public int getMancalaValue(char player)
    {
-      if (player == 'a')
-         return mancalaA.getAmount();
-      else if (player == 'b')
-         return mancalaB.getAmount();
-      
+      int side = MancalaEngine.toSide(player);
+      if (side >= 0)
+         return snapshot.getMancalaValue(side);
+
       System.out.println("Error: getMancalaValue()");
       return -1;
    }
-   
+
+   /**
+    * Get a pit view of the current board. The returned pit is a copy,
+    * changing it does not affect the model.
+    * @param side 'a' or 'b', side of board
+    * @param pitNumber pit number, 0 to getRules().getPits() - 1
+    * @return pit holding the current stone count
+    */
+   public Pit getPit(char side, int pitNumber)
+   {
+      return new Pit(getPitValue(side, pitNumber));
+   }
+
+   /**
+    * Get a mancala view of the current board. The returned mancala is a
+    * copy, changing it does not affect the model.
+    * @param player 'a' or 'b'
+    * @return mancala holding the current stone count
+    */
+   public Mancala getMancala(char player)
+   {
+      Mancala m = new Mancala();
+      m.setStones(getMancalaValue(player));
+      return m;
+   }
+
+   /**
+    * Get a copy of the current position for headless use.
+    * @return engine holding a copy of the board and side to move
+    */
+   public MancalaEngine getPosition()
+   {
+      return snapshot.toEngine();
+   }
+
    /**
     * Attach a listener to the model.
     * @param c the listener
@@ -84,292 +157,320 @@ public class MancalaModel
    {
       listeners.add(c);
    }
-   
+
    /**
     * Get method for undo status.
     * @return if undo is available true else false
     */
    public boolean canUndo()
    {
-	   return undoActive;
+	   return snapshot.canUndo();
+   }
+
+   /**
+    * Get method for redo status.
+    * @return if redo is available true else false
+    */
+   public boolean canRedo()
+   {
+	   return snapshot.canRedo();
    }
-   
+
    /**
     * Get method for remaining undos.
-    * @return remaining undo count
+    * @return remaining undo count, -1 if unlimited
     */
    public int getUndoCount()
    {
-	   return undoCount;
+	   return snapshot.getUndoCount();
+   }
+
+   /**
+    * Get method for the undo policy.
+    * @return the undo policy
+    */
+   public UndoPolicy getUndoPolicy()
+   {
+	   return undoPolicy;
    }
-   
+
+   /**
+    * Get method for the game history. The journal is changed by the
+    * writer, other threads should use snapshots or toGameRecord().
+    * @return the journal of all moves, not to be modified
+    */
+   public MoveJournal getJournal()
+   {
+	   return journal;
+   }
+
+   /**
+    * Get method for the starting stone count.
+    * @return stones initially in each pit
+    */
+   public int getStoneAmount()
+   {
+	   return stoneAmount;
+   }
+
+   /**
+    * Get method for the board geometry and rule variant.
+    * @return the rules
+    */
+   public MancalaRules getRules()
+   {
+	   return rules;
+   }
+
+   /**
+    * Create a record of the game up to the current ply, for saving.
+    * @param playerA name of player A
+    * @param playerB name of player B
+    * @return the record
+    */
+   public synchronized GameRecord toGameRecord(String playerA,
+         String playerB)
+   {
+	   return GameRecord.fromJournal(stoneAmount, rules, journal, playerA,
+		   playerB);
+   }
+
    /**
     * Get method for current player.
     * @return current player 'a' or 'b'
     */
    public char getCurrPlayer()
    {
-	   return currentPlayer;
+	   return snapshot.getCurrPlayer();
    }
-   
+
    /**
-    * Causes an undo to occur.
+    * Causes an undo to occur. Takes back the last move together with the
+    * end-of-game sweep that followed it, if any.
     */
    public void undo()
    {
-	   // A0-A5 = 0-5, AM = 6, B0-B5 = 7-12, BM = 13
-	   if (undoActive == false || undoCount == 0)
-		   return;
-	   
-	   currentPlayer = undoPlayer;
-	   for (int i = 0; i < 6; i++)
-		   getPits('a')[i].setStones(undoValues[i]);
-	   getMancala('a').setStones(undoValues[6]);
-	   for (int i = 7; i < 13; i++)
-		   getPits('b')[i-7].setStones(undoValues[i]);
-	   getMancala('b').setStones(undoValues[13]);
-	   undoActive = false;
-	   undoCount--;
-	   undoReset--;
-	   System.out.println(undoReset);
-	   updateView();
-   }
-   
+	   BoardChangeEvent event;
+	   synchronized (this)
+	   {
+		   if (!canUndoNow()
+			   || (undoPolicy == UndoPolicy.CLASSIC && undoCount == 0))
+			   return;
+
+		   while (journal.undo(engine) == MoveJournal.SWEEP)
+			   ;
+		   undoActive = false;
+		   undoCount--;
+		   undoReset--;
+		   event = publish();
+	   }
+	   fire(event);
+   }
+
    /**
-    * Perform a turn of the game.
-    * @param player player performing action
-    * @param pitNumber pit they chose
+    * Causes a redo of the last undone move to occur. Only available with
+    * the unlimited undo policy.
     */
-   public void doTurn(char player, int pitNumber)
+   public void redo()
    {
-		  // Mancala Layout
-		  // 					[B5] [B4] [B3] [B2] [B1] [B0]
-		  // [Player B Mancala]							      [Player A Mancala]
-		  //					[A0] [A1] [A2] [A3] [A4] [A5] 
-		  // Play goes counterclockwise.
-	   
-	   int pitValue = getPitValue(player, pitNumber);
-	   if (pitValue == 0 || player != currentPlayer)
-		   return; // No turn occurs
-	   
-	   undoReset++;
-	   if (undoReset == 1)
+	   BoardChangeEvent event;
+	   synchronized (this)
 	   {
-		   undoReset = 0;
-		   undoCount = 3;
+		   if (!canRedoNow())
+			   return;
+
+		   journal.redo(engine);
+		   if (journal.peekRedo() == MoveJournal.SWEEP)
+			   journal.redo(engine);
+		   event = publish();
 	   }
-	   
-	   saveState();	   
+	   fire(event);
+   }
 
-	   char currSide = player;
-	   
+   /**
+    * Jump to any ply of the recorded game. Only available with the
+    * unlimited undo policy.
+    * @param ply number of journal entries to keep played, 0 for the start
+    */
+   public void goToPly(int ply)
+   {
+	   if (undoPolicy != UndoPolicy.UNLIMITED)
+		   return;
 
-	   
-	   int tempPitNumber = pitNumber+1;
-	   boolean freeTurn = false;
-	   
-	   while (pitValue != 0)
+	   BoardChangeEvent event;
+	   synchronized (this)
 	   {
-		   // Handle pits on player's side
-		   while (tempPitNumber < 6 && pitValue != 0)
-		   {
-			   getPits(currSide)[tempPitNumber].addStone();
-			   pitValue--;	
-			   tempPitNumber++;
-		   }
-		   // Handle player's mancala
-		   if (pitValue > 0)
-		   {
-			   getMancala(currSide).addStones(1);
-			   pitValue--;
-			   freeTurn = true;
-		   }
-		   // Handle opposite side pits
-		   if (pitValue > 0)
-		   {
-			   currSide = getOppositePlayer(currSide);
-			   tempPitNumber = 0;
-			   freeTurn = false;
-			   while (tempPitNumber < 6 && pitValue != 0)
-			   {
-				   getPits(currSide)[tempPitNumber].addStone();
-				   pitValue--;
-				   tempPitNumber++;
-			   }
-		   }
-		   // Loop around if we still have more stones..
-		   if (pitValue > 0)
-		   {
-			   tempPitNumber = 0;
-			   currSide = getOppositePlayer(currSide);
-		   }
+		   journal.goToPly(engine, ply);
+		   event = publish();
 	   }
-	   // Play did not end on player's mancala, therefore 
-	   // 1) turn changes
-	   // 2) check for ending on an empty pit
-	   if (!freeTurn) 
+	   fire(event);
+   }
+
+   /**
+    * Perform a turn of the game.
+    * @param player player performing action
+    * @param pitNumber pit they chose
+    */
+   public void doTurn(char player, int pitNumber)
+   {
+	   BoardChangeEvent event;
+	   synchronized (this)
 	   {
-		   if (currentPlayer == 'a')
-			   currentPlayer = 'b';
-		   else
-			   currentPlayer = 'a';
-		   
-		   // ended on empty pit
-		   if (currSide == player && getPitValue(player, tempPitNumber-1) == 1)
+		   if (player != engine.getCurrPlayer() || !engine.isLegal(pitNumber))
+			   return; // No turn occurs
+
+		   undoReset++;
+		   if (undoReset == 1)
 		   {
-			   char oppPlayer = getOppositePlayer(player);
-			   int oppPit = getOppositePit(tempPitNumber - 1);
-			   int giveValue = getPitValue(oppPlayer, oppPit) + 1;
-			   getMancala(player).addStones(giveValue);
-			   getPits(player)[tempPitNumber-1].takeAll();
-			   getPits(oppPlayer)[oppPit].takeAll();
+			   undoReset = 0;
+			   undoCount = 3;
 		   }
+
+		   if (undoCount > 0)
+			   undoActive = true;
+		   int mover = engine.getSide();
+		   int stones = engine.getPitValue(mover, pitNumber);
+		   engine.applyMove(pitNumber);
+		   journal.recordMove(engine, mover, pitNumber, stones);
+		   event = publish();
 	   }
-	   getPits(player)[pitNumber].takeAll();
-	   updateView();
+	   fire(event);
    }
-   
+
+   /**
+    * Check if one side has run out of stones, without sweeping.
+    * @return true if the game is over
+    */
+   public boolean isGameOver()
+   {
+	   return snapshot.isGameOver();
+   }
+
    /**
     * Check for a winner.
     * @return 'a' or 'b' if winner, 'c' if no winner
     */
    public char checkWinner()
    {
-	   // Check if A side has no stones
-	   boolean gameOver = true;
-	   for (int i = 0; i < 6; i++)
-	   {
-		   if (a[i].getAmount() != 0)
-			   gameOver = false;
-	   }
-	   if (gameOver)
-	   {
-		   for (int i = 0; i < 6; i++)
-		   {
-			   mancalaB.addStones(b[i].takeAll());
-		   }
-	   }
-	   // Check if B side has no stones
-	   if (gameOver == false)
+	   if (!snapshot.isGameOver())
+		   return 'c';
+
+	   char winner;
+	   BoardChangeEvent event;
+	   synchronized (this)
 	   {
-		   gameOver = true;
-		   for (int i = 0; i < 6; i++)
-		   {
-			   if (b[i].getAmount() != 0)
-				   gameOver = false;
-		   }	
-		   if (gameOver)
+		   if (!engine.isTerminal())
+			   return 'c';
+
+		   // Record the sweep of the side that still has stones
+		   int swept = sideEmpty(MancalaEngine.SIDE_A)
+			   ? MancalaEngine.SIDE_B : MancalaEngine.SIDE_A;
+		   int stones = 0;
+		   for (int i = 0; i < sweepPits.length; i++)
 		   {
-			   for (int i = 0; i < 6; i++)
-			   {
-			   mancalaA.addStones(a[i].takeAll());
-			   }
+			   sweepPits[i] = engine.getPitValue(swept, i);
+			   stones += sweepPits[i];
 		   }
+		   winner = engine.checkWinner();
+		   if (stones > 0 && rules.getSweep() == MancalaRules.Sweep.OWNER)
+			   journal.recordSweep(engine, swept, sweepPits);
+		   event = publish();
 	   }
-	   // Game is over
-	   if (gameOver)
-	   {
-		   updateView();
-		   if (mancalaA.getAmount() > mancalaB.getAmount())
-			   return 'a';
-		   else
-			   return 'b';
-	   }
-	   
-	   return 'c';
+	   fire(event);
+	   return winner;
    }
-   
+
    /**
-    * Force all views to update.
+    * Force all views to update. The event tells the views which slots
+    * changed since the last update.
     */
    public void updateView()
-   {      
-      for (ChangeListener l : listeners)
+   {
+      BoardChangeEvent event;
+      synchronized (this)
       {
-         l.stateChanged(new ChangeEvent(this));
+         event = publish();
       }
+      fire(event);
    }
-   
+
    /**
-    * Helper method to choose pits if given player as char.
-    * @param side player 'a' or 'b'
-    * @return pits of that player
+    * Helper method to publish the current state as a new snapshot. Must be
+    * called holding the writer lock.
+    * @return event describing the change
     */
-   private Pit [] getPits(char side)
+   private BoardChangeEvent publish()
    {
-	   if (side == 'a')
-		   return a;
-	   else if (side == 'b')
-		   return b;
-	   
-	   return null;
+      BoardSnapshot last = snapshot;
+      int changed = 0;
+      for (int i = 0; i < rules.getSlots(); i++)
+      {
+         if (engine.getSlot(i) != last.getSlot(i))
+            changed |= 1 << i;
+      }
+      BoardSnapshot next = new BoardSnapshot(engine, last.getVersion() + 1,
+         changed, journal.getPly(), canUndoNow(), canRedoNow(),
+         undoCountNow());
+      snapshot = next;
+      return new BoardChangeEvent(this, next);
    }
-   
+
    /**
-    * Helper method to choose mancala if given player as char.
-    * @param player player 'a' or 'b'
-    * @return mancala of that player
-    */   
-   private Mancala getMancala(char player)
+    * Helper method to send an event to all listeners.
+    * @param event the event
+    */
+   private void fire(BoardChangeEvent event)
    {
-	   if (player == 'a')
-		   return mancalaA;
-	   else if (player == 'b')
-		   return mancalaB;
-	   
-	   return null;
+      for (ChangeListener listener : listeners)
+      {
+         listener.stateChanged(event);
+      }
    }
-   
+
    /**
-    * Helper method to get char of opposite player.
-    * @param player player 'a' or 'b'
-    * @return opposite player 'b' or 'a'
+    * Helper method for the undo status of the writer's state.
+    * @return if undo is available true else false
     */
-   private char getOppositePlayer(char player)
+   private boolean canUndoNow()
    {
-	   return (player == 'a' ? 'b' : 'a');
+	   if (undoPolicy == UndoPolicy.UNLIMITED)
+		   return journal.getPly() > 0;
+	   return undoActive;
    }
-   
+
    /**
-    * Helper method to get opposite pit number.
-    * @param pit number to get opposite of
-    * @return opposite pit number
+    * Helper method for the redo status of the writer's state.
+    * @return if redo is available true else false
     */
-   private int getOppositePit(int pit)
+   private boolean canRedoNow()
    {
-	   switch (pit)
+	   return undoPolicy == UndoPolicy.UNLIMITED
+		   && journal.getPly() < journal.getLength();
+   }
+
+   /**
+    * Helper method for the remaining undos of the writer's state.
+    * @return remaining undo count, -1 if unlimited
+    */
+   private int undoCountNow()
+   {
+	   if (undoPolicy == UndoPolicy.UNLIMITED)
+		   return -1;
+	   return undoCount;
+   }
+
+   /**
+    * Helper method to check if all pits on one side are empty.
+    * @param side SIDE_A or SIDE_B
+    * @return true if the side has no stones
+    */
+   private boolean sideEmpty(int side)
+   {
+	   for (int i = 0; i < rules.getPits(); i++)
 	   {
-	   		case 0:
-	   			return 5;
-	   		case 1:
-	   			return 4;
-	   		case 2:
-	   			return 3;
-	   		case 3:
-	   			return 2;
-	   		case 4:
-	   			return 1;
-	   		case 5:
-	   			return 0;
-	   		default:
-	   			return -1;
-	   }		   
-   }
-   
-   /**
-    * Saves the state of the board in order to support undo function.
-    */
-   private void saveState()
-   {
-	   // A0-A5 = 0-5, AM = 6, B0-B5 = 7-12, BM = 13
-	   for (int i = 0; i < 6; i++)
-		   undoValues[i] = getPitValue('a', i);
-	   undoValues[6] = getMancalaValue('a');
-	   for (int i = 7; i < 13; i++)
-		   undoValues[i] = getPitValue('b', i-7);
-	   undoValues[13] = getMancalaValue('b');
-	   undoPlayer = currentPlayer;	
-	   if (undoCount > 0)
-		   undoActive = true;
-   }
-}
\ No newline at end of file
+		   if (engine.getPitValue(side, i) != 0)
+			   return false;
+	   }
+	   return true;
+   }
+}
@@ -15,6 +15,7 @@ public class MancalaPanel extends JPanel implements ChangeListener {
     private MancalaModel mancalaModel;  // The game model this panel is associated with
     private char playerMancala;         // Identifier for the player ('a' or 'b')
     private int stoneAmount;            // Number of stones in the player's Mancala
+    private long version;               // Snapshot version shown
     private StyleFormatter format;      // Formatter for styling the Mancala display
 
     /**
@@ -26,7 +27,9 @@ public class MancalaPanel extends JPanel implements ChangeListener {
     public MancalaPanel(MancalaModel mancalaModel, char playerMancala) {
         this.mancalaModel = mancalaModel;
         this.playerMancala = playerMancala;
-        stoneAmount = mancalaModel.getMancalaValue(playerMancala);
+        BoardSnapshot snapshot = mancalaModel.getSnapshot();
+        stoneAmount = snapshot.getMancalaValue(MancalaEngine.toSide(playerMancala));
+        version = snapshot.getVersion();
     }
 
     /**
@@ -64,13 +67,42 @@ public class MancalaPanel extends JPanel implements ChangeListener {
     }
 
     /**
-     * Called when the observed model changes state. Updates the stone count.
+     * Called when the observed model changes state. Updates the stone count
+     * and repaints only if this mancala changed. Snapshots older than the
+     * one shown are ignored, as they can arrive after newer ones.
      * 
      * @param e The event object representing the change
      */
     @Override
     public void stateChanged(ChangeEvent e) {
-        stoneAmount = mancalaModel.getMancalaValue(playerMancala);
+        int value;
+        if (e instanceof BoardChangeEvent) {
+            BoardChangeEvent event = (BoardChangeEvent) e;
+            BoardSnapshot snapshot = event.getSnapshot();
+            long last = version;
+            if (snapshot.getVersion() <= last) {
+                GameBoard.countRepaint(true);
+                return;
+            }
+            version = snapshot.getVersion();
+            // The changed slots only tell the difference to the version before
+            if (snapshot.getVersion() == last + 1
+                    && !event.isChanged(BoardChangeEvent.mancalaSlot(
+                            mancalaModel.getRules(), playerMancala))) {
+                GameBoard.countRepaint(true);
+                return;
+            }
+            // Read from the event's snapshot, the model may have moved on
+            value = snapshot.getMancalaValue(MancalaEngine.toSide(playerMancala));
+        } else {
+            value = mancalaModel.getMancalaValue(playerMancala);
+        }
+        if (value == stoneAmount) {
+            GameBoard.countRepaint(true);
+            return;
+        }
+        stoneAmount = value;
+        GameBoard.countRepaint(false);
         repaint();
     }
 }
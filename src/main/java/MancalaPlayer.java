@@ -0,0 +1,38 @@
+/**
+ * A source of moves that plays without user input, such as a computer
+ * opponent.
+ */
+public interface MancalaPlayer
+{
+   /**
+    * Choose a move for the side to move in a position.
+    * @param position current position, not modified by the player
+    * @return pit number to play, 0-5
+    */
+   public int chooseMove(MancalaEngine position);
+
+   /**
+    * Release the threads held by the player, for example when its game is
+    * replaced. The player cannot be used afterwards.
+    */
+   public default void shutdown()
+   {
+   }
+
+   /**
+    * Ask a running chooseMove() to return as soon as possible. May be
+    * called from any thread; players that answer quickly ignore it.
+    */
+   public default void abort()
+   {
+   }
+
+   /**
+    * Allow chooseMove() to search again after abort(). An abort stays in
+    * effect until this is called, so callers clear it before deciding to
+    * start a search, and an abort() arriving in between is not lost.
+    */
+   public default void clearAbort()
+   {
+   }
+}
@@ -0,0 +1,226 @@
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Board geometry and rule variant of a game: the number of pits per side,
+ * what a move captures and what happens to the stones left when one side
+ * runs out. Slots are numbered like the standard board: side A's pits,
+ * A's mancala, side B's pits, B's mancala.
+ *
+ * Variants are named by their capture rule, the pit count when it is not
+ * 6 and "-nosweep" when the stones left at the end stay on the board, for
+ * example "kalah", "oware4" or "nocapture-nosweep".
+ */
+public final class MancalaRules
+{
+   /** What the last stone of a move captures. */
+   public enum Capture
+   {
+      /** Landing in an empty own pit takes it and the opposite pit. */
+      KALAH,
+      /**
+       * Making an opponent's pit hold 2 or 3 takes it and the unbroken run
+       * of opponent's pits holding 2 or 3 just before it.
+       */
+      OWARE,
+      /** Nothing is captured. */
+      NONE
+   }
+
+   /** What happens to the stones left when one side runs out. */
+   public enum Sweep
+   {
+      /** They go to the mancala of the side they are on. */
+      OWNER,
+      /** They stay on the board and do not count. */
+      NONE
+   }
+
+   public static final int MIN_PITS = 1;
+   public static final int MAX_PITS = 8;
+   public static final int MAX_SLOTS = 2 * MAX_PITS + 2;
+
+   /** Standard Kalah with 6 pits per side. */
+   public static final MancalaRules KALAH =
+      new MancalaRules(6, Capture.KALAH, Sweep.OWNER);
+
+   private static final Pattern NAME =
+      Pattern.compile("(kalah|oware|nocapture)(\\d*)(-nosweep)?");
+
+   private final int pits;
+   private final Capture capture;
+   private final Sweep sweep;
+   private final int[][] next;
+
+   /**
+    * Constructor.
+    * @param pits pits per side, MIN_PITS to MAX_PITS
+    * @param capture capture rule
+    * @param sweep end-of-game sweep rule
+    */
+   public MancalaRules(int pits, Capture capture, Sweep sweep)
+   {
+      if (pits < MIN_PITS || pits > MAX_PITS)
+         throw new IllegalArgumentException("Pits per side must be "
+            + MIN_PITS + "-" + MAX_PITS + ": " + pits);
+      this.pits = pits;
+      this.capture = capture;
+      this.sweep = sweep;
+
+      // Next slot when sowing for each side, skipping the opponent's mancala
+      int slots = getSlots();
+      next = new int[2][slots];
+      for (int side = 0; side < 2; side++)
+      {
+         int skip = mancalaSlot(side ^ 1);
+         for (int slot = 0; slot < slots; slot++)
+         {
+            int n = (slot + 1) % slots;
+            next[side][slot] = n == skip ? (n + 1) % slots : n;
+         }
+      }
+   }
+
+   /**
+    * Get the rules with a name.
+    * @param name variant name, see the class comment
+    * @return the rules
+    * @throws IllegalArgumentException if the name is not a variant
+    */
+   public static MancalaRules parse(String name)
+   {
+      Matcher m = NAME.matcher(name);
+      if (!m.matches())
+         throw new IllegalArgumentException("Unknown variant " + name);
+      Capture capture = m.group(1).equals("kalah") ? Capture.KALAH
+         : m.group(1).equals("oware") ? Capture.OWARE : Capture.NONE;
+      int pits = m.group(2).isEmpty() ? 6 : Integer.parseInt(m.group(2));
+      Sweep sweep = m.group(3) == null ? Sweep.OWNER : Sweep.NONE;
+      MancalaRules rules = new MancalaRules(pits, capture, sweep);
+      return rules.isStandard() ? KALAH : rules;
+   }
+
+   /**
+    * Get the name of the variant.
+    * @return name that parse() accepts
+    */
+   public String getName()
+   {
+      String name = capture == Capture.KALAH ? "kalah"
+         : capture == Capture.OWARE ? "oware" : "nocapture";
+      if (pits != 6)
+         name += pits;
+      if (sweep == Sweep.NONE)
+         name += "-nosweep";
+      return name;
+   }
+
+   /**
+    * Get the number of pits per side.
+    * @return pit count
+    */
+   public int getPits()
+   {
+      return pits;
+   }
+
+   /**
+    * Get the number of board slots, pits and mancalas.
+    * @return 2 * pits + 2
+    */
+   public int getSlots()
+   {
+      return 2 * pits + 2;
+   }
+
+   /**
+    * Get the capture rule.
+    * @return the capture rule
+    */
+   public Capture getCapture()
+   {
+      return capture;
+   }
+
+   /**
+    * Get the end-of-game sweep rule.
+    * @return the sweep rule
+    */
+   public Sweep getSweep()
+   {
+      return sweep;
+   }
+
+   /**
+    * Check if these are the standard 6 pit Kalah rules, which the engine
+    * plays on a specialized path.
+    * @return true for standard Kalah
+    */
+   public boolean isStandard()
+   {
+      return pits == 6 && capture == Capture.KALAH && sweep == Sweep.OWNER;
+   }
+
+   /**
+    * Get the slot index of a pit.
+    * @param side MancalaEngine.SIDE_A or SIDE_B
+    * @param pitNumber pit number, 0 to pits - 1
+    * @return slot index
+    */
+   public int pitSlot(int side, int pitNumber)
+   {
+      return side * (pits + 1) + pitNumber;
+   }
+
+   /**
+    * Get the slot index of a mancala.
+    * @param side MancalaEngine.SIDE_A or SIDE_B
+    * @return slot index
+    */
+   public int mancalaSlot(int side)
+   {
+      return side * (pits + 1) + pits;
+   }
+
+   /**
+    * Get the slots that follow each slot when a side sows.
+    * @param side MancalaEngine.SIDE_A or SIDE_B
+    * @return next slot table, not to be modified
+    */
+   int[] nextSlots(int side)
+   {
+      return next[side];
+   }
+
+   /**
+    * Compare with other rules.
+    * @param o object to compare with
+    * @return true if o is rules for the same variant
+    */
+   public boolean equals(Object o)
+   {
+      if (!(o instanceof MancalaRules))
+         return false;
+      MancalaRules other = (MancalaRules) o;
+      return pits == other.pits && capture == other.capture
+         && sweep == other.sweep;
+   }
+
+   /**
+    * Get a hash code consistent with equals().
+    * @return hash code
+    */
+   public int hashCode()
+   {
+      return (pits * 31 + capture.ordinal()) * 31 + sweep.ordinal();
+   }
+
+   /**
+    * Get the name of the variant.
+    * @return same as getName()
+    */
+   public String toString()
+   {
+      return getName();
+   }
+}
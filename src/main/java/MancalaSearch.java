@@ -0,0 +1,457 @@
+/**
+ * Alpha-beta game tree search over MancalaEngine positions. Search runs by
+ * iterative deepening until a depth limit or a hard time budget is reached,
+ * and returns the best move of the deepest completed iteration.
+ * Scores are stone differences between the mancalas from the point of view
+ * of the side to move. An optional transposition table lets positions
+ * reached by different move orders share their results, and an optional
+ * endgame database gives exact values once few stones are left.
+ */
+public class MancalaSearch
+{
+   public static final int MAX_PLY = 128;
+   public static final int INFINITY = 1000000;
+
+   // Nodes between two clock checks
+   private static final int CHECK_INTERVAL = 1023;
+
+   private final TranspositionTable table;
+   private EndgameDatabase endgame;
+   private final MancalaEngine[] stack;
+   private final int[][] moveLists;
+   private final int[][] moveScores;
+   private long deadline;
+   private volatile boolean abort;
+   private boolean stopped;
+   private boolean cutoff;
+   private long nodes;
+   private int rootBest;
+   private int bestMove;
+   private int bestScore;
+   private int completedDepth;
+
+   /**
+    * Constructor for a search without a transposition table.
+    */
+   public MancalaSearch()
+   {
+      this(null);
+   }
+
+   /**
+    * Constructor.
+    * @param table transposition table to use, or null for none
+    */
+   public MancalaSearch(TranspositionTable table)
+   {
+      this.table = table;
+      stack = new MancalaEngine[MAX_PLY + 1];
+      for (int i = 0; i < stack.length; i++)
+         stack[i] = new MancalaEngine(0);
+      moveLists = new int[MAX_PLY][MancalaRules.MAX_PITS];
+      moveScores = new int[MAX_PLY][MancalaRules.MAX_PITS];
+   }
+
+   /**
+    * Search a position and return the best move found.
+    * @param position position to search, not modified
+    * @param timeBudgetMillis hard time limit for the whole search
+    * @param maxDepth maximum depth in plies
+    * @return best pit number, or -1 if the side to move has no moves
+    */
+   public int search(MancalaEngine position, long timeBudgetMillis,
+         int maxDepth)
+   {
+      abort = false;
+      if (table != null)
+         table.newSearch();
+      return run(position, deadlineAfter(timeBudgetMillis), maxDepth, 1);
+   }
+
+   /**
+    * Stop a running search as soon as possible. The search returns the
+    * best move of its last completed iteration.
+    */
+   public void abort()
+   {
+      abort = true;
+   }
+
+   /**
+    * Clear the abort flag before a search started through run().
+    */
+   void clearAbort()
+   {
+      abort = false;
+   }
+
+   /**
+    * Search a position by iterative deepening. Used directly by parallel
+    * searches, which manage the table generation and abort flag.
+    * @param position position to search, not modified
+    * @param deadlineNanos System.nanoTime() value at which to stop
+    * @param maxDepth maximum depth in plies
+    * @param startDepth depth of the first iteration
+    * @return best pit number, or -1 if the side to move has no moves
+    */
+   int run(MancalaEngine position, long deadlineNanos, int maxDepth,
+         int startDepth)
+   {
+      deadline = deadlineNanos;
+      stopped = false;
+      nodes = 0;
+      completedDepth = 0;
+      bestScore = 0;
+      setRoot(position);
+
+      int moves = orderMoves(0, -1);
+      bestMove = moves > 0 ? moveLists[0][0] : -1;
+      if (moves <= 1)
+         return bestMove;
+
+      int limit = Math.min(maxDepth, MAX_PLY - 1);
+      for (int depth = Math.min(startDepth, limit); depth <= limit; depth++)
+      {
+         cutoff = false;
+         int score = searchRoot(depth);
+         if (stopped)
+            break;
+         bestMove = rootBest;
+         bestScore = score;
+         completedDepth = depth;
+         if (!cutoff)
+            break; // every line reached the end of the game
+      }
+      return bestMove;
+   }
+
+   /**
+    * Score one move of a position with a full window search, so that every
+    * move gets an exact value rather than a bound. Used for analysis, where
+    * the transposition table carries results over between the moves,
+    * depths and positions searched. The abort flag is not cleared.
+    * @param position position to search, not modified
+    * @param pit move to score, must be legal
+    * @param depth depth in plies, counting the move itself
+    * @param deadlineNanos System.nanoTime() value at which to stop
+    * @return score for the side to move in position, not valid if
+    *    wasStopped() returns true
+    */
+   public int scoreMove(MancalaEngine position, int pit, int depth,
+         long deadlineNanos)
+   {
+      return scoreMove(position, pit, depth, deadlineNanos, -INFINITY,
+         INFINITY);
+   }
+
+   /**
+    * Score one move of a position within a window. A score strictly inside
+    * the window is exact, one at or outside it is only a bound, so a
+    * narrow window tests a value much faster than a full window.
+    * @param position position to search, not modified
+    * @param pit move to score, must be legal
+    * @param depth depth in plies, counting the move itself
+    * @param deadlineNanos System.nanoTime() value at which to stop
+    * @param alpha lower bound for the side to move
+    * @param beta upper bound for the side to move
+    * @return score for the side to move in position
+    */
+   int scoreMove(MancalaEngine position, int pit, int depth,
+         long deadlineNanos, int alpha, int beta)
+   {
+      deadline = deadlineNanos;
+      stopped = false;
+      cutoff = false;
+      nodes = 0;
+      setRoot(position);
+      return child(0, pit, depth, alpha, beta);
+   }
+
+   /**
+    * Check if the last scoreMove() ran out of time or was aborted.
+    * @return true if the search was stopped
+    */
+   public boolean wasStopped()
+   {
+      return stopped;
+   }
+
+   /**
+    * Check if the last scoreMove() cut any line off at the depth limit. If
+    * not, its score is exact.
+    * @return true if a deeper search could change the score
+    */
+   public boolean reachedDepthLimit()
+   {
+      return cutoff;
+   }
+
+   /**
+    * Helper method to copy the root position onto the search stack,
+    * rebuilding the stack for other rules.
+    * @param position root position
+    */
+   private void setRoot(MancalaEngine position)
+   {
+      if (!stack[0].getRules().equals(position.getRules()))
+      {
+         for (int i = 0; i < stack.length; i++)
+            stack[i] = new MancalaEngine(0, position.getRules());
+      }
+      stack[0].copyFrom(position);
+   }
+
+   /**
+    * Get the System.nanoTime() value a time budget ends at.
+    * @param timeBudgetMillis time budget in milliseconds
+    * @return deadline in nanoseconds
+    */
+   static long deadlineAfter(long timeBudgetMillis)
+   {
+      long budget = Math.min(Math.max(timeBudgetMillis, 0),
+         Long.MAX_VALUE / 4000000L);
+      return System.nanoTime() + budget * 1000000L;
+   }
+
+   /**
+    * Set the endgame database probed during search.
+    * @param endgame the database, or null for none
+    */
+   public void setEndgameDatabase(EndgameDatabase endgame)
+   {
+      this.endgame = endgame;
+   }
+
+   /**
+    * Get the transposition table used by this search.
+    * @return the table, or null if none
+    */
+   public TranspositionTable getTable()
+   {
+      return table;
+   }
+
+   /**
+    * Get the number of nodes visited by the last search.
+    * @return node count
+    */
+   public long getNodes()
+   {
+      return nodes;
+   }
+
+   /**
+    * Get the deepest iteration completed by the last search.
+    * @return depth in plies
+    */
+   public int getCompletedDepth()
+   {
+      return completedDepth;
+   }
+
+   /**
+    * Get the score of the best move of the last search.
+    * @return score for the side to move at the root
+    */
+   public int getBestScore()
+   {
+      return bestScore;
+   }
+
+   /**
+    * Helper method to search all root moves, trying the previous best move
+    * first.
+    * @param depth depth in plies
+    * @return score of the best root move
+    */
+   private int searchRoot(int depth)
+   {
+      int moves = orderMoves(0, bestMove);
+      int alpha = -INFINITY;
+      int best = -1;
+      for (int i = 0; i < moves; i++)
+      {
+         int pit = moveLists[0][i];
+         int score = child(0, pit, depth, alpha, INFINITY);
+         if (stopped)
+            return alpha;
+         if (score > alpha)
+         {
+            alpha = score;
+            best = pit;
+         }
+      }
+      rootBest = best;
+      return alpha;
+   }
+
+   /**
+    * Helper method to play a move and search the resulting position.
+    * @param ply ply of the parent position
+    * @param pit move to play
+    * @param depth remaining depth of the parent
+    * @param alpha lower bound for the parent's side
+    * @param beta upper bound for the parent's side
+    * @return score from the point of view of the parent's side
+    */
+   private int child(int ply, int pit, int depth, int alpha, int beta)
+   {
+      MancalaEngine parent = stack[ply];
+      MancalaEngine next = stack[ply + 1];
+      next.copyFrom(parent);
+      next.applyMove(pit);
+      if (next.getSide() == parent.getSide())
+         return negamax(ply + 1, depth - 1, alpha, beta);
+      return -negamax(ply + 1, depth - 1, -beta, -alpha);
+   }
+
+   /**
+    * Helper method for the alpha-beta search.
+    * @param ply distance from the root
+    * @param depth remaining depth
+    * @param alpha lower bound
+    * @param beta upper bound
+    * @return score from the point of view of the side to move
+    */
+   private int negamax(int ply, int depth, int alpha, int beta)
+   {
+      if ((++nodes & CHECK_INTERVAL) == 0
+         && (abort || System.nanoTime() - deadline >= 0))
+         stopped = true;
+      if (stopped)
+         return 0;
+
+      MancalaEngine position = stack[ply];
+      if (position.isTerminal())
+      {
+         position.checkWinner();
+         return evaluate(position);
+      }
+      if (endgame != null)
+      {
+         int value = endgame.probe(position);
+         if (value != EndgameDatabase.NO_VALUE)
+            return evaluate(position) + value;
+      }
+      if (depth <= 0 || ply >= MAX_PLY - 1)
+      {
+         cutoff = true;
+         return evaluate(position);
+      }
+
+      int hashMove = -1;
+      long key = position.getHash();
+      if (table != null)
+      {
+         long entry = table.probe(key);
+         if (entry != 0)
+         {
+            hashMove = TranspositionTable.move(entry);
+            int stored = TranspositionTable.depth(entry);
+            if (stored >= depth)
+            {
+               int score = TranspositionTable.score(entry);
+               int flag = TranspositionTable.flag(entry);
+               if (flag == TranspositionTable.EXACT
+                  || (flag == TranspositionTable.LOWER && score >= beta)
+                  || (flag == TranspositionTable.UPPER && score <= alpha))
+               {
+                  // Unless solved, a stored result hides the depth cutoffs
+                  // below it
+                  if (stored != TranspositionTable.SOLVED)
+                     cutoff = true;
+                  return score;
+               }
+            }
+         }
+      }
+
+      int alphaOrig = alpha;
+      int best = -1;
+      boolean outerCutoff = cutoff;
+      cutoff = false;
+      int moves = orderMoves(ply, hashMove);
+      for (int i = 0; i < moves; i++)
+      {
+         int pit = moveLists[ply][i];
+         int score = child(ply, pit, depth, alpha, beta);
+         if (score > alpha)
+         {
+            alpha = score;
+            best = pit;
+            if (alpha >= beta)
+               break;
+         }
+      }
+
+      boolean limited = cutoff;
+      cutoff |= outerCutoff;
+      if (table != null && !stopped)
+      {
+         int flag;
+         if (alpha <= alphaOrig)
+            flag = TranspositionTable.UPPER;
+         else if (alpha >= beta)
+            flag = TranspositionTable.LOWER;
+         else
+            flag = TranspositionTable.EXACT;
+         table.store(key, limited ? depth : TranspositionTable.SOLVED, flag,
+            alpha, best >= 0 ? best : hashMove);
+      }
+      return alpha;
+   }
+
+   /**
+    * Helper method to evaluate a position by the mancala difference.
+    * @param position position to evaluate
+    * @return score from the point of view of the side to move
+    */
+   private static int evaluate(MancalaEngine position)
+   {
+      int side = position.getSide();
+      return position.getMancalaValue(side)
+         - position.getMancalaValue(side ^ 1);
+   }
+
+   /**
+    * Helper method to list the legal moves of a ply, free turns first,
+    * then captures, then the rest.
+    * @param ply ply whose moves are listed
+    * @param first move to put in front of all others, or -1
+    * @return number of legal moves
+    */
+   private int orderMoves(int ply, int first)
+   {
+      MancalaEngine position = stack[ply];
+      int[] list = moveLists[ply];
+      int[] scores = moveScores[ply];
+      int count = 0;
+      for (int pit = position.getRules().getPits() - 1; pit >= 0; pit--)
+      {
+         if (!position.isLegal(pit))
+            continue;
+
+         int score;
+         if (pit == first)
+            score = 3;
+         else if (position.isFreeTurn(pit))
+            score = 2;
+         else if (position.isCapture(pit))
+            score = 1;
+         else
+            score = 0;
+
+         // Insertion sort, stable for equal scores
+         int i = count++;
+         while (i > 0 && scores[i - 1] < score)
+         {
+            list[i] = list[i - 1];
+            scores[i] = scores[i - 1];
+            i--;
+         }
+         list[i] = pit;
+         scores[i] = score;
+      }
+      return count;
+   }
+}
@@ -0,0 +1,624 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Game server hosting many concurrent games over TCP. One thread runs a
+ * selector event loop over all connections and owns every game, so games
+ * need no locking. Moves are checked against the same rules as
+ * MancalaModel.doTurn(): the mover must hold the seat of the side to move
+ * and the pit must be legal.
+ *
+ * The protocol is line based ASCII, one command per line:
+ * <pre>
+ * NEW stones [variant]   create a game and take seat A
+ *                        reply GAME id A state
+ * JOIN id                take seat B, reply GAME id B state and
+ *                        JOINED id state to seat A
+ * MOVE id pit            play pit 1..pits, reply OK id state and
+ *                        MOVED id pit state to the opponent
+ * STATE id               reply STATE id state
+ * LEAVE id               give up a game
+ * </pre>
+ * A state is the ply, the side to move (a, b or end) and the stone count
+ * of every slot. When a game ends both seats get END id winner storeA
+ * storeB and the game is removed; a game whose player leaves or
+ * disconnects ends with END id abandoned. Errors are answered with
+ * ERR id message. A connection may hold both seats of a game.
+ *
+ * The games of one connection and of the whole server are limited, and
+ * NEW and JOIN beyond the limits are answered with ERR. A client that
+ * lets more than MAX_OUTPUT bytes of replies pile up without reading them
+ * is disconnected.
+ *
+ * Usage: java MancalaServer [--port P] [--report-ms MS] [--max-games N]
+ *        [--max-games-per-connection N]
+ */
+public class MancalaServer implements Runnable
+{
+   public static final int DEFAULT_PORT = 7171;
+   public static final int DEFAULT_MAX_GAMES = 1000000;
+   public static final int DEFAULT_MAX_GAMES_PER_CONNECTION = 1000;
+
+   /** Most bytes of replies queued for one connection. */
+   public static final int MAX_OUTPUT = 1 << 20;
+
+   private static final int MAX_LINE = 1024;
+
+   private final Selector selector;
+   private final ServerSocketChannel server;
+   private final HashMap<Long, Game> games = new HashMap<Long, Game>();
+   private final ArrayList<Connection> dirty = new ArrayList<Connection>();
+   private final int maxGames;
+   private final int maxGamesPerConnection;
+   private long nextGameId = 1;
+   private volatile boolean running;
+
+   private final AtomicLong connections = new AtomicLong();
+   private final AtomicLong activeGames = new AtomicLong();
+   private final AtomicLong maxActiveGames = new AtomicLong();
+   private final AtomicLong finishedGames = new AtomicLong();
+   private final AtomicLong moves = new AtomicLong();
+
+   /**
+    * Constructor for a server with the default game limits. Binds the
+    * server socket.
+    * @param port port to listen on, 0 for any free port
+    * @throws IOException if the port cannot be bound
+    */
+   public MancalaServer(int port) throws IOException
+   {
+      this(port, DEFAULT_MAX_GAMES, DEFAULT_MAX_GAMES_PER_CONNECTION);
+   }
+
+   /**
+    * Constructor. Binds the server socket.
+    * @param port port to listen on, 0 for any free port
+    * @param maxGames most games in progress on the server
+    * @param maxGamesPerConnection most games a connection holds a seat of
+    * @throws IOException if the port cannot be bound
+    */
+   public MancalaServer(int port, int maxGames, int maxGamesPerConnection)
+      throws IOException
+   {
+      this.maxGames = maxGames;
+      this.maxGamesPerConnection = maxGamesPerConnection;
+      selector = Selector.open();
+      server = ServerSocketChannel.open();
+      server.bind(new InetSocketAddress(port), 1024);
+      server.configureBlocking(false);
+      server.register(selector, SelectionKey.OP_ACCEPT);
+      running = true;
+   }
+
+   /**
+    * Get the port the server listens on.
+    * @return the port
+    */
+   public int getPort()
+   {
+      return server.socket().getLocalPort();
+   }
+
+   /**
+    * Run the event loop until stop() is called.
+    */
+   public void run()
+   {
+      try
+      {
+         while (running)
+         {
+            selector.select();
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext())
+            {
+               SelectionKey key = keys.next();
+               keys.remove();
+               if (!key.isValid())
+                  continue;
+               try
+               {
+                  if (key.isAcceptable())
+                     accept();
+                  else
+                  {
+                     if (key.isReadable())
+                        read((Connection) key.attachment());
+                     if (key.isValid() && key.isWritable())
+                        flush((Connection) key.attachment());
+                  }
+               }
+               catch (IOException e)
+               {
+                  close((Connection) key.attachment());
+               }
+            }
+            for (int i = 0; i < dirty.size(); i++)
+            {
+               Connection c = dirty.get(i);
+               try
+               {
+                  flush(c);
+               }
+               catch (IOException e)
+               {
+                  close(c);
+               }
+            }
+            dirty.clear();
+         }
+      }
+      catch (IOException e)
+      {
+         throw new IllegalStateException("Server loop failed", e);
+      }
+      finally
+      {
+         try
+         {
+            for (SelectionKey key : selector.keys())
+               key.channel().close();
+            selector.close();
+         }
+         catch (IOException e)
+         {
+            // closing anyway
+         }
+      }
+   }
+
+   /**
+    * Stop the event loop and close all connections.
+    */
+   public void stop()
+   {
+      running = false;
+      selector.wakeup();
+   }
+
+   /**
+    * Get the number of open client connections.
+    * @return connection count
+    */
+   public long getConnections()
+   {
+      return connections.get();
+   }
+
+   /**
+    * Get the number of games in progress.
+    * @return game count
+    */
+   public long getActiveGames()
+   {
+      return activeGames.get();
+   }
+
+   /**
+    * Get the largest number of games that were in progress at once.
+    * @return game count
+    */
+   public long getMaxActiveGames()
+   {
+      return maxActiveGames.get();
+   }
+
+   /**
+    * Get the number of games that ended.
+    * @return game count
+    */
+   public long getFinishedGames()
+   {
+      return finishedGames.get();
+   }
+
+   /**
+    * Get the number of moves played.
+    * @return move count
+    */
+   public long getMoves()
+   {
+      return moves.get();
+   }
+
+   /**
+    * Helper method to accept a new connection.
+    * @throws IOException if accepting fails
+    */
+   private void accept() throws IOException
+   {
+      SocketChannel channel = server.accept();
+      if (channel == null)
+         return;
+      channel.configureBlocking(false);
+      channel.socket().setTcpNoDelay(true);
+      Connection c = new Connection(channel);
+      c.key = channel.register(selector, SelectionKey.OP_READ, c);
+      connections.incrementAndGet();
+   }
+
+   /**
+    * Helper method to read from a connection and handle complete lines.
+    * @param c the connection
+    * @throws IOException if reading fails or the peer closed
+    */
+   private void read(Connection c) throws IOException
+   {
+      ByteBuffer in = c.in;
+      if (c.channel.read(in) < 0)
+         throw new IOException("closed");
+
+      in.flip();
+      int start = 0;
+      for (int i = 0; i < in.limit(); i++)
+      {
+         if (in.get(i) == '\n')
+         {
+            int end = i > start && in.get(i - 1) == '\r' ? i - 1 : i;
+            handle(c, new String(in.array(), start, end - start,
+               StandardCharsets.US_ASCII));
+            start = i + 1;
+            if (!c.channel.isOpen())
+               return;
+         }
+      }
+      in.position(start);
+      in.compact();
+      if (!in.hasRemaining())
+         throw new IOException("line too long");
+   }
+
+   /**
+    * Helper method to handle one command.
+    * @param c connection that sent it
+    * @param line the command
+    */
+   private void handle(Connection c, String line)
+   {
+      String[] args = line.trim().split(" +");
+      String command = args[0];
+      try
+      {
+         if (command.equals("NEW") && (args.length == 2 || args.length == 3))
+         {
+            int stones = Integer.parseInt(args[1]);
+            if (stones < 1 || stones > 1000)
+               throw new IllegalArgumentException("bad stone count");
+            MancalaRules rules = args.length == 3
+               ? MancalaRules.parse(args[2]) : MancalaRules.KALAH;
+            checkLimit(c);
+            if (games.size() >= maxGames)
+               throw new IllegalArgumentException("server is full");
+            Game g = new Game(nextGameId++, new MancalaEngine(stones, rules));
+            g.seats[0] = c;
+            c.games.add(g);
+            games.put(g.id, g);
+            long active = activeGames.incrementAndGet();
+            if (active > maxActiveGames.get())
+               maxActiveGames.set(active);
+            send(c, "GAME " + g.id + " A " + state(g));
+         }
+         else if (command.equals("JOIN") && args.length == 2)
+         {
+            Game g = find(args[1]);
+            if (g.seats[1] != null)
+               throw new IllegalArgumentException("game is full");
+            if (g.seats[0] != c)
+               checkLimit(c);
+            g.seats[1] = c;
+            if (g.seats[0] != c)
+               c.games.add(g);
+            send(c, "GAME " + g.id + " B " + state(g));
+            if (g.seats[0] != c)
+               send(g.seats[0], "JOINED " + g.id + " " + state(g));
+         }
+         else if (command.equals("MOVE") && args.length == 3)
+         {
+            move(c, find(args[1]), Integer.parseInt(args[2]) - 1);
+         }
+         else if (command.equals("STATE") && args.length == 2)
+         {
+            Game g = find(args[1]);
+            send(c, "STATE " + g.id + " " + state(g));
+         }
+         else if (command.equals("LEAVE") && args.length == 2)
+         {
+            Game g = find(args[1]);
+            if (g.seats[0] != c && g.seats[1] != c)
+               throw new IllegalArgumentException("not your game");
+            end(g, "END " + g.id + " abandoned");
+         }
+         else
+            send(c, "ERR - unknown command");
+      }
+      catch (IllegalArgumentException e)
+      {
+         send(c, "ERR " + (args.length > 1 ? args[1] : "-") + " "
+            + e.getMessage());
+      }
+   }
+
+   /**
+    * Helper method to play a move, validated like MancalaModel.doTurn().
+    * @param c connection that sent the move
+    * @param g the game
+    * @param pit pit number, starting at 0
+    */
+   private void move(Connection c, Game g, int pit)
+   {
+      MancalaEngine engine = g.engine;
+      int side = engine.getSide();
+      if (g.seats[1] == null)
+         throw new IllegalArgumentException("waiting for opponent");
+      if (g.seats[side] != c)
+         throw new IllegalArgumentException("not your turn");
+      if (!engine.applyMove(pit))
+         throw new IllegalArgumentException("illegal move");
+      g.ply++;
+      moves.incrementAndGet();
+
+      char winner = engine.isTerminal() ? engine.checkWinner() : 'c';
+      String state = state(g);
+      send(c, "OK " + g.id + " " + state);
+      Connection other = g.seats[side ^ 1];
+      if (other != c)
+         send(other, "MOVED " + g.id + " " + (pit + 1) + " " + state);
+      if (winner != 'c')
+      {
+         int a = engine.getMancalaValue(MancalaEngine.SIDE_A);
+         int b = engine.getMancalaValue(MancalaEngine.SIDE_B);
+         end(g, "END " + g.id + " " + winner + " " + a + " " + b);
+      }
+   }
+
+   /**
+    * Helper method to end a game and tell both seats.
+    * @param g the game
+    * @param message line sent to the seats
+    */
+   private void end(Game g, String message)
+   {
+      games.remove(g.id);
+      activeGames.decrementAndGet();
+      finishedGames.incrementAndGet();
+      for (int i = 0; i < 2; i++)
+      {
+         Connection seat = g.seats[i];
+         if (seat != null && (i == 0 || seat != g.seats[0]))
+         {
+            seat.games.remove(g);
+            send(seat, message);
+         }
+      }
+   }
+
+   /**
+    * Helper method to check that a connection may take a seat in one more
+    * game.
+    * @param c the connection
+    * @throws IllegalArgumentException if it holds the most games allowed
+    */
+   private void checkLimit(Connection c)
+   {
+      if (c.games.size() >= maxGamesPerConnection)
+         throw new IllegalArgumentException("too many games");
+   }
+
+   /**
+    * Helper method to look up a game.
+    * @param id game id as sent by the client
+    * @return the game
+    * @throws IllegalArgumentException if there is no such game
+    */
+   private Game find(String id)
+   {
+      Game g = games.get(Long.parseLong(id));
+      if (g == null)
+         throw new IllegalArgumentException("no such game");
+      return g;
+   }
+
+   /**
+    * Helper method to describe the state of a game.
+    * @param g the game
+    * @return ply, side to move and slot counts
+    */
+   private static String state(Game g)
+   {
+      MancalaEngine engine = g.engine;
+      StringBuilder sb = new StringBuilder();
+      sb.append(g.ply).append(' ');
+      sb.append(engine.isTerminal() ? "end" : engine.getCurrPlayer());
+      for (int i = 0; i < engine.getRules().getSlots(); i++)
+         sb.append(' ').append(engine.getSlot(i));
+      return sb.toString();
+   }
+
+   /**
+    * Helper method to queue a line for a connection. Queued lines are
+    * written at the end of the event loop iteration. A connection whose
+    * queue would grow past MAX_OUTPUT gets no more lines and is closed by
+    * the next flush.
+    * @param c the connection
+    * @param line line without terminator
+    */
+   private void send(Connection c, String line)
+   {
+      if (!c.channel.isOpen() || c.overflow)
+         return;
+      byte[] bytes = (line + "\n").getBytes(StandardCharsets.US_ASCII);
+      if (c.out.remaining() < bytes.length)
+      {
+         int needed = c.out.position() + bytes.length;
+         if (needed > MAX_OUTPUT)
+            c.overflow = true;
+         else
+         {
+            ByteBuffer bigger = ByteBuffer.allocate(
+               Math.min(Math.max(c.out.capacity() * 2, needed), MAX_OUTPUT));
+            c.out.flip();
+            bigger.put(c.out);
+            c.out = bigger;
+         }
+      }
+      if (!c.overflow)
+         c.out.put(bytes);
+      if (!c.dirty)
+      {
+         c.dirty = true;
+         dirty.add(c);
+      }
+   }
+
+   /**
+    * Helper method to write queued output, waiting for the socket to accept
+    * more if it is full.
+    * @param c the connection
+    * @throws IOException if writing fails
+    */
+   private void flush(Connection c) throws IOException
+   {
+      c.dirty = false;
+      if (!c.channel.isOpen())
+         return;
+      if (c.overflow)
+         throw new IOException("client does not read its replies");
+      c.out.flip();
+      c.channel.write(c.out);
+      c.out.compact();
+      int ops = c.out.position() > 0
+         ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+      if (c.key.interestOps() != ops)
+         c.key.interestOps(ops);
+   }
+
+   /**
+    * Helper method to close a connection and abandon its games.
+    * @param c the connection
+    */
+   private void close(Connection c)
+   {
+      if (c == null || !c.channel.isOpen())
+         return;
+      try
+      {
+         c.channel.close();
+      }
+      catch (IOException e)
+      {
+         // already closing
+      }
+      connections.decrementAndGet();
+      while (!c.games.isEmpty())
+      {
+         Game g = c.games.get(c.games.size() - 1);
+         end(g, "END " + g.id + " abandoned");
+         c.games.remove(g);
+      }
+   }
+
+   /**
+    * A client connection with its buffers and games.
+    */
+   private static class Connection
+   {
+      final SocketChannel channel;
+      final ByteBuffer in = ByteBuffer.allocate(MAX_LINE);
+      final ArrayList<Game> games = new ArrayList<Game>();
+      ByteBuffer out = ByteBuffer.allocate(512);
+      SelectionKey key;
+      boolean dirty;
+      boolean overflow;
+
+      /**
+       * Constructor.
+       * @param channel the socket
+       */
+      Connection(SocketChannel channel)
+      {
+         this.channel = channel;
+      }
+   }
+
+   /**
+    * A game in progress and the connections holding its seats.
+    */
+   private static class Game
+   {
+      final long id;
+      final MancalaEngine engine;
+      final Connection[] seats = new Connection[2];
+      int ply;
+
+      /**
+       * Constructor.
+       * @param id game id
+       * @param engine the starting position
+       */
+      Game(long id, MancalaEngine engine)
+      {
+         this.id = id;
+         this.engine = engine;
+      }
+   }
+
+   /**
+    * Run a server from the command line, printing its counters.
+    * @param args command line arguments
+    * @throws IOException if the port cannot be bound
+    * @throws InterruptedException if interrupted while waiting
+    */
+   public static void main(String[] args)
+      throws IOException, InterruptedException
+   {
+      int port = DEFAULT_PORT;
+      long reportMillis = 5000;
+      int maxGames = DEFAULT_MAX_GAMES;
+      int maxGamesPerConnection = DEFAULT_MAX_GAMES_PER_CONNECTION;
+      for (int i = 0; i + 1 < args.length; i += 2)
+      {
+         String value = args[i + 1];
+         switch (args[i])
+         {
+         case "--port":
+            port = Integer.parseInt(value);
+            break;
+         case "--report-ms":
+            reportMillis = Long.parseLong(value);
+            break;
+         case "--max-games":
+            maxGames = Integer.parseInt(value);
+            break;
+         case "--max-games-per-connection":
+            maxGamesPerConnection = Integer.parseInt(value);
+            break;
+         default:
+            throw new IllegalArgumentException("Unknown option: " + args[i]);
+         }
+      }
+
+      MancalaServer server = new MancalaServer(port, maxGames,
+         maxGamesPerConnection);
+      Thread loop = new Thread(server, "mancala-server");
+      loop.start();
+      System.out.println("listening on port " + server.getPort());
+      while (loop.isAlive())
+      {
+         loop.join(reportMillis);
+         System.out.printf("connections %d  games %d (max %d)  finished %d"
+            + "  moves %d%n", server.getConnections(),
+            server.getActiveGames(), server.getMaxActiveGames(),
+            server.getFinishedGames(), server.getMoves());
+      }
+   }
+}
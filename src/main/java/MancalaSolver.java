@@ -0,0 +1,445 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Solves the starting position of a game: proves the stone difference the
+ * side to move ends with under best play from both sides, and finds a line
+ * of best play to the end of the game.
+ *
+ * The position is searched by a ParallelSearch on all threads, deepening
+ * until no line is cut off, with an endgame database for standard Kalah.
+ * Results whose every line reached the end of the game hold at any depth,
+ * so the solved entries of the transposition table are what a long solve
+ * has proved so far. They are written to a checkpoint file now and then;
+ * a solve started again with the same file loads them and quickly gets
+ * back to where it stopped.
+ */
+public class MancalaSolver
+{
+   private static final int MAGIC = 0x4D534F4C; // "MSOL"
+   private static final int VERSION = 1;
+
+   private final int stones;
+   private final MancalaRules rules;
+   private final TranspositionTable table;
+   private final ParallelSearch search;
+   private String checkpointFile;
+   private long checkpointMillis = 600000;
+   private volatile boolean stopped;
+
+   private long earlierNodes;
+   private long earlierNanos;
+   private volatile long started;
+   private long nodes;
+   private long elapsedNanos;
+   private int value;
+   private int[] principalVariation;
+
+   /**
+    * Constructor.
+    * @param stones stones initially in each pit
+    * @param rules board geometry and rule variant
+    * @param threads number of search threads
+    * @param tableMegabytes size of the transposition table
+    */
+   public MancalaSolver(int stones, MancalaRules rules, int threads,
+         long tableMegabytes)
+   {
+      this.stones = stones;
+      this.rules = rules;
+      table = new TranspositionTable(tableMegabytes);
+      search = new ParallelSearch(threads, table);
+   }
+
+   /**
+    * Set the endgame database probed by all threads.
+    * @param endgame the database, or null for none
+    */
+   public void setEndgameDatabase(EndgameDatabase endgame)
+   {
+      search.setEndgameDatabase(endgame);
+   }
+
+   /**
+    * Set the checkpoint file. If it exists, solve() starts from the
+    * results stored in it.
+    * @param fileName checkpoint file, or null for none
+    * @param intervalMillis time between two checkpoints
+    */
+   public void setCheckpoint(String fileName, long intervalMillis)
+   {
+      checkpointFile = fileName;
+      checkpointMillis = Math.max(1, intervalMillis);
+   }
+
+   /**
+    * Solve the starting position, printing progress at every checkpoint.
+    * @return stone difference of the final position for the side to move
+    *    at the start
+    * @throws IOException if the checkpoint file cannot be read
+    * @throws IllegalStateException if the solve was stopped, or a line is
+    *    longer than the search can follow
+    */
+   public int solve() throws IOException
+   {
+      MancalaEngine start = new MancalaEngine(stones, rules);
+      table.newSearch();
+      if (checkpointFile != null && new File(checkpointFile).exists())
+         load();
+      started = System.nanoTime();
+
+      Thread checkpoints = new Thread(new Runnable()
+      {
+         public void run()
+         {
+            try
+            {
+               while (!stopped)
+               {
+                  Thread.sleep(checkpointMillis);
+                  checkpoint();
+                  printProgress();
+               }
+            }
+            catch (InterruptedException e)
+            {
+               // the search has finished
+            }
+         }
+      }, "mancala-checkpoint");
+      checkpoints.setDaemon(true);
+      checkpoints.start();
+
+      search.run(start, MancalaSearch.deadlineAfter(Long.MAX_VALUE),
+         MancalaSearch.MAX_PLY - 1);
+      checkpoints.interrupt();
+      MancalaSearch main = search.getMainSearch();
+      if (stopped || main.wasStopped())
+         throw new IllegalStateException("Solve stopped");
+      synchronized (this)
+      {
+         nodes = earlierNodes + search.getNodes();
+         elapsedNanos = earlierNanos + System.nanoTime() - started;
+      }
+      checkpoint();
+      if (main.reachedDepthLimit())
+         throw new IllegalStateException("A line is longer than "
+            + MancalaSearch.MAX_PLY + " plies");
+
+      value = main.getBestScore();
+      principalVariation = findPrincipalVariation(start, main);
+      return value;
+   }
+
+   /**
+    * Stop a running solve and write a last checkpoint. May be called from
+    * any thread.
+    */
+   public void stop()
+   {
+      stopped = true;
+      search.abort();
+      checkpoint();
+   }
+
+   /**
+    * Stop the helper threads. The solver cannot be used afterwards.
+    */
+   public void shutdown()
+   {
+      search.shutdown();
+   }
+
+   /**
+    * Get the value found by solve().
+    * @return stone difference for the side to move at the start
+    */
+   public int getValue()
+   {
+      return value;
+   }
+
+   /**
+    * Get the line of best play found by solve().
+    * @return pits played in order, starting at 0
+    */
+   public int[] getPrincipalVariation()
+   {
+      return principalVariation.clone();
+   }
+
+   /**
+    * Get the nodes the solve visited on all threads, including the runs
+    * before the checkpoint it started from and the principal variation.
+    * @return node count
+    */
+   public synchronized long getNodes()
+   {
+      return nodes;
+   }
+
+   /**
+    * Get the time the solve took, including the runs before the checkpoint
+    * it started from.
+    * @return elapsed nanoseconds
+    */
+   public synchronized long getElapsedNanos()
+   {
+      return elapsedNanos;
+   }
+
+   /**
+    * Helper method to follow best moves to the end of the game. The moves
+    * of each position are tested with a window around the position's value
+    * until one has it; the table holds the solve's results, so this takes
+    * few nodes.
+    * @param start starting position
+    * @param main search to score the moves with
+    * @return pits played in order
+    */
+   private int[] findPrincipalVariation(MancalaEngine start,
+      MancalaSearch main)
+   {
+      List<Integer> line = new ArrayList<Integer>();
+      MancalaEngine position = start.copy();
+      int target = value; // for the side to move in position
+      long deadline = MancalaSearch.deadlineAfter(Long.MAX_VALUE);
+      while (!position.isTerminal())
+      {
+         int moves = position.getLegalMoves();
+         int pit = Integer.numberOfTrailingZeros(moves);
+         if (Integer.bitCount(moves) > 1)
+         {
+            // The table's best move is tried first and nearly always fits
+            int first = TranspositionTable.move(table.probe(
+               position.getHash()));
+            if (first < 0 || (moves & 1 << first) == 0)
+               first = pit;
+            pit = -1;
+            for (int next = first; next >= 0; )
+            {
+               int score = main.scoreMove(position, next,
+                  MancalaSearch.MAX_PLY - 1, deadline, target - 1,
+                  target + 1);
+               synchronized (this)
+               {
+                  nodes += main.getNodes();
+               }
+               if (score == target && !main.reachedDepthLimit())
+               {
+                  pit = next;
+                  break;
+               }
+               moves &= ~(1 << next);
+               next = moves != 0 ? Integer.numberOfTrailingZeros(moves) : -1;
+            }
+            if (pit < 0)
+               throw new IllegalStateException("No move has the solved value");
+         }
+         int side = position.getSide();
+         position.applyMove(pit);
+         line.add(pit);
+         if (position.getSide() != side)
+            target = -target;
+      }
+
+      position.checkWinner();
+      int side = start.getSide();
+      if (position.getSlot(rules.mancalaSlot(side))
+         - position.getSlot(rules.mancalaSlot(side ^ 1)) != value)
+         throw new IllegalStateException("The line does not end at the value");
+
+      int[] pits = new int[line.size()];
+      for (int i = 0; i < pits.length; i++)
+         pits[i] = line.get(i);
+      return pits;
+   }
+
+   /**
+    * Helper method to write the solved table entries to the checkpoint
+    * file while the search goes on. The file is written under another name
+    * and renamed, so a crash never leaves a partial checkpoint.
+    */
+   private synchronized void checkpoint()
+   {
+      // Until the search starts the file still holds the earlier results
+      if (checkpointFile == null || started == 0)
+         return;
+      File file = new File(checkpointFile);
+      File temp = new File(checkpointFile + ".tmp");
+      try
+      {
+         try (DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(temp))))
+         {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(rules.getName());
+            out.writeInt(stones);
+            out.writeLong(elapsedNanos > 0 ? elapsedNanos
+               : earlierNanos + System.nanoTime() - started);
+            out.writeLong(nodes > 0 ? nodes
+               : earlierNodes + search.getRunningNodes());
+            table.writeSolved(out);
+         }
+         Files.move(temp.toPath(), file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (IOException e)
+      {
+         System.err.println("Checkpoint failed: " + e.getMessage());
+      }
+   }
+
+   /**
+    * Helper method to load the checkpoint file into the table.
+    * @throws IOException if the file cannot be read or belongs to another
+    *    game
+    */
+   private void load() throws IOException
+   {
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+         new FileInputStream(checkpointFile))))
+      {
+         if (in.readInt() != MAGIC || in.readInt() != VERSION)
+            throw new IOException(checkpointFile + " is not a checkpoint");
+         String variant = in.readUTF();
+         int count = in.readInt();
+         if (!variant.equals(rules.getName()) || count != stones)
+            throw new IOException(checkpointFile + " is the checkpoint of "
+               + variant + " with " + count + " stones");
+         earlierNanos = in.readLong();
+         earlierNodes = in.readLong();
+         long entries = table.readSolved(in);
+         System.out.printf("Loaded %,d solved positions from %s%n", entries,
+            checkpointFile);
+      }
+   }
+
+   /**
+    * Helper method to print the depth, nodes and time so far. The running
+    * counters are approximate.
+    */
+   private void printProgress()
+   {
+      long nanos = System.nanoTime() - started;
+      long running = search.getRunningNodes();
+      System.out.printf("depth %3d  %,18d nodes  %,12d nodes/s  %10.1f s%n",
+         search.getMainSearch().getCompletedDepth(), earlierNodes + running,
+         (long) (running * 1e9 / Math.max(1, nanos)),
+         (earlierNanos + nanos) / 1e9);
+   }
+
+   /**
+    * Solve a starting position from the command line.
+    * Usage: java MancalaSolver [--stones N] [--rules R] [--threads N]
+    * [--table MB] [--endgame FILE] [--checkpoint FILE] [--interval SECONDS]
+    * @param args command line arguments
+    * @throws IOException if a file cannot be read
+    */
+   public static void main(String[] args) throws IOException
+   {
+      int stones = 3;
+      MancalaRules rules = MancalaRules.KALAH;
+      int threads = Runtime.getRuntime().availableProcessors();
+      long tableMegabytes = 1024;
+      String endgameFile = null;
+      String checkpointFile = null;
+      long intervalSeconds = 600;
+      for (int i = 0; i + 1 < args.length; i += 2)
+      {
+         String value = args[i + 1];
+         switch (args[i])
+         {
+         case "--stones":
+            stones = Integer.parseInt(value);
+            break;
+         case "--rules":
+            rules = MancalaRules.parse(value);
+            break;
+         case "--threads":
+            threads = Integer.parseInt(value);
+            break;
+         case "--table":
+            tableMegabytes = Long.parseLong(value);
+            break;
+         case "--endgame":
+            endgameFile = value;
+            break;
+         case "--checkpoint":
+            checkpointFile = value;
+            break;
+         case "--interval":
+            intervalSeconds = Long.parseLong(value);
+            break;
+         default:
+            throw new IllegalArgumentException("Unknown option: " + args[i]);
+         }
+      }
+
+      System.out.println("Solving " + rules.getName() + " with " + stones
+         + " stones per pit on " + threads + " threads");
+      final MancalaSolver solver = new MancalaSolver(stones, rules, threads,
+         tableMegabytes);
+      if (endgameFile != null)
+      {
+         EndgameDatabase endgame = new EndgameDatabase(endgameFile);
+         solver.setEndgameDatabase(endgame);
+         System.out.println("Endgame database up to "
+            + endgame.getMaxStones() + " stones");
+      }
+      solver.setCheckpoint(checkpointFile, intervalSeconds * 1000);
+
+      // Save the progress when the solve is interrupted
+      Thread hook = new Thread(new Runnable()
+      {
+         public void run()
+         {
+            solver.stop();
+         }
+      });
+      Runtime.getRuntime().addShutdownHook(hook);
+      int value;
+      try
+      {
+         value = solver.solve();
+      }
+      catch (IllegalStateException e)
+      {
+         System.out.println(e.getMessage());
+         return;
+      }
+      Runtime.getRuntime().removeShutdownHook(hook);
+      solver.shutdown();
+
+      MancalaEngine game = new MancalaEngine(stones, rules);
+      StringBuilder line = new StringBuilder();
+      for (int pit : solver.getPrincipalVariation())
+      {
+         line.append(' ').append(Character.toUpperCase(game.getCurrPlayer()))
+            .append(pit + 1);
+         game.applyMove(pit);
+      }
+      game.checkWinner();
+
+      System.out.println(value > 0 ? "A wins by " + value
+         : value < 0 ? "B wins by " + -value : "Draw");
+      System.out.println("final mancalas "
+         + game.getSlot(rules.mancalaSlot(MancalaEngine.SIDE_A)) + "-"
+         + game.getSlot(rules.mancalaSlot(MancalaEngine.SIDE_B)));
+      System.out.println("pv" + line);
+      System.out.printf("%,d nodes in %.1f s%n", solver.getNodes(),
+         solver.getElapsedNanos() / 1e9);
+   }
+}
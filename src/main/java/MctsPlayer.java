@@ -0,0 +1,339 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Computer player that picks moves by Monte Carlo tree search, limited by
+ * a time budget per move. With several threads the search is root
+ * parallel: every thread grows its own MctsTree of the position with its
+ * own random playouts, and the visits of the root moves are added up
+ * over all trees to choose the move. Each tree is kept between moves, so
+ * the part searched for the position reached is reused.
+ *
+ * Playouts run on a PackedBoard. Positions holding more stones than it
+ * allows are answered by a GreedyPlayer.
+ */
+public class MctsPlayer implements MancalaPlayer
+{
+   /** Exploration constant of UCT for results between 0 and 1. */
+   public static final double DEFAULT_EXPLORATION = Math.sqrt(2);
+
+   /** Default node cap of each tree. */
+   public static final int DEFAULT_NODES = 1 << 20;
+
+   private final MctsTree[] trees;
+   private final ExecutorService pool;
+   private final GreedyPlayer fallback = new GreedyPlayer();
+   private long timeBudgetMillis;
+   private long playoutLimit;
+   private long playouts;
+   private long elapsedNanos;
+
+   /**
+    * Constructor for a single threaded player.
+    * @param timeBudgetMillis time limit per move in milliseconds
+    */
+   public MctsPlayer(long timeBudgetMillis)
+   {
+      this(timeBudgetMillis, 1, DEFAULT_EXPLORATION, DEFAULT_NODES, 1);
+   }
+
+   /**
+    * Constructor.
+    * @param timeBudgetMillis time limit per move in milliseconds
+    * @param threads number of search threads, each with its own tree
+    * @param exploration UCT exploration constant
+    * @param nodes node cap of each tree
+    * @param seed seed of the random playouts
+    */
+   public MctsPlayer(long timeBudgetMillis, int threads, double exploration,
+         int nodes, long seed)
+   {
+      this.timeBudgetMillis = timeBudgetMillis;
+      trees = new MctsTree[Math.max(1, threads)];
+      for (int i = 0; i < trees.length; i++)
+         trees[i] = new MctsTree(nodes, exploration, seed + i);
+
+      if (trees.length > 1)
+      {
+         pool = Executors.newFixedThreadPool(trees.length - 1,
+            new ThreadFactory()
+            {
+               public Thread newThread(Runnable r)
+               {
+                  Thread t = new Thread(r, "mancala-mcts");
+                  t.setDaemon(true);
+                  return t;
+               }
+            });
+      }
+      else
+         pool = null;
+   }
+
+   /**
+    * Limit the playouts per move of each thread, for repeatable results.
+    * @param limit most playouts per thread and move, 0 for no limit
+    */
+   public void setPlayoutLimit(long limit)
+   {
+      playoutLimit = limit;
+   }
+
+   /**
+    * Choose the move whose root node was visited most.
+    * @param position current position, not modified by the player
+    * @return pit number to play, or -1 if there is no legal move
+    */
+   public int chooseMove(MancalaEngine position)
+   {
+      playouts = 0;
+      int moves = position.getLegalMoves();
+      if (moves == 0)
+         return -1;
+      if (Integer.bitCount(moves) == 1)
+         return Integer.numberOfTrailingZeros(moves);
+      int stones = 0;
+      for (int i = 0; i < position.getRules().getSlots(); i++)
+         stones += position.getSlot(i);
+      if (stones > PackedBoard.MAX_STONES)
+         return fallback.chooseMove(position);
+
+      long start = System.nanoTime();
+      final long deadline = MancalaSearch.deadlineAfter(timeBudgetMillis);
+      long before = 0;
+      for (MctsTree tree : trees)
+      {
+         before += tree.getPlayouts();
+         tree.setRoot(position);
+      }
+
+      Future<?>[] helpers = new Future<?>[trees.length - 1];
+      for (int i = 1; i < trees.length; i++)
+      {
+         final MctsTree helper = trees[i];
+         helpers[i - 1] = pool.submit(new Runnable()
+         {
+            public void run()
+            {
+               helper.run(deadline, playoutLimit);
+            }
+         });
+      }
+      trees[0].run(deadline, playoutLimit);
+      for (int i = 0; i < helpers.length; i++)
+      {
+         try
+         {
+            helpers[i].get();
+         }
+         catch (Exception e)
+         {
+            throw new IllegalStateException("Search thread failed", e);
+         }
+      }
+
+      int pits = position.getRules().getPits();
+      long[] visits = new long[pits];
+      long[] halfWins = new long[pits];
+      playouts = -before;
+      for (MctsTree tree : trees)
+      {
+         tree.addRootStatistics(visits, halfWins);
+         playouts += tree.getPlayouts();
+      }
+      elapsedNanos = System.nanoTime() - start;
+
+      // Most visits, ties broken by the win rate
+      int best = Integer.numberOfTrailingZeros(moves);
+      for (int pit = 0; pit < pits; pit++)
+      {
+         if ((moves & 1 << pit) != 0 && (visits[pit] > visits[best]
+            || visits[pit] == visits[best]
+            && halfWins[pit] > halfWins[best]))
+            best = pit;
+      }
+      return best;
+   }
+
+   /**
+    * Stop a running search on all threads; chooseMove() returns the best
+    * move found so far. Later searches stop at once until clearAbort().
+    */
+   public void abort()
+   {
+      for (MctsTree tree : trees)
+         tree.abort();
+   }
+
+   /**
+    * Allow searching again after abort().
+    */
+   public void clearAbort()
+   {
+      for (MctsTree tree : trees)
+         tree.clearAbort();
+   }
+
+   /**
+    * Get the number of search threads.
+    * @return thread count
+    */
+   public int getThreads()
+   {
+      return trees.length;
+   }
+
+   /**
+    * Get the number of playouts of the last search over all threads.
+    * @return playout count
+    */
+   public long getPlayouts()
+   {
+      return playouts;
+   }
+
+   /**
+    * Get the wall-clock time of the last search.
+    * @return elapsed nanoseconds
+    */
+   public long getElapsedNanos()
+   {
+      return elapsedNanos;
+   }
+
+   /**
+    * Get the playouts of all threads and searches so far.
+    * @return playout count
+    */
+   public long getTotalPlayouts()
+   {
+      long total = 0;
+      for (MctsTree tree : trees)
+         total += tree.getPlayouts();
+      return total;
+   }
+
+   /**
+    * Get the time all threads spent searching so far.
+    * @return time in nanoseconds, summed over the threads
+    */
+   public long getTotalThreadNanos()
+   {
+      long total = 0;
+      for (MctsTree tree : trees)
+         total += tree.getNanos();
+      return total;
+   }
+
+   /**
+    * Get the speed of one thread, over all searches so far.
+    * @return playouts per second and thread
+    */
+   public long getPlayoutsPerSecondPerThread()
+   {
+      long nanos = getTotalThreadNanos();
+      return nanos > 0 ? (long) (getTotalPlayouts() * 1e9 / nanos) : 0;
+   }
+
+   /**
+    * Get the number of nodes in all trees.
+    * @return node count
+    */
+   public long getNodes()
+   {
+      long total = 0;
+      for (MctsTree tree : trees)
+         total += tree.getNodes();
+      return total;
+   }
+
+   /**
+    * Get the number of nodes the last search kept from earlier searches.
+    * @return node count over all trees
+    */
+   public long getReusedNodes()
+   {
+      long total = 0;
+      for (MctsTree tree : trees)
+         total += tree.getReusedNodes();
+      return total;
+   }
+
+   /**
+    * Get the memory allocated for the trees.
+    * @return size in bytes
+    */
+   public long getTreeBytes()
+   {
+      long total = 0;
+      for (MctsTree tree : trees)
+         total += tree.getBytes();
+      return total;
+   }
+
+   /**
+    * Stop the helper threads, so that the threads and trees of a replaced
+    * game are freed. The player cannot be used afterwards.
+    */
+   public void shutdown()
+   {
+      if (pool != null)
+         pool.shutdownNow();
+   }
+
+   /**
+    * Measure search speed and scaling. Searches the starting position for
+    * a fixed time with 1, 2, 4, ... threads, then plays a few moves against
+    * itself to show tree reuse, and prints playouts per second per thread
+    * and the memory of the trees.
+    * Arguments: [stones per pit] [milliseconds] [max threads] [node cap]
+    * [rules]
+    * @param args command line arguments
+    */
+   public static void main(String[] args)
+   {
+      int stones = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+      long millis = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+      int maxThreads = args.length > 2 ? Integer.parseInt(args[2])
+         : Runtime.getRuntime().availableProcessors();
+      int nodes = args.length > 3 ? Integer.parseInt(args[3])
+         : DEFAULT_NODES;
+      MancalaRules rules = args.length > 4 ? MancalaRules.parse(args[4])
+         : MancalaRules.KALAH;
+
+      MancalaEngine start = new MancalaEngine(stones, rules);
+      new MctsPlayer(millis / 2).chooseMove(start); // warm up
+
+      System.out.println("threads  move     playouts  playouts/s/thread"
+         + "       nodes  tree MB");
+      for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads))
+      {
+         MctsPlayer player = new MctsPlayer(millis, threads,
+            DEFAULT_EXPLORATION, nodes, 1);
+         int move = player.chooseMove(start);
+         System.out.printf("%7d  %4d  %11d  %17d  %10d  %7.1f%n", threads,
+            move, player.getPlayouts(),
+            player.getPlayoutsPerSecondPerThread(), player.getNodes(),
+            player.getTreeBytes() / 1048576.0);
+         player.shutdown();
+         if (threads >= maxThreads)
+            break;
+      }
+
+      System.out.println("ply  move     playouts  reused nodes       nodes");
+      MctsPlayer player = new MctsPlayer(millis, maxThreads,
+         DEFAULT_EXPLORATION, nodes, 1);
+      MancalaEngine game = start.copy();
+      for (int ply = 0; ply < 8 && !game.isTerminal(); ply++)
+      {
+         int move = player.chooseMove(game);
+         System.out.printf("%3d  %4d  %11d  %12d  %10d%n", ply, move,
+            player.getPlayouts(), player.getReusedNodes(),
+            player.getNodes());
+         game.applyMove(move);
+      }
+      player.shutdown();
+   }
+}
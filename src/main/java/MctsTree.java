@@ -0,0 +1,409 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Monte Carlo search tree for one thread, searched with UCT: moves are
+ * selected by their win rate plus an exploration bonus, a leaf visited
+ * before is expanded, and a random playout on a PackedBoard decides the
+ * result that is backed up along the path.
+ *
+ * Nodes live in parallel arrays allocated once for the node cap, so a
+ * search creates no garbage. The children of a node are stored next to
+ * each other, after their parent. When the tree is full, leaves are no
+ * longer expanded but playouts go on. Between moves the subtree of the new
+ * position, if it is in the tree, is moved to the front of the arrays and
+ * searched further; the rest of the nodes are reused.
+ */
+public final class MctsTree
+{
+   /** Memory used per node of the cap, in bytes. */
+   public static final int BYTES_PER_NODE = 19;
+
+   // Moves between two searched positions that tree reuse looks through,
+   // enough for a reply and a few free turns
+   private static final int MAX_REUSE_PLIES = 8;
+
+   private final int capacity;
+   private final int[] firstChild;
+   private final int[] visits;
+   private final int[] halfWins;
+   private final byte[] move;
+   private final byte[] childCount;
+   private final byte[] mover;
+   private final int[] map;
+   private int used;
+
+   private final SplittableRandom random;
+   private double exploration;
+   private MancalaRules rules;
+   private PackedBoard root;
+   private PackedBoard board;
+   private MancalaEngine[] replay;
+   private int[] path = new int[64];
+   private volatile boolean aborted;
+
+   private long playouts;
+   private long nanos;
+   private int reusedNodes;
+
+   /**
+    * Constructor.
+    * @param capacity most nodes in the tree, at least one
+    * @param exploration UCT exploration constant
+    * @param seed seed of the random playouts
+    */
+   public MctsTree(int capacity, double exploration, long seed)
+   {
+      this.capacity = Math.max(1, capacity);
+      this.exploration = exploration;
+      random = new SplittableRandom(seed);
+      firstChild = new int[this.capacity];
+      visits = new int[this.capacity];
+      halfWins = new int[this.capacity];
+      move = new byte[this.capacity];
+      childCount = new byte[this.capacity];
+      mover = new byte[this.capacity];
+      map = new int[this.capacity];
+   }
+
+   /**
+    * Set the position to search. If the position follows the last one
+    * within a few moves and its node is in the tree, the node's subtree is
+    * kept and the other nodes are freed.
+    * @param position position to search, not modified
+    */
+   public void setRoot(MancalaEngine position)
+   {
+      reusedNodes = 0;
+      int node = -1;
+      if (used > 0 && position.getRules().equals(rules))
+         node = find(position.getHash());
+
+      if (node >= 0)
+      {
+         compact(node);
+         reusedNodes = used;
+      }
+      else
+      {
+         if (!position.getRules().equals(rules))
+         {
+            rules = position.getRules();
+            root = new PackedBoard(position);
+            board = root.copy();
+            replay = new MancalaEngine[MAX_REUSE_PLIES + 1];
+            for (int i = 0; i < replay.length; i++)
+               replay[i] = position.copy();
+         }
+         used = 1;
+         clear(0, 0, position.getSide() ^ 1);
+      }
+      root.setPosition(position);
+      replay[0].copyFrom(position);
+   }
+
+   /**
+    * Search the root until the deadline, the playout limit or abort().
+    * @param deadlineNanos System.nanoTime() value to stop at
+    * @param maxPlayouts most playouts, 0 for no limit
+    */
+   public void run(long deadlineNanos, long maxPlayouts)
+   {
+      long start = System.nanoTime();
+      long count = 0;
+      while (!aborted && (maxPlayouts == 0 || count < maxPlayouts))
+      {
+         // Read the clock only now and then
+         if ((count & 63) == 0 && System.nanoTime() - deadlineNanos >= 0
+            && count > 0)
+            break;
+         iterate();
+         count++;
+      }
+      playouts += count;
+      nanos += System.nanoTime() - start;
+   }
+
+   /**
+    * Ask a running search to stop. May be called from any thread.
+    */
+   public void abort()
+   {
+      aborted = true;
+   }
+
+   /**
+    * Allow searching again after abort().
+    */
+   public void clearAbort()
+   {
+      aborted = false;
+   }
+
+   /**
+    * Add the visits of the root's moves to a count per pit.
+    * @param pitVisits visits per pit number, added to
+    * @param pitHalfWins wins per pit number counting draws as half, times
+    *    two, added to
+    */
+   public void addRootStatistics(long[] pitVisits, long[] pitHalfWins)
+   {
+      int first = firstChild[0];
+      if (first < 0)
+         return;
+      for (int c = first; c < first + childCount[0]; c++)
+      {
+         pitVisits[move[c]] += visits[c];
+         pitHalfWins[move[c]] += halfWins[c];
+      }
+   }
+
+   /**
+    * Get the number of nodes in the tree.
+    * @return node count
+    */
+   public int getNodes()
+   {
+      return used;
+   }
+
+   /**
+    * Get the node cap.
+    * @return most nodes
+    */
+   public int getCapacity()
+   {
+      return capacity;
+   }
+
+   /**
+    * Get the memory used by the node arrays.
+    * @return size in bytes
+    */
+   public long getBytes()
+   {
+      return (long) capacity * BYTES_PER_NODE;
+   }
+
+   /**
+    * Get the number of nodes kept by the last setRoot().
+    * @return node count, 0 if the tree was cleared
+    */
+   public int getReusedNodes()
+   {
+      return reusedNodes;
+   }
+
+   /**
+    * Get the number of playouts of all searches.
+    * @return playout count
+    */
+   public long getPlayouts()
+   {
+      return playouts;
+   }
+
+   /**
+    * Get the time spent in all searches.
+    * @return time in nanoseconds
+    */
+   public long getNanos()
+   {
+      return nanos;
+   }
+
+   /**
+    * Helper method for one selection, expansion, playout and backup.
+    */
+   private void iterate()
+   {
+      PackedBoard b = board;
+      b.copyFrom(root);
+      int node = 0;
+      int depth = 0;
+      path[depth++] = 0;
+      while (firstChild[node] >= 0)
+      {
+         node = select(node);
+         b.applyMove(move[node]);
+         if (depth == path.length)
+            path = Arrays.copyOf(path, depth * 2);
+         path[depth++] = node;
+      }
+
+      if ((visits[node] > 0 || node == 0) && !b.isTerminal()
+         && expand(node, b))
+      {
+         node = firstChild[node] + random.nextInt(childCount[node]);
+         b.applyMove(move[node]);
+         if (depth == path.length)
+            path = Arrays.copyOf(path, depth * 2);
+         path[depth++] = node;
+      }
+
+      while (!b.isTerminal())
+      {
+         int moves = b.getLegalMoves();
+         int pick = random.nextInt(Integer.bitCount(moves));
+         while (pick-- > 0)
+            moves &= moves - 1;
+         b.applyMove(Integer.numberOfTrailingZeros(moves));
+      }
+      b.checkWinner();
+      int a = b.getSlot(rules.mancalaSlot(MancalaEngine.SIDE_A));
+      int bb = b.getSlot(rules.mancalaSlot(MancalaEngine.SIDE_B));
+      int resultA = a > bb ? 2 : a == bb ? 1 : 0;
+
+      for (int i = 0; i < depth; i++)
+      {
+         int n = path[i];
+         visits[n]++;
+         halfWins[n] += mover[n] == MancalaEngine.SIDE_A ? resultA
+            : 2 - resultA;
+      }
+   }
+
+   /**
+    * Helper method to choose the child of a node to descend to.
+    * @param node an expanded node
+    * @return the unvisited or highest UCT child
+    */
+   private int select(int node)
+   {
+      int first = firstChild[node];
+      int end = first + childCount[node];
+      double logVisits = Math.log(visits[node]);
+      int best = first;
+      double bestValue = Double.NEGATIVE_INFINITY;
+      for (int c = first; c < end; c++)
+      {
+         int v = visits[c];
+         if (v == 0)
+            return c;
+         double value = halfWins[c] / (2.0 * v)
+            + exploration * Math.sqrt(logVisits / v);
+         if (value > bestValue)
+         {
+            bestValue = value;
+            best = c;
+         }
+      }
+      return best;
+   }
+
+   /**
+    * Helper method to add the children of a leaf, if they fit.
+    * @param node the leaf
+    * @param position the leaf's position
+    * @return true if the children were added
+    */
+   private boolean expand(int node, PackedBoard position)
+   {
+      int moves = position.getLegalMoves();
+      int count = Integer.bitCount(moves);
+      if (used + count > capacity)
+         return false;
+
+      firstChild[node] = used;
+      childCount[node] = (byte) count;
+      for (; moves != 0; moves &= moves - 1)
+      {
+         clear(used, Integer.numberOfTrailingZeros(moves),
+            position.getSide());
+         used++;
+      }
+      return true;
+   }
+
+   /**
+    * Helper method to set up a new node.
+    * @param node node index
+    * @param pit move leading to the node
+    * @param side side playing the move
+    */
+   private void clear(int node, int pit, int side)
+   {
+      firstChild[node] = -1;
+      childCount[node] = 0;
+      visits[node] = 0;
+      halfWins[node] = 0;
+      move[node] = (byte) pit;
+      mover[node] = (byte) side;
+   }
+
+   /**
+    * Helper method to find a position in the tree by replaying the moves
+    * below the root, depth first.
+    * @param hash hash of the position
+    * @return node of the position, or -1 if it is not in the tree
+    */
+   private int find(long hash)
+   {
+      if (replay[0].getHash() == hash)
+         return 0;
+      return find(0, 0, hash);
+   }
+
+   /**
+    * Helper method to search the children of a node for a position.
+    * @param node node whose position is replay[depth]
+    * @param depth plies below the root
+    * @param hash hash of the position
+    * @return node of the position, or -1 if it is not below the node
+    */
+   private int find(int node, int depth, long hash)
+   {
+      if (depth == MAX_REUSE_PLIES || firstChild[node] < 0)
+         return -1;
+      MancalaEngine child = replay[depth + 1];
+      int first = firstChild[node];
+      for (int c = first; c < first + childCount[node]; c++)
+      {
+         child.copyFrom(replay[depth]);
+         child.applyMove(move[c]);
+         if (child.getHash() == hash)
+            return c;
+         int found = find(c, depth + 1, hash);
+         if (found >= 0)
+            return found;
+      }
+      return -1;
+   }
+
+   /**
+    * Helper method to keep only the subtree of a node, moved to the front
+    * of the arrays. Children always come after their parent, so one pass
+    * in index order finds the subtree, and moving its nodes down in the
+    * same order never overwrites a node still to be moved.
+    * @param newRoot node to become the root
+    */
+   private void compact(int newRoot)
+   {
+      Arrays.fill(map, 0, used, -1);
+      map[newRoot] = 0;
+      int next = 0;
+      for (int i = newRoot; i < used; i++)
+      {
+         if (map[i] < 0)
+            continue;
+         map[i] = next++;
+         int first = firstChild[i];
+         for (int c = first; c >= 0 && c < first + childCount[i]; c++)
+            map[c] = 0;
+      }
+
+      for (int i = newRoot; i < used; i++)
+      {
+         int j = map[i];
+         if (j < 0)
+            continue;
+         firstChild[j] = firstChild[i] >= 0 ? map[firstChild[i]] : -1;
+         childCount[j] = childCount[i];
+         visits[j] = visits[i];
+         halfWins[j] = halfWins[i];
+         move[j] = move[i];
+         mover[j] = mover[i];
+      }
+      used = next;
+   }
+}
@@ -0,0 +1,220 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+/**
+ * Contention stress test for the MancalaModel snapshots. One writer plays
+ * random games with undos as fast as it can while many reader threads
+ * check every snapshot they take: the Zobrist hash the writer stored must
+ * match the board and side the reader sees, the game over flag must match
+ * the board, and versions must never go back. Listeners attached while
+ * the writer runs check the same for every event.
+ *
+ * For comparison the readers also build boards from separate getter calls
+ * and count those matching neither the snapshot before nor the one after
+ * the calls; such mixed boards are expected. The test fails if a single
+ * snapshot is ever inconsistent.
+ *
+ * Usage: java ModelStressTest [--readers N] [--seconds S] [--stones S]
+ *        [--rules VARIANT]
+ */
+public class ModelStressTest
+{
+   private final MancalaModel model;
+   private final AtomicLong snapshotReads = new AtomicLong();
+   private final AtomicLong tornSnapshots = new AtomicLong();
+   private final AtomicLong getterReads = new AtomicLong();
+   private final AtomicLong mixedGetterReads = new AtomicLong();
+   private final AtomicLong events = new AtomicLong();
+   private volatile boolean running = true;
+
+   /**
+    * Constructor.
+    * @param stones stones per pit
+    * @param rules rules of the games
+    */
+   public ModelStressTest(int stones, MancalaRules rules)
+   {
+      model = new MancalaModel(stones, rules, UndoPolicy.UNLIMITED);
+   }
+
+   /**
+    * Run the writer and readers.
+    * @param readers number of reader threads
+    * @param seconds run time
+    * @return number of changes the writer made
+    * @throws InterruptedException if interrupted while waiting
+    */
+   public long run(int readers, double seconds) throws InterruptedException
+   {
+      Thread[] threads = new Thread[readers];
+      for (int i = 0; i < readers; i++)
+      {
+         threads[i] = new Thread(this::read, "reader-" + i);
+         threads[i].start();
+      }
+
+      long end = System.nanoTime() + (long) (seconds * 1e9);
+      SplittableRandom random = new SplittableRandom(1);
+      MancalaRules rules = model.getRules();
+      while (System.nanoTime() - end < 0)
+      {
+         BoardSnapshot s = model.getSnapshot();
+         if (s.isGameOver())
+         {
+            model.checkWinner();
+            model.goToPly(0);
+         }
+         else if (s.canUndo() && random.nextInt(8) == 0)
+            model.undo();
+         else
+         {
+            int legal = 0;
+            int pick = -1;
+            for (int pit = 0; pit < rules.getPits(); pit++)
+            {
+               if (s.getPitValue(s.getSide(), pit) > 0
+                  && random.nextInt(++legal) == 0)
+                  pick = pit;
+            }
+            model.doTurn(s.getCurrPlayer(), pick);
+         }
+      }
+
+      running = false;
+      for (Thread t : threads)
+         t.join();
+      return model.getSnapshot().getVersion();
+   }
+
+   /**
+    * Helper method run by each reader thread.
+    */
+   private void read()
+   {
+      // Attaching while the writer notifies must be safe too
+      MancalaRules rules = model.getRules();
+      model.attach(new ChangeListener()
+      {
+         private final MancalaEngine scratch = new MancalaEngine(0, rules);
+         private long last = -1;
+
+         public void stateChanged(ChangeEvent e)
+         {
+            BoardSnapshot s = ((BoardChangeEvent) e).getSnapshot();
+            if (!consistent(s, scratch) || s.getVersion() <= last)
+               tornSnapshots.incrementAndGet();
+            last = s.getVersion();
+            events.incrementAndGet();
+         }
+      });
+
+      MancalaEngine scratch = new MancalaEngine(0, rules);
+      int[] counts = new int[rules.getSlots()];
+      long lastVersion = -1;
+      long reads = 0;
+      long torn = 0;
+      long getter = 0;
+      long mixed = 0;
+      while (running)
+      {
+         BoardSnapshot s = model.getSnapshot();
+         if (!consistent(s, scratch) || s.getVersion() < lastVersion)
+            torn++;
+         lastVersion = s.getVersion();
+         reads++;
+
+         if ((reads & 15) == 0)
+         {
+            for (int side = 0; side < 2; side++)
+            {
+               char player = MancalaEngine.toPlayer(side);
+               for (int pit = 0; pit < rules.getPits(); pit++)
+                  counts[rules.pitSlot(side, pit)] =
+                     model.getPitValue(player, pit);
+               counts[rules.mancalaSlot(side)] =
+                  model.getMancalaValue(player);
+            }
+            scratch.setPosition(counts,
+               MancalaEngine.toSide(model.getCurrPlayer()));
+            BoardSnapshot after = model.getSnapshot();
+            getter++;
+            if (scratch.getHash() != s.getHash()
+               && scratch.getHash() != after.getHash())
+               mixed++;
+         }
+      }
+      snapshotReads.addAndGet(reads);
+      tornSnapshots.addAndGet(torn);
+      getterReads.addAndGet(getter);
+      mixedGetterReads.addAndGet(mixed);
+   }
+
+   /**
+    * Helper method to check a snapshot against itself.
+    * @param s the snapshot
+    * @param scratch engine to rebuild the position in
+    * @return true if the hash and game over flag match the board
+    */
+   private static boolean consistent(BoardSnapshot s, MancalaEngine scratch)
+   {
+      int[] counts = new int[s.getRules().getSlots()];
+      for (int i = 0; i < counts.length; i++)
+         counts[i] = s.getSlot(i);
+      scratch.setPosition(counts, s.getSide());
+      return scratch.getHash() == s.getHash()
+         && scratch.isTerminal() == s.isGameOver();
+   }
+
+   /**
+    * Run the stress test from the command line.
+    * @param args command line arguments
+    * @throws InterruptedException if interrupted while waiting
+    */
+   public static void main(String[] args) throws InterruptedException
+   {
+      int readers = 4 * Runtime.getRuntime().availableProcessors();
+      double seconds = 5;
+      int stones = 4;
+      MancalaRules rules = MancalaRules.KALAH;
+      for (int i = 0; i + 1 < args.length; i += 2)
+      {
+         String value = args[i + 1];
+         switch (args[i])
+         {
+         case "--readers":
+            readers = Integer.parseInt(value);
+            break;
+         case "--seconds":
+            seconds = Double.parseDouble(value);
+            break;
+         case "--stones":
+            stones = Integer.parseInt(value);
+            break;
+         case "--rules":
+            rules = MancalaRules.parse(value);
+            break;
+         default:
+            throw new IllegalArgumentException("Unknown option: " + args[i]);
+         }
+      }
+
+      ModelStressTest test = new ModelStressTest(stones, rules);
+      long writes = test.run(readers, seconds);
+      System.out.printf("%d readers, %d changes (%.0f/s), %d events%n",
+         readers, writes, writes / seconds, test.events.get());
+      System.out.printf("snapshot reads %d (%.0f/s), torn %d%n",
+         test.snapshotReads.get(), test.snapshotReads.get() / seconds,
+         test.tornSnapshots.get());
+      System.out.printf("boards from separate getter calls %d,"
+         + " mixing states %d%n", test.getterReads.get(),
+         test.mixedGetterReads.get());
+      if (test.tornSnapshots.get() > 0)
+      {
+         System.out.println("FAILED");
+         System.exit(1);
+      }
+      System.out.println("ok");
+   }
+}
@@ -0,0 +1,277 @@
+import java.util.Arrays;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
+
+/**
+ * Live analysis of every legal move of a position, for the move hints of
+ * the GUI. The analysis runs on a WorkerPool thread by iterative
+ * deepening; after each completed depth the scores of all moves are handed
+ * to the EDT, so the hints improve while the player thinks.
+ *
+ * Results are reused across positions: the transposition table is kept
+ * between analyses, and when the new position is one move after the last
+ * one the deepening starts near the depth the last analysis reached, where
+ * most lines are already in the table.
+ */
+public class MoveAnalyzer
+{
+   /** Score of a move that is not legal. */
+   public static final int NO_SCORE = Integer.MIN_VALUE;
+
+   private final MancalaSearch search;
+   private final WorkerPool workers;
+   private final long timeLimitMillis;
+   private WorkerPool.Task task;
+   private volatile long generation;
+   private long lastHash;
+   private long[] lastChildren = new long[0];
+   private int lastDepth;
+
+   /**
+    * Constructor.
+    * @param table transposition table kept between analyses
+    * @param workers pool to analyze on
+    * @param timeLimitMillis time after which an analysis stops deepening
+    */
+   public MoveAnalyzer(TranspositionTable table, WorkerPool workers,
+         long timeLimitMillis)
+   {
+      search = new MancalaSearch(table);
+      this.workers = workers;
+      this.timeLimitMillis = timeLimitMillis;
+   }
+
+   /**
+    * Start analyzing a position, cancelling the previous analysis. Must be
+    * called on the EDT.
+    * @param position position to analyze
+    * @param onUpdate called on the EDT after every completed depth
+    */
+   public void analyze(MancalaEngine position, Consumer<Analysis> onUpdate)
+   {
+      cancel();
+      final long myGeneration = generation;
+      final MancalaEngine root = position.copy();
+      final int startDepth = startDepth(root);
+      task = workers.submit(() ->
+      {
+         // Wait for a cancelled analysis to leave the search
+         synchronized (search)
+         {
+            // Clear before checking: an abort() after the clear belongs to
+            // a newer generation, which the check then sees
+            search.clearAbort();
+            if (generation == myGeneration)
+               run(root, startDepth, myGeneration, onUpdate);
+            return null;
+         }
+      }, search::abort, done ->
+      {
+         task = null;
+      }, error ->
+      {
+         task = null;
+         System.out.println("Move analysis failed: " + error);
+      });
+   }
+
+   /**
+    * Stop the running analysis. No more updates of it are delivered. Must
+    * be called on the EDT.
+    */
+   public void cancel()
+   {
+      generation++;
+      if (task != null)
+      {
+         task.cancel();
+         task = null;
+      }
+   }
+
+   /**
+    * Check if an analysis is running.
+    * @return true while analyzing
+    */
+   public boolean isRunning()
+   {
+      return task != null;
+   }
+
+   /**
+    * Helper method to choose the first depth for a position, and remember
+    * the position for the next analysis.
+    * @param root position to analyze
+    * @return first depth to search
+    */
+   private int startDepth(MancalaEngine root)
+   {
+      int start = 1;
+      long hash = root.getHash();
+      if (hash == lastHash)
+         start = lastDepth;
+      else
+      {
+         for (long child : lastChildren)
+         {
+            if (child == hash)
+               start = lastDepth - 1;
+         }
+      }
+
+      lastHash = hash;
+      lastChildren = new long[root.getRules().getPits()];
+      for (int pit = 0; pit < lastChildren.length; pit++)
+      {
+         if (root.isLegal(pit))
+         {
+            MancalaEngine child = root.copy();
+            child.applyMove(pit);
+            lastChildren[pit] = child.getHash();
+         }
+      }
+      lastDepth = 0;
+      return Math.max(1, start);
+   }
+
+   /**
+    * Helper method for the iterative deepening, run on a worker thread.
+    * @param root position to analyze
+    * @param startDepth first depth
+    * @param myGeneration generation of this analysis
+    * @param onUpdate receives the results on the EDT
+    */
+   private void run(MancalaEngine root, int startDepth, long myGeneration,
+      Consumer<Analysis> onUpdate)
+   {
+      TranspositionTable table = search.getTable();
+      if (table != null)
+         table.newSearch();
+      long deadline = MancalaSearch.deadlineAfter(timeLimitMillis);
+      int pits = root.getRules().getPits();
+      for (int depth = startDepth; depth < MancalaSearch.MAX_PLY; depth++)
+      {
+         int[] scores = new int[pits];
+         Arrays.fill(scores, NO_SCORE);
+         boolean exact = true;
+         for (int pit = 0; pit < pits; pit++)
+         {
+            if (!root.isLegal(pit))
+               continue;
+            scores[pit] = search.scoreMove(root, pit, depth, deadline);
+            if (search.wasStopped())
+               return;
+            exact &= !search.reachedDepthLimit();
+         }
+
+         final Analysis analysis = new Analysis(root, depth, exact, scores);
+         SwingUtilities.invokeLater(new Runnable()
+         {
+            public void run()
+            {
+               if (generation != myGeneration)
+                  return;
+               lastDepth = analysis.getDepth();
+               onUpdate.accept(analysis);
+            }
+         });
+         if (exact)
+            return;
+      }
+   }
+
+   /**
+    * Scores of all moves of a position at one depth.
+    */
+   public static final class Analysis
+   {
+      private final long hash;
+      private final int side;
+      private final int depth;
+      private final boolean exact;
+      private final int[] scores;
+      private final int bestPit;
+
+      /**
+       * Constructor.
+       * @param position the analyzed position
+       * @param depth depth searched
+       * @param exact true if every line reached the end of the game
+       * @param scores score per pit, NO_SCORE for illegal pits
+       */
+      Analysis(MancalaEngine position, int depth, boolean exact,
+            int[] scores)
+      {
+         hash = position.getHash();
+         side = position.getSide();
+         this.depth = depth;
+         this.exact = exact;
+         this.scores = scores;
+         int best = -1;
+         for (int pit = 0; pit < scores.length; pit++)
+         {
+            if (scores[pit] != NO_SCORE
+               && (best < 0 || scores[pit] > scores[best]))
+               best = pit;
+         }
+         bestPit = best;
+      }
+
+      /**
+       * Get the hash of the analyzed position.
+       * @return position hash
+       */
+      public long getHash()
+      {
+         return hash;
+      }
+
+      /**
+       * Get the side whose moves were analyzed.
+       * @return MancalaEngine.SIDE_A or SIDE_B
+       */
+      public int getSide()
+      {
+         return side;
+      }
+
+      /**
+       * Get the depth searched.
+       * @return depth in plies
+       */
+      public int getDepth()
+      {
+         return depth;
+      }
+
+      /**
+       * Check if the scores are final because every line reached the end
+       * of the game.
+       * @return true if exact
+       */
+      public boolean isExact()
+      {
+         return exact;
+      }
+
+      /**
+       * Get the score of a move, the expected final mancala difference
+       * for the side to move.
+       * @param pit pit number
+       * @return score, NO_SCORE if the pit is not legal
+       */
+      public int getScore(int pit)
+      {
+         return scores[pit];
+      }
+
+      /**
+       * Get the move with the best score.
+       * @return pit number
+       */
+      public int getBestPit()
+      {
+         return bestPit;
+      }
+   }
+}
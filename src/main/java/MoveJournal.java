@@ -0,0 +1,335 @@
+import java.util.Arrays;
+
+/**
+ * Append-only history of a game that supports unlimited undo and redo.
+ *
+ * Each entry is a few bytes: a header byte with the kind, pit, mover and
+ * capture flag, variable-length integers with just enough data to take
+ * the entry back, and a trailing length byte so the journal can be walked
+ * backwards. A move stores the stones sown and, if it captured, the
+ * captured count; an end-of-game sweep stores the swept pit counts.
+ * Every CHECKPOINT_INTERVAL entries the full position is saved, so any
+ * ply can be reached by restoring a checkpoint and replaying at most
+ * CHECKPOINT_INTERVAL - 1 entries.
+ */
+public class MoveJournal
+{
+   public static final int MOVE = 0;
+   public static final int SWEEP = 1;
+   public static final int CHECKPOINT_INTERVAL = 64;
+
+   private byte[] data;
+   private int size;
+   private int offset;
+   private int ply;
+   private int length;
+   private int[] checkpoints;
+   private int[] checkpointOffsets;
+   private final int pits;
+   private final int slots;
+   // Checkpoint layout: the board slots then the side to move
+   private final int checkpointInts;
+   private final int[] scratch;
+
+   /**
+    * Constructor.
+    * @param start position before the first entry
+    */
+   public MoveJournal(MancalaEngine start)
+   {
+      pits = start.getRules().getPits();
+      slots = start.getRules().getSlots();
+      checkpointInts = slots + 1;
+      scratch = new int[slots];
+      data = new byte[256];
+      checkpoints = new int[checkpointInts * 4];
+      checkpointOffsets = new int[4];
+      saveCheckpoint(0, start);
+   }
+
+   /**
+    * Record a move played with MancalaEngine.applyMove(). Entries after the
+    * current ply are discarded.
+    * @param engine position after the move
+    * @param mover side that played the move
+    * @param pitNumber pit that was played
+    * @param stones stones the pit held before the move
+    */
+   public void recordMove(MancalaEngine engine, int mover, int pitNumber,
+         int stones)
+   {
+      int captured = engine.getLastCapture();
+      int start = beginEntry();
+      data[size++] = (byte) (MOVE | pitNumber << 1 | mover << 4
+         | (captured >= 0 ? 1 << 5 : 0));
+      writeVarInt(stones);
+      if (captured >= 0)
+         writeVarInt(captured);
+      endEntry(start, engine);
+   }
+
+   /**
+    * Record an end-of-game sweep. Entries after the current ply are
+    * discarded.
+    * @param engine position after the sweep
+    * @param pitSide side whose stones were swept
+    * @param counts stones each pit of that side held before the sweep
+    */
+   public void recordSweep(MancalaEngine engine, int pitSide, int[] counts)
+   {
+      int start = beginEntry();
+      data[size++] = (byte) (SWEEP | pitSide << 4);
+      for (int i = 0; i < pits; i++)
+         writeVarInt(counts[i]);
+      endEntry(start, engine);
+   }
+
+   /**
+    * Get the current ply, the number of entries before the position.
+    * @return current ply
+    */
+   public int getPly()
+   {
+      return ply;
+   }
+
+   /**
+    * Get the number of recorded entries, including undone ones that can
+    * be redone.
+    * @return entry count
+    */
+   public int getLength()
+   {
+      return length;
+   }
+
+   /**
+    * Get the kind of the entry before the current ply.
+    * @return MOVE or SWEEP, or -1 at the start of the game
+    */
+   public int peekUndo()
+   {
+      if (ply == 0)
+         return -1;
+      int start = offset - (data[offset - 1] & 0xFF);
+      return data[start] & 1;
+   }
+
+   /**
+    * Get the kind of the entry after the current ply.
+    * @return MOVE or SWEEP, or -1 if there is nothing to redo
+    */
+   public int peekRedo()
+   {
+      if (ply == length)
+         return -1;
+      return data[offset] & 1;
+   }
+
+   /**
+    * Get the pit played by an entry.
+    * @param index entry index
+    * @return pit number, or -1 if the entry is a sweep
+    */
+   public int getMove(int index)
+   {
+      int at = checkpointOffsets[index / CHECKPOINT_INTERVAL];
+      for (int i = index - index % CHECKPOINT_INTERVAL; i < index; i++)
+         at += entryLength(at);
+      int header = data[at] & 0xFF;
+      return (header & 1) == MOVE ? (header >> 1) & 7 : -1;
+   }
+
+   /**
+    * Take back the entry before the current ply.
+    * @param engine position at the current ply, changed in place
+    * @return kind of the entry taken back, or -1 if at the start
+    */
+   public int undo(MancalaEngine engine)
+   {
+      if (ply == 0)
+         return -1;
+
+      offset -= data[offset - 1] & 0xFF;
+      int header = data[offset] & 0xFF;
+      int at = offset + 1;
+      int pitSide = (header >> 4) & 1;
+      if ((header & 1) == MOVE)
+      {
+         long value = readVarInt(at);
+         int stones = (int) value;
+         int captured = -1;
+         if ((header & (1 << 5)) != 0)
+            captured = (int) readVarInt(at + (int) (value >>> 32));
+         engine.undoMove(pitSide, (header >> 1) & 7, stones, captured);
+      }
+      else
+      {
+         for (int i = 0; i < pits; i++)
+         {
+            long value = readVarInt(at);
+            scratch[i] = (int) value;
+            at += (int) (value >>> 32);
+         }
+         engine.undoSweep(pitSide, scratch);
+      }
+      ply--;
+      return header & 1;
+   }
+
+   /**
+    * Play the entry after the current ply again.
+    * @param engine position at the current ply, changed in place
+    * @return kind of the entry replayed, or -1 if there is nothing to redo
+    */
+   public int redo(MancalaEngine engine)
+   {
+      if (ply == length)
+         return -1;
+
+      int header = data[offset] & 0xFF;
+      if ((header & 1) == MOVE)
+         engine.applyMove((header >> 1) & 7);
+      else
+         engine.checkWinner();
+      offset += entryLength(offset);
+      ply++;
+      return header & 1;
+   }
+
+   /**
+    * Move to any recorded ply by restoring the nearest checkpoint at or
+    * before it and replaying from there.
+    * @param engine engine to receive the position
+    * @param target ply to move to, 0 to getLength()
+    */
+   public void goToPly(MancalaEngine engine, int target)
+   {
+      if (target < 0 || target > length)
+         throw new IllegalArgumentException("No ply " + target);
+
+      int k = target / CHECKPOINT_INTERVAL;
+      System.arraycopy(checkpoints, k * checkpointInts, scratch, 0, slots);
+      engine.setPosition(scratch, checkpoints[k * checkpointInts + slots]);
+      ply = k * CHECKPOINT_INTERVAL;
+      offset = checkpointOffsets[k];
+      while (ply < target)
+         redo(engine);
+   }
+
+   /**
+    * Get the memory used by the journal's entries.
+    * @return bytes of entry data
+    */
+   public int getBytes()
+   {
+      return size;
+   }
+
+   /**
+    * Helper method to drop undone entries before writing a new one.
+    * @return offset the new entry starts at
+    */
+   private int beginEntry()
+   {
+      size = offset;
+      length = ply;
+      if (data.length - size < 64)
+         data = Arrays.copyOf(data, data.length * 2);
+      return size;
+   }
+
+   /**
+    * Helper method to finish an entry and save a checkpoint if due.
+    * @param start offset the entry starts at
+    * @param engine position after the entry
+    */
+   private void endEntry(int start, MancalaEngine engine)
+   {
+      data[size] = (byte) (size + 1 - start);
+      size++;
+      offset = size;
+      ply++;
+      length = ply;
+      if (ply % CHECKPOINT_INTERVAL == 0)
+         saveCheckpoint(ply / CHECKPOINT_INTERVAL, engine);
+   }
+
+   /**
+    * Helper method to store a checkpoint.
+    * @param k checkpoint number
+    * @param engine position at ply k * CHECKPOINT_INTERVAL
+    */
+   private void saveCheckpoint(int k, MancalaEngine engine)
+   {
+      if (k >= checkpointOffsets.length)
+      {
+         checkpointOffsets = Arrays.copyOf(checkpointOffsets, k * 2);
+         checkpoints = Arrays.copyOf(checkpoints, k * 2 * checkpointInts);
+      }
+      for (int i = 0; i < slots; i++)
+         checkpoints[k * checkpointInts + i] = engine.getSlot(i);
+      checkpoints[k * checkpointInts + slots] = engine.getSide();
+      checkpointOffsets[k] = offset;
+   }
+
+   /**
+    * Helper method to get the length of an entry.
+    * @param at offset of the entry
+    * @return length in bytes
+    */
+   private int entryLength(int at)
+   {
+      int header = data[at] & 0xFF;
+      int values;
+      if ((header & 1) == MOVE)
+         values = (header & (1 << 5)) != 0 ? 2 : 1;
+      else
+         values = pits;
+
+      int end = at + 1;
+      for (int i = 0; i < values; i++)
+      {
+         while ((data[end] & 0x80) != 0)
+            end++;
+         end++;
+      }
+      return end + 1 - at;
+   }
+
+   /**
+    * Helper method to append a variable-length integer, seven bits per
+    * byte, low bits first.
+    * @param value non-negative value
+    */
+   private void writeVarInt(int value)
+   {
+      while ((value & ~0x7F) != 0)
+      {
+         data[size++] = (byte) ((value & 0x7F) | 0x80);
+         value >>>= 7;
+      }
+      data[size++] = (byte) value;
+   }
+
+   /**
+    * Helper method to read a variable-length integer.
+    * @param at offset of the first byte
+    * @return value in the low 32 bits, bytes read in the high 32 bits
+    */
+   private long readVarInt(int at)
+   {
+      int value = 0;
+      int shift = 0;
+      int start = at;
+      while (true)
+      {
+         int b = data[at++];
+         value |= (b & 0x7F) << shift;
+         if ((b & 0x80) == 0)
+            break;
+         shift += 7;
+      }
+      return ((long) (at - start) << 32) | (value & 0xFFFFFFFFL);
+   }
+}
@@ -0,0 +1,416 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opening book built from the results of recorded games. For every position
+ * reached in the first plies of the games the book holds, per pit, how many
+ * games played it and how many half points the mover scored with it (2 for
+ * a win, 1 for a tie). Positions are keyed by their Zobrist hash, so one
+ * book can hold openings for any number of starting stone counts. Only
+ * standard Kalah games are used.
+ *
+ * The file is an open addressed hash table read through a memory mapping:
+ * a 16 byte header (magic "MNCB", version, minimum games, capacity) and
+ * capacity slots of the hash followed by 6 game counts and 6 point counts,
+ * all ints. An empty slot has hash 0.
+ *
+ * Usage: java OpeningBook build BOOK RECORDS... [--plies P] [--min-games N]
+ *        java OpeningBook show BOOK [--stones S]
+ */
+public class OpeningBook
+{
+   private static final byte[] MAGIC = { 'M', 'N', 'C', 'B' };
+   private static final int VERSION = 1;
+   private static final int HEADER = 16;
+   private static final int SLOT = 8 + 8 * MancalaEngine.PITS;
+   private static final int MAX_CAPACITY = 1 << 25;
+
+   private final MappedByteBuffer table;
+   private final int mask;
+   private final int minGames;
+   private final LongAdder probes = new LongAdder();
+   private final LongAdder hits = new LongAdder();
+
+   /**
+    * Constructor. Maps a book file written by Builder.
+    * @param fileName name of the book file
+    * @throws IOException if the file cannot be read or is not a book
+    */
+   public OpeningBook(String fileName) throws IOException
+   {
+      try (RandomAccessFile file = new RandomAccessFile(fileName, "r"))
+      {
+         table = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+            file.length());
+      }
+      for (int i = 0; i < MAGIC.length; i++)
+      {
+         if (table.get(i) != MAGIC[i])
+            throw new IOException("Not an opening book: " + fileName);
+      }
+      if (table.get(4) != VERSION)
+         throw new IOException("Unsupported book version: " + fileName);
+      minGames = table.getInt(8);
+      int capacity = table.getInt(12);
+      if (Integer.bitCount(capacity) != 1
+         || table.capacity() != HEADER + (long) capacity * SLOT)
+         throw new IOException("Corrupt opening book: " + fileName);
+      mask = capacity - 1;
+   }
+
+   /**
+    * Get the statistics of a position.
+    * @param position the position
+    * @return games and half points for pits 0-5 followed by pits 0-5, or
+    *    null if the position is not in the book
+    */
+   public int[] lookup(MancalaEngine position)
+   {
+      probes.increment();
+      int slot = find(position.getHash());
+      if (slot < 0)
+         return null;
+
+      hits.increment();
+      int[] stats = new int[2 * MancalaEngine.PITS];
+      for (int i = 0; i < stats.length; i++)
+         stats[i] = table.getInt(slot + 8 + 4 * i);
+      return stats;
+   }
+
+   /**
+    * Choose a book move. Only legal moves played in at least the book's
+    * minimum number of games are considered. Each is picked with weight
+    * exp(score / temperature), where score is the mover's average result
+    * from 0 for a loss to 1 for a win.
+    * @param position the position
+    * @param temperature 0 to always play the best scoring move, higher
+    *    values to vary the play more
+    * @param random random number generator for the pick
+    * @return pit number to play, or -1 if the book has no move
+    */
+   public int choose(MancalaEngine position, double temperature,
+      SplittableRandom random)
+   {
+      int[] stats = lookup(position);
+      if (stats == null)
+         return -1;
+
+      double[] scores = new double[MancalaEngine.PITS];
+      double best = -1;
+      int bestPit = -1;
+      for (int pit = 0; pit < MancalaEngine.PITS; pit++)
+      {
+         int games = stats[pit];
+         scores[pit] = -1;
+         if (games < Math.max(1, minGames) || !position.isLegal(pit))
+            continue;
+         scores[pit] = stats[pit + MancalaEngine.PITS] / (2.0 * games);
+         if (scores[pit] > best
+            || (scores[pit] == best && games > stats[bestPit]))
+         {
+            best = scores[pit];
+            bestPit = pit;
+         }
+      }
+      if (bestPit < 0 || temperature <= 0)
+         return bestPit;
+
+      double total = 0;
+      double[] weights = new double[MancalaEngine.PITS];
+      for (int pit = 0; pit < MancalaEngine.PITS; pit++)
+      {
+         if (scores[pit] >= 0)
+            weights[pit] = Math.exp((scores[pit] - best) / temperature);
+         total += weights[pit];
+      }
+      double pick = random.nextDouble() * total;
+      for (int pit = 0; pit < MancalaEngine.PITS; pit++)
+      {
+         pick -= weights[pit];
+         if (weights[pit] > 0 && pick < 0)
+            return pit;
+      }
+      return bestPit;
+   }
+
+   /**
+    * Get the number of positions in the book.
+    * @return position count
+    */
+   public int size()
+   {
+      int count = 0;
+      for (int slot = 0; slot <= mask; slot++)
+      {
+         if (table.getLong(HEADER + slot * SLOT) != 0)
+            count++;
+      }
+      return count;
+   }
+
+   /**
+    * Get the number of lookups made.
+    * @return lookup count
+    */
+   public long getProbes()
+   {
+      return probes.sum();
+   }
+
+   /**
+    * Get the number of lookups that found their position.
+    * @return hit count
+    */
+   public long getHits()
+   {
+      return hits.sum();
+   }
+
+   /**
+    * Helper method to find the slot of a hash.
+    * @param key position hash
+    * @return byte offset of the slot, or -1 if the hash is not in the book
+    */
+   private int find(long key)
+   {
+      if (key == 0)
+         return -1;
+      int slot = (int) (key ^ (key >>> 32)) & mask;
+      while (true)
+      {
+         int offset = HEADER + slot * SLOT;
+         long stored = table.getLong(offset);
+         if (stored == key)
+            return offset;
+         if (stored == 0)
+            return -1;
+         slot = (slot + 1) & mask;
+      }
+   }
+
+   /**
+    * Collects move results from recorded games and writes a book file.
+    */
+   public static class Builder
+   {
+      private final int maxPlies;
+      private final Map<Long, int[]> positions;
+      private long games;
+
+      /**
+       * Constructor.
+       * @param maxPlies number of moves from the start of each game to add
+       */
+      public Builder(int maxPlies)
+      {
+         this.maxPlies = maxPlies;
+         positions = new HashMap<Long, int[]>();
+      }
+
+      /**
+       * Add the opening of a finished game. Games of other variants than
+       * standard Kalah are ignored.
+       * @param record the game, must be played to the end
+       */
+      public void add(GameRecord record)
+      {
+         if (!record.getRules().isStandard())
+            return;
+
+         MancalaEngine end = record.replay();
+         int margin = end.getMancalaValue(MancalaEngine.SIDE_A)
+            - end.getMancalaValue(MancalaEngine.SIDE_B);
+
+         MancalaEngine engine = new MancalaEngine(record.getStones());
+         int plies = Math.min(maxPlies, record.getMoveCount());
+         for (int i = 0; i < plies; i++)
+         {
+            int pit = record.getMove(i);
+            int[] stats = positions.get(engine.getHash());
+            if (stats == null)
+            {
+               stats = new int[2 * MancalaEngine.PITS];
+               positions.put(engine.getHash(), stats);
+            }
+            int forMover = engine.getSide() == MancalaEngine.SIDE_A
+               ? margin : -margin;
+            stats[pit]++;
+            stats[pit + MancalaEngine.PITS] += Integer.signum(forMover) + 1;
+            engine.applyMove(pit);
+         }
+         games++;
+      }
+
+      /**
+       * Get the number of games added.
+       * @return game count
+       */
+      public long getGames()
+      {
+         return games;
+      }
+
+      /**
+       * Get the number of distinct positions collected.
+       * @return position count
+       */
+      public int getPositions()
+      {
+         return positions.size();
+      }
+
+      /**
+       * Write the book. Positions reached in fewer games than the minimum
+       * are left out.
+       * @param fileName name of the book file
+       * @param minGames minimum games for a position and for a move to be
+       *    played from the book
+       * @return number of positions written
+       * @throws IOException if the file cannot be written
+       */
+      public int write(String fileName, int minGames) throws IOException
+      {
+         int count = 0;
+         for (int[] stats : positions.values())
+         {
+            if (total(stats) >= minGames)
+               count++;
+         }
+         int capacity = Integer.highestOneBit(Math.max(1, count) * 2 - 1) * 2;
+         if (capacity > MAX_CAPACITY)
+            throw new IOException("Too many positions: " + count);
+
+         ByteBuffer buffer = ByteBuffer.allocate(HEADER + capacity * SLOT);
+         buffer.put(MAGIC).put((byte) VERSION);
+         buffer.putInt(8, minGames).putInt(12, capacity);
+         int mask = capacity - 1;
+         for (Map.Entry<Long, int[]> e : positions.entrySet())
+         {
+            long key = e.getKey();
+            int[] stats = e.getValue();
+            if (key == 0 || total(stats) < minGames)
+               continue;
+            int slot = (int) (key ^ (key >>> 32)) & mask;
+            while (buffer.getLong(HEADER + slot * SLOT) != 0)
+               slot = (slot + 1) & mask;
+            int offset = HEADER + slot * SLOT;
+            buffer.putLong(offset, key);
+            for (int i = 0; i < stats.length; i++)
+               buffer.putInt(offset + 8 + 4 * i, stats[i]);
+         }
+
+         try (RandomAccessFile file = new RandomAccessFile(fileName, "rw"))
+         {
+            file.setLength(0);
+            file.getChannel().write(buffer.clear());
+         }
+         return count;
+      }
+
+      /**
+       * Helper method to count the games of a position.
+       * @param stats games and points per pit
+       * @return total games
+       */
+      private static int total(int[] stats)
+      {
+         int games = 0;
+         for (int pit = 0; pit < MancalaEngine.PITS; pit++)
+            games += stats[pit];
+         return games;
+      }
+   }
+
+   /**
+    * Build or show a book from the command line.
+    * @param args command line arguments
+    * @throws IOException if a file cannot be used
+    */
+   public static void main(String[] args) throws IOException
+   {
+      if (args.length < 2)
+      {
+         System.out.println("Usage: java OpeningBook build BOOK RECORDS..."
+            + " [--plies P] [--min-games N]");
+         System.out.println("       java OpeningBook show BOOK [--stones S]");
+         return;
+      }
+
+      int plies = 12;
+      int minGames = 20;
+      int stones = 4;
+      List<String> files = new ArrayList<String>();
+      for (int i = 2; i < args.length; i++)
+      {
+         switch (args[i])
+         {
+         case "--plies":
+            plies = Integer.parseInt(args[++i]);
+            break;
+         case "--min-games":
+            minGames = Integer.parseInt(args[++i]);
+            break;
+         case "--stones":
+            stones = Integer.parseInt(args[++i]);
+            break;
+         default:
+            files.add(args[i]);
+         }
+      }
+
+      if (args[0].equals("build"))
+      {
+         long start = System.nanoTime();
+         Builder builder = new Builder(plies);
+         for (String name : files)
+         {
+            try (GameRecordReader reader =
+               new GameRecordReader(new FileInputStream(name)))
+            {
+               GameRecord record;
+               while ((record = reader.next()) != null)
+                  builder.add(record);
+            }
+         }
+         int written = builder.write(args[1], minGames);
+         System.out.printf("%d games, %d positions, %d written in %.2f s%n",
+            builder.getGames(), builder.getPositions(), written,
+            (System.nanoTime() - start) / 1e9);
+         return;
+      }
+
+      OpeningBook book = new OpeningBook(args[1]);
+      System.out.printf("%d positions, min games %d%n", book.size(),
+         book.minGames);
+      MancalaEngine engine = new MancalaEngine(stones);
+      for (int ply = 0; ply < plies && !engine.isTerminal(); ply++)
+      {
+         int[] stats = book.lookup(engine);
+         if (stats == null)
+            break;
+         StringBuilder line = new StringBuilder();
+         for (int pit = 0; pit < MancalaEngine.PITS; pit++)
+         {
+            if (stats[pit] > 0)
+               line.append(String.format("  %c%d %d games %.1f%%",
+                  Character.toUpperCase(engine.getCurrPlayer()), pit + 1,
+                  stats[pit],
+                  50.0 * stats[pit + MancalaEngine.PITS] / stats[pit]));
+         }
+         System.out.println("ply " + (ply + 1) + ":" + line);
+         if (!engine.applyMove(book.choose(engine, 0, null)))
+            break;
+      }
+   }
+}
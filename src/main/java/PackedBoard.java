@@ -0,0 +1,349 @@
+/**
+ * Mancala position packed for fast playouts. Every slot is a 16 bit lane
+ * of a long, four slots per word, and moves are played from a SowingTable:
+ * sowing a pit adds the precomputed increments to each word, so no stone
+ * is moved one at a time. The rules are those of MancalaEngine, including
+ * the captures and end-of-game sweeps of every variant.
+ *
+ * Unlike MancalaEngine the board keeps no hash and no undo information,
+ * and a position may hold at most MAX_STONES stones so no lane overflows.
+ */
+public final class PackedBoard
+{
+   /**
+    * Most stones a position may hold. A played pit keeps its stones while
+    * its full laps are added, so a lane must hold a third more than this.
+    */
+   public static final int MAX_STONES = 0x7FFF;
+
+   private static final long LOW_BITS = 0x7FFF7FFF7FFF7FFFL;
+   private static final long GATHER = 1L << 48 | 1L << 33 | 1L << 18 | 1L << 3;
+
+   private final MancalaRules rules;
+   private final SowingTable table;
+   private final long[] extra;
+   private final long[] lap;
+   private final int pitBits;
+   private final MancalaRules.Capture capture;
+   private final int pits;
+   private final int stride;
+   private final int cycle;
+   private final int words;
+   private final long[] w;
+   private int side;
+
+   /**
+    * Constructor. Sets up the starting position of a variant with player A
+    * to move.
+    * @param stoneAmount amount of stones to put in each pit
+    * @param rules board geometry and rule variant
+    * @throws IllegalArgumentException if the position has too many stones
+    */
+   public PackedBoard(int stoneAmount, MancalaRules rules)
+   {
+      this(rules);
+      if ((long) stoneAmount * 2 * pits > MAX_STONES)
+         throw new IllegalArgumentException("Too many stones: "
+            + stoneAmount);
+      for (int i = 0; i < pits; i++)
+      {
+         set(i, stoneAmount);
+         set(i + stride, stoneAmount);
+      }
+   }
+
+   /**
+    * Constructor. Copies the position of an engine.
+    * @param position the position
+    * @throws IllegalArgumentException if the position has too many stones
+    */
+   public PackedBoard(MancalaEngine position)
+   {
+      this(position.getRules());
+      setPosition(position);
+   }
+
+   /**
+    * Constructor for an empty board.
+    * @param rules board geometry and rule variant
+    */
+   private PackedBoard(MancalaRules rules)
+   {
+      this.rules = rules;
+      table = SowingTable.get(rules);
+      extra = table.extraLanes();
+      lap = table.lapLanes();
+      pits = rules.getPits();
+      stride = pits + 1;
+      cycle = table.getCycle();
+      words = words(rules.getSlots());
+      w = new long[words];
+
+      pitBits = (1 << pits) - 1;
+      capture = rules.getCapture();
+   }
+
+   /**
+    * Get the number of words holding the slots of a board.
+    * @param slots slot count
+    * @return words per board
+    */
+   static int words(int slots)
+   {
+      return (slots + 3) >> 2;
+   }
+
+   /**
+    * Create a copy of this position.
+    * @return the copy
+    */
+   public PackedBoard copy()
+   {
+      PackedBoard copy = new PackedBoard(rules);
+      copy.copyFrom(this);
+      return copy;
+   }
+
+   /**
+    * Restore this board to the position of another board without
+    * allocating.
+    * @param other board with the same rules whose position is copied
+    */
+   public void copyFrom(PackedBoard other)
+   {
+      System.arraycopy(other.w, 0, w, 0, words);
+      side = other.side;
+   }
+
+   /**
+    * Set the position of an engine.
+    * @param position engine with the same rules
+    * @throws IllegalArgumentException if the position has too many stones
+    */
+   public void setPosition(MancalaEngine position)
+   {
+      long total = 0;
+      for (int i = 0; i < rules.getSlots(); i++)
+         total += position.getSlot(i);
+      if (total > MAX_STONES)
+         throw new IllegalArgumentException("Too many stones: " + total);
+      for (int i = 0; i < words; i++)
+         w[i] = 0;
+      for (int i = 0; i < rules.getSlots(); i++)
+         set(i, position.getSlot(i));
+      side = position.getSide();
+   }
+
+   /**
+    * Get the board geometry and rule variant.
+    * @return the rules
+    */
+   public MancalaRules getRules()
+   {
+      return rules;
+   }
+
+   /**
+    * Get the stone count of a slot.
+    * @param slot slot index
+    * @return stone count
+    */
+   public int getSlot(int slot)
+   {
+      return (int) (w[slot >> 2] >>> shift(slot)) & 0xFFFF;
+   }
+
+   /**
+    * Get the side to move.
+    * @return MancalaEngine.SIDE_A or SIDE_B
+    */
+   public int getSide()
+   {
+      return side;
+   }
+
+   /**
+    * Check if a pit may be played by the side to move.
+    * @param pitNumber pit number, 0 to pits - 1
+    * @return true if the pit holds stones
+    */
+   public boolean isLegal(int pitNumber)
+   {
+      return pitNumber >= 0 && pitNumber < pits
+         && getSlot(side * stride + pitNumber) != 0;
+   }
+
+   /**
+    * Get the legal moves of the side to move.
+    * @return bit mask with bit i set if pit i may be played
+    */
+   public int getLegalMoves()
+   {
+      return (occupied() >>> (side * stride)) & pitBits;
+   }
+
+   /**
+    * Play a pit for the side to move, like MancalaEngine.applyMove().
+    * @param pitNumber pit number, 0 to pits - 1
+    * @return true if the move was played, false if it was illegal
+    */
+   public boolean applyMove(int pitNumber)
+   {
+      int first = side * stride;
+      int origin = first + pitNumber;
+      int stones = pitNumber >= 0 && pitNumber < pits ? getSlot(origin) : 0;
+      if (stones == 0)
+         return false;
+
+      // Every slot of the cycle, the origin included, gets one stone per
+      // full lap and the table's slots one more
+      int laps = 0;
+      if (stones >= cycle)
+      {
+         laps = stones / cycle;
+         stones -= laps * cycle;
+      }
+      int entry = table.index(side, pitNumber, stones);
+      int e = entry * words;
+      int l = side * words;
+      if (laps == 0)
+      {
+         for (int i = 0; i < words; i++)
+            w[i] += extra[e + i];
+      }
+      else
+      {
+         for (int i = 0; i < words; i++)
+            w[i] += extra[e + i] + laps * lap[l + i];
+      }
+
+      int mancala = first + pits;
+      int slot = table.landing(entry);
+      if (slot != mancala)
+      {
+         side ^= 1;
+         if (capture == MancalaRules.Capture.KALAH)
+         {
+            if (slot >= first && slot < mancala && getSlot(slot) == 1)
+            {
+               int oppSlot = 2 * pits - slot;
+               add(mancala, getSlot(oppSlot) + 1);
+               set(slot, 0);
+               set(oppSlot, 0);
+            }
+         }
+         else if (capture == MancalaRules.Capture.OWARE)
+         {
+            int other = stride - first;
+            int total = 0;
+            for (int s = slot; s >= other && s < other + pits; s--)
+            {
+               int count = getSlot(s);
+               if (count != 2 && count != 3)
+                  break;
+               total += count;
+               set(s, 0);
+            }
+            add(mancala, total);
+         }
+      }
+      set(origin, 0);
+      return true;
+   }
+
+   /**
+    * Check if one side has run out of stones, which ends the game.
+    * @return true if the game is over
+    */
+   public boolean isTerminal()
+   {
+      int occupied = occupied();
+      return (occupied & pitBits) == 0
+         || (occupied & pitBits << stride) == 0;
+   }
+
+   /**
+    * Check for a winner, like MancalaEngine.checkWinner(). When one side
+    * is empty the remaining stones are swept into the mancala of the side
+    * that owns them, unless the variant leaves them on the board.
+    * @return 'a' or 'b' if winner, 'c' if no winner
+    */
+   public char checkWinner()
+   {
+      int occupied = occupied();
+      int swept;
+      if ((occupied & pitBits) == 0)
+         swept = 1;
+      else if ((occupied & pitBits << stride) == 0)
+         swept = 0;
+      else
+         return 'c';
+
+      if (rules.getSweep() == MancalaRules.Sweep.OWNER)
+      {
+         int first = swept * stride;
+         int total = 0;
+         for (int i = 0; i < pits; i++)
+         {
+            total += getSlot(first + i);
+            set(first + i, 0);
+         }
+         add(first + pits, total);
+      }
+
+      if (getSlot(pits) > getSlot(stride + pits))
+         return 'a';
+      else
+         return 'b';
+   }
+
+   /**
+    * Helper method to find the slots holding stones. Each lane's top bit is
+    * set if the lane is not zero, and a multiply gathers the four top bits
+    * of a word into one nibble.
+    * @return bit mask with bit i set if slot i is not empty
+    */
+   private int occupied()
+   {
+      int mask = 0;
+      for (int i = 0; i < words; i++)
+      {
+         long x = w[i];
+         long top = ((x & LOW_BITS) + LOW_BITS | x) & ~LOW_BITS;
+         mask |= (int) (((top >>> 15) * GATHER) >>> 48) << (i << 2);
+      }
+      return mask;
+   }
+
+   /**
+    * Helper method to set the stone count of a slot.
+    * @param slot slot index
+    * @param value new count
+    */
+   private void set(int slot, int value)
+   {
+      int shift = shift(slot);
+      w[slot >> 2] = w[slot >> 2] & ~(0xFFFFL << shift)
+         | (long) value << shift;
+   }
+
+   /**
+    * Helper method to add stones to a slot.
+    * @param slot slot index
+    * @param value stones to add
+    */
+   private void add(int slot, int value)
+   {
+      w[slot >> 2] += (long) value << shift(slot);
+   }
+
+   /**
+    * Helper method for the bit position of a slot's lane in its word.
+    * @param slot slot index
+    * @return shift amount
+    */
+   private static int shift(int slot)
+   {
+      return (slot & 3) << 4;
+   }
+}
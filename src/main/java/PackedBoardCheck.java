@@ -0,0 +1,168 @@
+import java.util.SplittableRandom;
+
+/**
+ * Equivalence check of PackedBoard and SowingTable against MancalaModel.
+ * Random games of every variant are played on a model; in each position
+ * every legal move is played on the model with doTurn(), followed by
+ * checkWinner(), and on a packed copy of the position, and the boards,
+ * the side to move and the winner must match. The move is then taken back
+ * with undo() and the game goes on with a random move. The table's landing
+ * slot and free turn must match the engine's predictions.
+ *
+ * Usage: java PackedBoardCheck [--games N] [--seed S]
+ */
+public class PackedBoardCheck
+{
+   private static final String[] VARIANTS = { "kalah", "kalah1", "kalah4",
+      "kalah8", "oware", "oware8-nosweep", "nocapture", "kalah3-nosweep" };
+
+   private static final int[] STONES = { 1, 2, 3, 4, 6, 10, 25, 100, 1000 };
+
+   private long moves;
+   private long failures;
+
+   /**
+    * Run the check from the command line.
+    * @param args command line arguments
+    */
+   public static void main(String[] args)
+   {
+      int games = 200;
+      long seed = 1;
+      for (int i = 0; i + 1 < args.length; i += 2)
+      {
+         String value = args[i + 1];
+         switch (args[i])
+         {
+         case "--games":
+            games = Integer.parseInt(value);
+            break;
+         case "--seed":
+            seed = Long.parseLong(value);
+            break;
+         default:
+            throw new IllegalArgumentException("Unknown option: " + args[i]);
+         }
+      }
+
+      PackedBoardCheck check = new PackedBoardCheck();
+      SplittableRandom random = new SplittableRandom(seed);
+      for (String variant : VARIANTS)
+      {
+         MancalaRules rules = MancalaRules.parse(variant);
+         for (int stones : STONES)
+         {
+            if ((long) stones * 2 * rules.getPits() > PackedBoard.MAX_STONES)
+               continue;
+            for (int i = 0; i < games; i++)
+               check.playGame(rules, stones, random);
+         }
+         System.out.println(variant + " ok");
+      }
+      System.out.printf("%d moves, %d mismatches%n", check.moves,
+         check.failures);
+      if (check.failures > 0)
+      {
+         System.out.println("FAILED");
+         System.exit(1);
+      }
+      System.out.println("ok");
+   }
+
+   /**
+    * Helper method to play one random game, checking every position.
+    * @param rules rules of the game
+    * @param stones stones initially in each pit
+    * @param random source of the moves
+    */
+   private void playGame(MancalaRules rules, int stones,
+      SplittableRandom random)
+   {
+      MancalaModel model = new MancalaModel(stones, rules,
+         UndoPolicy.UNLIMITED);
+      SowingTable table = SowingTable.get(rules);
+      PackedBoard packed = new PackedBoard(stones, rules);
+      PackedBoard scratch = packed.copy();
+      check(model.getSnapshot(), packed, 'c', packed.checkWinner(), "start");
+
+      while (!model.isGameOver())
+      {
+         BoardSnapshot before = model.getSnapshot();
+         MancalaEngine position = before.toEngine();
+         if (packed.getLegalMoves() != position.getLegalMoves())
+            fail("legal moves differ");
+
+         for (int pit = 0; pit < rules.getPits(); pit++)
+         {
+            if (!position.isLegal(pit))
+            {
+               if (packed.copy().applyMove(pit))
+                  fail("illegal pit " + pit + " was played");
+               continue;
+            }
+            moves++;
+            int count = position.getPitValue(position.getSide(), pit);
+            if (table.getLandingSlot(position.getSide(), pit, count)
+               != position.landingSlot(pit)
+               || table.isFreeTurn(position.getSide(), pit, count)
+               != position.isFreeTurn(pit))
+               fail("table differs for pit " + pit + " of " + count);
+
+            model.doTurn(before.getCurrPlayer(), pit);
+            char winner = model.checkWinner();
+            scratch.copyFrom(packed);
+            scratch.applyMove(pit);
+            char packedWinner = scratch.checkWinner();
+            check(model.getSnapshot(), scratch, winner, packedWinner,
+               "pit " + pit);
+            model.undo();
+            if (model.getSnapshot().getHash() != before.getHash())
+               fail("undo did not restore the position");
+         }
+
+         int legal = position.getLegalMoves();
+         int pick = random.nextInt(Integer.bitCount(legal));
+         while (pick-- > 0)
+            legal &= legal - 1;
+         int pit = Integer.numberOfTrailingZeros(legal);
+         model.doTurn(before.getCurrPlayer(), pit);
+         packed.applyMove(pit);
+      }
+   }
+
+   /**
+    * Helper method to compare a packed board with the model.
+    * @param expected the model's position
+    * @param packed the packed position
+    * @param winner winner the model reported
+    * @param packedWinner winner the packed board reported
+    * @param what description of the move
+    */
+   private void check(BoardSnapshot expected, PackedBoard packed,
+      char winner, char packedWinner, String what)
+   {
+      for (int i = 0; i < expected.getRules().getSlots(); i++)
+      {
+         if (packed.getSlot(i) != expected.getSlot(i))
+         {
+            fail(what + ": slot " + i + " is " + packed.getSlot(i)
+               + ", expected " + expected.getSlot(i));
+            return;
+         }
+      }
+      if (packed.getSide() != expected.getSide())
+         fail(what + ": side to move differs");
+      if (packedWinner != winner)
+         fail(what + ": winner " + packedWinner + ", expected " + winner);
+   }
+
+   /**
+    * Helper method to report a mismatch.
+    * @param message description
+    */
+   private void fail(String message)
+   {
+      if (failures++ < 10)
+         System.out.println(message);
+   }
+}
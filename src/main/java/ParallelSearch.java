@@ -0,0 +1,269 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Lazy SMP search. Several MancalaSearch instances search the same
+ * position at once and share one transposition table, so each thread
+ * profits from the results of the others. The first search decides the
+ * move; helper threads start at staggered depths to spread the work and
+ * are stopped as soon as the first search finishes.
+ * With one thread no helpers are started and the result is exactly that
+ * of a single MancalaSearch.
+ */
+public class ParallelSearch
+{
+   private final MancalaSearch[] searches;
+   private final TranspositionTable table;
+   private final ExecutorService pool;
+   private volatile boolean aborted;
+   private long nodes;
+   private long elapsedNanos;
+
+   /**
+    * Constructor.
+    * @param threads number of search threads, at least one
+    * @param table transposition table shared by all threads, or null
+    */
+   public ParallelSearch(int threads, TranspositionTable table)
+   {
+      this.table = table;
+      searches = new MancalaSearch[Math.max(1, threads)];
+      for (int i = 0; i < searches.length; i++)
+         searches[i] = new MancalaSearch(table);
+
+      if (searches.length > 1)
+      {
+         pool = Executors.newFixedThreadPool(searches.length - 1,
+            new ThreadFactory()
+            {
+               public Thread newThread(Runnable r)
+               {
+                  Thread t = new Thread(r, "mancala-search");
+                  t.setDaemon(true);
+                  return t;
+               }
+            });
+      }
+      else
+         pool = null;
+   }
+
+   /**
+    * Search a position and return the best move found.
+    * @param position position to search, not modified
+    * @param timeBudgetMillis hard time limit for the whole search
+    * @param maxDepth maximum depth in plies
+    * @return best pit number, or -1 if the side to move has no moves
+    */
+   public int search(final MancalaEngine position, long timeBudgetMillis,
+         final int maxDepth)
+   {
+      if (table != null)
+         table.newSearch();
+      return run(position, MancalaSearch.deadlineAfter(timeBudgetMillis),
+         maxDepth);
+   }
+
+   /**
+    * Search a position without starting a new table generation, so that
+    * entries put into the table beforehand are kept like the search's own.
+    * @param position position to search, not modified
+    * @param deadline System.nanoTime() value at which to stop
+    * @param maxDepth maximum depth in plies
+    * @return best pit number, or -1 if the side to move has no moves
+    */
+   int run(final MancalaEngine position, final long deadline,
+         final int maxDepth)
+   {
+      long start = System.nanoTime();
+      // Helpers stopped at the end of the last search may run again, but
+      // an abort() stays in effect until clearAbort()
+      for (int i = 0; i < searches.length; i++)
+         searches[i].clearAbort();
+      if (aborted)
+         abort();
+
+      Future<?>[] helpers = new Future<?>[searches.length - 1];
+      for (int i = 1; i < searches.length; i++)
+      {
+         final MancalaSearch helper = searches[i];
+         final int startDepth = 1 + (i & 1);
+         helpers[i - 1] = pool.submit(new Runnable()
+         {
+            public void run()
+            {
+               helper.run(position, deadline, maxDepth, startDepth);
+            }
+         });
+      }
+
+      MancalaSearch main = searches[0];
+      int move = main.run(position, deadline, maxDepth, 1);
+
+      nodes = main.getNodes();
+      for (int i = 1; i < searches.length; i++)
+         searches[i].abort();
+      for (int i = 0; i < helpers.length; i++)
+      {
+         try
+         {
+            helpers[i].get();
+         }
+         catch (Exception e)
+         {
+            throw new IllegalStateException("Search thread failed", e);
+         }
+         nodes += searches[i + 1].getNodes();
+      }
+      elapsedNanos = System.nanoTime() - start;
+      return move;
+   }
+
+   /**
+    * Stop a running search on all threads. The search returns the best
+    * move of the main thread's last completed iteration. Later searches
+    * stop at once too, until clearAbort() is called, so an abort sent just
+    * before a search starts is not lost.
+    */
+   public void abort()
+   {
+      aborted = true;
+      for (int i = 0; i < searches.length; i++)
+         searches[i].abort();
+   }
+
+   /**
+    * Allow searching again after abort(). Call it before the search to
+    * abort is started, not after.
+    */
+   public void clearAbort()
+   {
+      aborted = false;
+   }
+
+   /**
+    * Set the endgame database probed by all threads.
+    * @param endgame the database, or null for none
+    */
+   public void setEndgameDatabase(EndgameDatabase endgame)
+   {
+      for (int i = 0; i < searches.length; i++)
+         searches[i].setEndgameDatabase(endgame);
+   }
+
+   /**
+    * Get the search whose result is returned, for its statistics.
+    * @return the main search
+    */
+   public MancalaSearch getMainSearch()
+   {
+      return searches[0];
+   }
+
+   /**
+    * Get the number of search threads.
+    * @return thread count
+    */
+   public int getThreads()
+   {
+      return searches.length;
+   }
+
+   /**
+    * Get the number of nodes visited by all threads in the last search.
+    * @return node count
+    */
+   public long getNodes()
+   {
+      return nodes;
+   }
+
+   /**
+    * Get the number of nodes visited so far by all threads of a running
+    * search. The counters are read without locking, so the sum is only
+    * approximate until the search has returned.
+    * @return node count
+    */
+   long getRunningNodes()
+   {
+      long total = 0;
+      for (int i = 0; i < searches.length; i++)
+         total += searches[i].getNodes();
+      return total;
+   }
+
+   /**
+    * Get the speed of the last search over all threads.
+    * @return nodes per second
+    */
+   public long getNodesPerSecond()
+   {
+      return elapsedNanos > 0 ? nodes * 1000000000L / elapsedNanos : 0;
+   }
+
+   /**
+    * Get the wall-clock time of the last search.
+    * @return elapsed nanoseconds
+    */
+   public long getElapsedNanos()
+   {
+      return elapsedNanos;
+   }
+
+   /**
+    * Stop the helper threads. The search cannot be used afterwards.
+    */
+   public void shutdown()
+   {
+      if (pool != null)
+         pool.shutdownNow();
+   }
+
+   /**
+    * Measure search speed and scaling. Searches the starting position to a
+    * fixed depth with 1, 2, 4, ... threads and prints nodes per second,
+    * speedup and efficiency relative to one thread.
+    * Arguments: [stones per pit] [depth] [max threads] [table MB]
+    * @param args command line arguments
+    */
+   public static void main(String[] args)
+   {
+      int stones = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+      int depth = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+      int maxThreads = args.length > 2 ? Integer.parseInt(args[2])
+         : Runtime.getRuntime().availableProcessors();
+      long megabytes = args.length > 3 ? Long.parseLong(args[3]) : 256;
+
+      MancalaEngine start = new MancalaEngine(stones);
+      TranspositionTable table = new TranspositionTable(megabytes);
+      new ParallelSearch(1, table).search(start, Long.MAX_VALUE, depth); // warm up
+
+      double baseSeconds = 0;
+      long baseNps = 0;
+      System.out.println("threads  move  score    seconds        nodes"
+         + "      nodes/s  speedup  efficiency  nps-scaling");
+      for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads))
+      {
+         table.clear();
+         ParallelSearch search = new ParallelSearch(threads, table);
+         int move = search.search(start, Long.MAX_VALUE, depth);
+         double seconds = search.getElapsedNanos() / 1e9;
+         if (threads == 1)
+         {
+            baseSeconds = seconds;
+            baseNps = search.getNodesPerSecond();
+         }
+         double speedup = baseSeconds / seconds;
+         System.out.printf("%7d  %4d  %5d  %9.3f  %11d  %11d  %7.2f  %10.2f  %11.2f%n",
+            threads, move, search.getMainSearch().getBestScore(), seconds,
+            search.getNodes(), search.getNodesPerSecond(), speedup,
+            speedup / threads,
+            (double) search.getNodesPerSecond() / Math.max(1, baseNps) / threads);
+         search.shutdown();
+         if (threads >= maxThreads)
+            break;
+      }
+   }
+}
@@ -1,3 +1,4 @@
+import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Shape;
@@ -10,11 +11,17 @@ import javax.swing.event.ChangeListener;
 
 public class PitPanel extends JPanel implements ChangeListener, MouseListener
 {
+   private static final Color HINT_COLOR = Color.DARK_GRAY;
+   private static final Color BEST_HINT_COLOR = new Color(0, 128, 0);
+
    private int stoneAmount;
+   private long version;
    private char pitSide;
    private int pitNumber;
    private MancalaModel mancalaModel;
    private StyleFormatter format;
+   private String hint;
+   private boolean bestHint;
   
    /**
     * Constructor.
@@ -29,7 +36,10 @@ public class PitPanel extends JPanel implements ChangeListener, MouseListener
       this.pitNumber = pitNumber;
       this.addMouseListener(this);
       
-      stoneAmount = mancalaModel.getPitValue(pitSide, pitNumber);
+      BoardSnapshot snapshot = mancalaModel.getSnapshot();
+      stoneAmount = snapshot.getPitValue(MancalaEngine.toSide(pitSide),
+         pitNumber);
+      version = snapshot.getVersion();
    }
    
    /**
@@ -41,6 +51,23 @@ public class PitPanel extends JPanel implements ChangeListener, MouseListener
       this.format = format;
    }
    
+   /**
+    * Show a move hint under the pit.
+    * @param text hint text, or null to remove the hint
+    * @param best true to highlight the hint as the best move
+    * @param toolTip longer explanation shown on hover, or null
+    */
+   public void setHint(String text, boolean best, String toolTip)
+   {
+      if (text == null ? hint == null && toolTip == null
+         : text.equals(hint) && best == bestHint)
+         return;
+      hint = text;
+      bestHint = best;
+      setToolTipText(toolTip);
+      repaint();
+   }
+
    /**
     * Display panel.
     */
@@ -53,14 +80,57 @@ public class PitPanel extends JPanel implements ChangeListener, MouseListener
       g2.setColor(format.getFillColor());
       for (Shape s : format.getPitStoneShapes(stoneAmount))
     	  g2.fill(s);
+      if (hint != null)
+      {
+         g2.setColor(bestHint ? BEST_HINT_COLOR : HINT_COLOR);
+         int width = g2.getFontMetrics().stringWidth(hint);
+         g2.drawString(hint, 5 + (GameBoard.PIT_WIDTH - width) / 2,
+            GameBoard.PIT_HEIGHT + 25);
+      }
    }
    
    /**
-    * Update panel based on model state change.
+    * Update panel based on model state change. Only repaints if this pit
+    * changed. Snapshots older than the one shown are ignored, as a listener
+    * changing the model while a change is sent makes the later listeners
+    * see the newer snapshot first.
     */
    public void stateChanged(ChangeEvent e)
    {
-      stoneAmount = mancalaModel.getPitValue(pitSide, pitNumber);
+      int value;
+      if (e instanceof BoardChangeEvent)
+      {
+         BoardChangeEvent event = (BoardChangeEvent) e;
+         BoardSnapshot snapshot = event.getSnapshot();
+         long last = version;
+         if (snapshot.getVersion() <= last)
+         {
+            GameBoard.countRepaint(true);
+            return;
+         }
+         version = snapshot.getVersion();
+         // The changed slots only tell the difference to the version before
+         if (snapshot.getVersion() == last + 1
+            && !event.isChanged(BoardChangeEvent.pitSlot(
+               mancalaModel.getRules(), pitSide, pitNumber)))
+         {
+            GameBoard.countRepaint(true);
+            return;
+         }
+         // Read from the event's snapshot, the model may have moved on
+         value = snapshot.getPitValue(MancalaEngine.toSide(pitSide),
+            pitNumber);
+      }
+      else
+         value = mancalaModel.getPitValue(pitSide, pitNumber);
+      if (value == stoneAmount)
+      {
+         GameBoard.countRepaint(true);
+         return;
+      }
+      stoneAmount = value;
+      GameBoard.countRepaint(false);
+      repaint();
    }
    
    public void mouseClicked(MouseEvent arg0)
@@ -83,7 +153,8 @@ public class PitPanel extends JPanel implements ChangeListener, MouseListener
     */
    public void mousePressed(MouseEvent e)
    {
-      mancalaModel.doTurn(pitSide, pitNumber);
+      if (isEnabled())
+         mancalaModel.doTurn(pitSide, pitNumber);
    }
 
    public void mouseReleased(MouseEvent e)
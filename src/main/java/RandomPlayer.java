@@ -0,0 +1,35 @@
+import java.util.SplittableRandom;
+
+/**
+ * Computer player that plays a uniformly random legal move.
+ */
+public class RandomPlayer implements MancalaPlayer
+{
+   private SplittableRandom random;
+
+   /**
+    * Constructor.
+    * @param seed seed of the random number generator
+    */
+   public RandomPlayer(long seed)
+   {
+      random = new SplittableRandom(seed);
+   }
+
+   /**
+    * Choose a random legal move.
+    * @param position current position, not modified by the player
+    * @return pit number to play, or -1 if there is no legal move
+    */
+   public int chooseMove(MancalaEngine position)
+   {
+      int moves = position.getLegalMoves();
+      if (moves == 0)
+         return -1;
+
+      int pick = random.nextInt(Integer.bitCount(moves));
+      while (pick-- > 0)
+         moves &= moves - 1; // drop the lowest move
+      return Integer.numberOfTrailingZeros(moves);
+   }
+}
@@ -7,32 +7,65 @@ import java.util.ArrayList;
 //Concrete class for the Strategy pattern
 public class RectangleFormat implements StyleFormatter
 {
+   private static final Shape MANCALA_SHAPE = new Rectangle2D.Double(25, 0,
+		   GameBoard.MANCALA_WIDTH, GameBoard.MANCALA_HEIGHT);
+   private static final Shape PIT_SHAPE = new Rectangle2D.Double(5, 5,
+		   GameBoard.PIT_WIDTH, GameBoard.PIT_HEIGHT);
+
+   private final StoneLayoutCache cache = new StoneLayoutCache()
+   {
+	   protected Shape [] createShapes(int kind, int stoneAmount)
+	   {
+		   if (kind == PIT)
+			   return createPitStoneShapes(stoneAmount);
+		   return createMancalaStoneShapes(stoneAmount);
+	   }
+   };
+
    /**
     * Get this style's mancala shape.
-	* @return shape object to be used
+	* @return shared shape object to be used
 	*/
    public Shape getMancalaShape()
    {
-      return new Rectangle2D.Double(25, 0, GameBoard.MANCALA_WIDTH, 
-    		  GameBoard.MANCALA_HEIGHT);
+      return MANCALA_SHAPE;
    }
 
    /**
     * Get this style's pit shape.
-    * @return shape object to be used
+    * @return shared shape object to be used
     */
    public Shape getPitShape()
    {
-      return new Rectangle2D.Double(5, 5, GameBoard.PIT_WIDTH, 
-    		  GameBoard.PIT_HEIGHT);
+      return PIT_SHAPE;
    }
    
    /**
     * Get the shapes to draw stones in a pit for this style.
     * @param stoneAmount number of stones to draw
-    * @return array of shape objects to be used
+    * @return shared array of shape objects to be used
     */
    public Shape [] getPitStoneShapes(int stoneAmount)
+   {
+	   return cache.get(StoneLayoutCache.PIT, stoneAmount);
+   }
+   
+   /**
+    * Get the shapes to draw stones in a mancala for this style.
+    * @param stoneAmount number of stones to draw
+    * @return shared array of shape objects to be used
+    */
+   public Shape [] getMancalaStoneShapes(int stoneAmount)
+   {
+	   return cache.get(StoneLayoutCache.MANCALA, stoneAmount);
+   }
+
+   /**
+    * Build the shapes to draw stones in a pit.
+    * @param stoneAmount number of stones to draw
+    * @return array of shape objects
+    */
+   private Shape [] createPitStoneShapes(int stoneAmount)
    {
 	   if (stoneAmount == 0)
 		   return new Shape [] { new Rectangle2D.Double(0,0,0,0) };
@@ -60,11 +93,11 @@ public class RectangleFormat implements StyleFormatter
    }
    
    /**
-    * Get the shapes to draw stones in a mancala for this style.
+    * Build the shapes to draw stones in a mancala.
     * @param stoneAmount number of stones to draw
-    * @return array of shape objects to be used
-    */    
-   public Shape [] getMancalaStoneShapes(int stoneAmount)
+    * @return array of shape objects
+    */
+   private Shape [] createMancalaStoneShapes(int stoneAmount)
    {
 	   if (stoneAmount == 0)
 		   return new Shape [] { new Rectangle2D.Double(0,0,0,0) };
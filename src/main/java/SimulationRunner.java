@@ -0,0 +1,373 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Command line batch mode that plays many games between two computer
+ * players on a thread pool and reports aggregate results while running.
+ * Needs no display and runs with -Djava.awt.headless=true.
+ *
+ * Usage: java SimulationRunner [--games N] [--stones S] [--a PLAYER]
+ *    [--b PLAYER] [--threads T] [--seed X] [--report-ms MS] [--record FILE]
+ *    [--book FILE] [--book-temperature T] [--rules VARIANT]
+ *
+ * With --record every game is written to FILE as a game record, in text
+ * notation if the file name ends in .txt and in the binary format otherwise.
+ * With --book the alpha-beta players answer book positions from an opening
+ * book and the report shows how many moves and how much search time it saved.
+ *
+ * Players: random, greedy, alphabeta:MS[:DEPTH],
+ *    mcts:MS[:THREADS[:EXPLORATION[:NODES]]]
+ * Variants are named as in MancalaRules, standard Kalah by default.
+ */
+public class SimulationRunner
+{
+   private final int games;
+   private final int stones;
+   private final String playerA;
+   private final String playerB;
+   private final int threads;
+   private final long seed;
+   private final long reportMillis;
+   private MancalaRules rules = MancalaRules.KALAH;
+   private GameRecordWriter recorder;
+   private OpeningBook book;
+   private double bookTemperature;
+
+   private final AtomicLong nextGame = new AtomicLong();
+   private final LongAdder finished = new LongAdder();
+   private final LongAdder winsA = new LongAdder();
+   private final LongAdder winsB = new LongAdder();
+   private final LongAdder ties = new LongAdder();
+   private final LongAdder plies = new LongAdder();
+   private final LongAdder stonesA = new LongAdder();
+   private final LongAdder stonesB = new LongAdder();
+   private final LongAdder bookMoves = new LongAdder();
+   private final LongAdder searchedMoves = new LongAdder();
+   private final LongAdder searchNanos = new LongAdder();
+   private final LongAdder playouts = new LongAdder();
+   private final LongAdder playoutNanos = new LongAdder();
+
+   /**
+    * Constructor.
+    * @param games number of games to play
+    * @param stones stones initially in each pit
+    * @param playerA player spec for side A
+    * @param playerB player spec for side B
+    * @param threads number of worker threads
+    * @param seed base seed for the random players
+    * @param reportMillis interval between progress lines
+    */
+   public SimulationRunner(int games, int stones, String playerA,
+         String playerB, int threads, long seed, long reportMillis)
+   {
+      this.games = games;
+      this.stones = stones;
+      this.playerA = playerA;
+      this.playerB = playerB;
+      this.threads = threads;
+      this.seed = seed;
+      this.reportMillis = reportMillis;
+      release(createPlayer(playerA, 0)); // fail early on a bad spec
+      release(createPlayer(playerB, 0));
+   }
+
+   /**
+    * Set the board geometry and rule variant of the games.
+    * @param rules the rules, standard Kalah if not set
+    */
+   public void setRules(MancalaRules rules)
+   {
+      this.rules = rules;
+   }
+
+   /**
+    * Record every game played. Games are written in the order they finish.
+    * @param recorder writer receiving the games, or null to not record
+    */
+   public void setRecorder(GameRecordWriter recorder)
+   {
+      this.recorder = recorder;
+   }
+
+   /**
+    * Let the alpha-beta players answer book positions from an opening book.
+    * @param book the book, or null to always search
+    * @param temperature book move variety, see OpeningBook.choose()
+    */
+   public void setOpeningBook(OpeningBook book, double temperature)
+   {
+      this.book = book;
+      bookTemperature = temperature;
+   }
+
+   /**
+    * Play all games, printing progress and a final summary.
+    * @throws InterruptedException if interrupted while waiting
+    */
+   public void run() throws InterruptedException
+   {
+      long start = System.nanoTime();
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      for (int i = 0; i < threads; i++)
+      {
+         pool.execute(new Runnable()
+         {
+            public void run()
+            {
+               long game;
+               while ((game = nextGame.getAndIncrement()) < games)
+                  playGame(game);
+            }
+         });
+      }
+      pool.shutdown();
+      while (!pool.awaitTermination(reportMillis, TimeUnit.MILLISECONDS))
+         report("progress", start);
+      report("done", start);
+   }
+
+   /**
+    * Play one game and add its result to the totals.
+    * @param game game number, used to seed the players
+    */
+   private void playGame(long game)
+   {
+      MancalaPlayer a = createPlayer(playerA, seed + 2 * game);
+      MancalaPlayer b = createPlayer(playerB, seed + 2 * game + 1);
+      if (book != null)
+      {
+         if (a instanceof AlphaBetaPlayer)
+            ((AlphaBetaPlayer) a).setOpeningBook(book, bookTemperature,
+               seed + 2 * game);
+         if (b instanceof AlphaBetaPlayer)
+            ((AlphaBetaPlayer) b).setOpeningBook(book, bookTemperature,
+               seed + 2 * game + 1);
+      }
+      MancalaEngine engine = new MancalaEngine(stones, rules);
+      byte[] played = new byte[64];
+      int moves = 0;
+      while (!engine.isTerminal())
+      {
+         MancalaPlayer player =
+            engine.getSide() == MancalaEngine.SIDE_A ? a : b;
+         int pit = player.chooseMove(engine);
+         if (!engine.applyMove(pit))
+            throw new IllegalStateException("Illegal move by "
+               + engine.getCurrPlayer());
+         if (moves == played.length)
+            played = Arrays.copyOf(played, moves * 2);
+         played[moves++] = (byte) pit;
+      }
+      engine.checkWinner();
+
+      if (recorder != null)
+      {
+         GameRecord record = new GameRecord(stones, rules,
+            playerA, playerB, played, moves);
+         try
+         {
+            synchronized (recorder)
+            {
+               recorder.write(record);
+            }
+         }
+         catch (IOException e)
+         {
+            throw new UncheckedIOException(e);
+         }
+      }
+
+      int mancalaA = engine.getMancalaValue(MancalaEngine.SIDE_A);
+      int mancalaB = engine.getMancalaValue(MancalaEngine.SIDE_B);
+      if (mancalaA > mancalaB)
+         winsA.increment();
+      else if (mancalaB > mancalaA)
+         winsB.increment();
+      else
+         ties.increment();
+      plies.add(moves);
+      for (MancalaPlayer player : new MancalaPlayer[] { a, b })
+      {
+         if (player instanceof AlphaBetaPlayer)
+         {
+            AlphaBetaPlayer p = (AlphaBetaPlayer) player;
+            bookMoves.add(p.getBookMoves());
+            searchedMoves.add(p.getSearchedMoves());
+            searchNanos.add(p.getSearchNanos());
+         }
+         else if (player instanceof MctsPlayer)
+         {
+            MctsPlayer p = (MctsPlayer) player;
+            playouts.add(p.getTotalPlayouts());
+            playoutNanos.add(p.getTotalThreadNanos());
+         }
+         release(player);
+      }
+      stonesA.add(mancalaA);
+      stonesB.add(mancalaB);
+      finished.increment();
+   }
+
+   /**
+    * Print the current totals.
+    * @param label line prefix
+    * @param start System.nanoTime() at the start of the run
+    */
+   private void report(String label, long start)
+   {
+      long done = finished.sum();
+      double seconds = (System.nanoTime() - start) / 1e9;
+      double n = Math.max(1, done);
+      System.out.printf("%s games %d/%d  %.0f games/s  A %.1f%%  B %.1f%%"
+         + "  ties %.1f%%  plies %.1f  store A %.2f  store B %.2f%n",
+         label, done, games, done / Math.max(seconds, 1e-9),
+         100 * winsA.sum() / n, 100 * winsB.sum() / n, 100 * ties.sum() / n,
+         plies.sum() / n, stonesA.sum() / n, stonesB.sum() / n);
+      if (book != null)
+      {
+         // Time saved assumes a book move would have cost an average search
+         long searched = searchedMoves.sum();
+         double perSearch = searchNanos.sum() / Math.max(1.0, searched);
+         System.out.printf("%s book hits %d/%d probes (%.1f%%)  book moves %d"
+            + "  searched moves %d  search time saved %.1f s%n", label,
+            book.getHits(), book.getProbes(),
+            100.0 * book.getHits() / Math.max(1, book.getProbes()),
+            bookMoves.sum(), searched, bookMoves.sum() * perSearch / 1e9);
+      }
+      if (playouts.sum() > 0)
+      {
+         System.out.printf("%s mcts playouts %d  %.0f playouts/s per"
+            + " thread%n", label, playouts.sum(),
+            playouts.sum() * 1e9 / Math.max(1, playoutNanos.sum()));
+      }
+   }
+
+   /**
+    * Create a player from a spec.
+    * @param spec random, greedy, alphabeta:MS[:DEPTH] or
+    *    mcts:MS[:THREADS[:EXPLORATION[:NODES]]]
+    * @param seed seed for random players
+    * @return the player
+    */
+   public static MancalaPlayer createPlayer(String spec, long seed)
+   {
+      String[] parts = spec.split(":");
+      if (parts[0].equals("random"))
+         return new RandomPlayer(seed);
+      if (parts[0].equals("greedy"))
+         return new GreedyPlayer();
+      if (parts[0].equals("alphabeta") && parts.length > 1)
+      {
+         int depth = parts.length > 2 ? Integer.parseInt(parts[2])
+            : MancalaSearch.MAX_PLY;
+         return new AlphaBetaPlayer(Long.parseLong(parts[1]), depth);
+      }
+      if (parts[0].equals("mcts") && parts.length > 1)
+      {
+         int threads = parts.length > 2 ? Integer.parseInt(parts[2]) : 1;
+         double exploration = parts.length > 3
+            ? Double.parseDouble(parts[3]) : MctsPlayer.DEFAULT_EXPLORATION;
+         int nodes = parts.length > 4 ? Integer.parseInt(parts[4])
+            : MctsPlayer.DEFAULT_NODES;
+         return new MctsPlayer(Long.parseLong(parts[1]), threads,
+            exploration, nodes, seed);
+      }
+      throw new IllegalArgumentException("Unknown player: " + spec);
+   }
+
+   /**
+    * Helper method to free the threads of a player no longer used.
+    * @param player the player
+    */
+   private static void release(MancalaPlayer player)
+   {
+      player.shutdown();
+   }
+
+   /**
+    * Run a simulation from the command line.
+    * @param args command line arguments
+    * @throws InterruptedException if interrupted while waiting
+    * @throws IOException if the record file cannot be written
+    */
+   public static void main(String[] args)
+      throws InterruptedException, IOException
+   {
+      int games = 10000;
+      int stones = 3;
+      String a = "random";
+      String b = "random";
+      int threads = Runtime.getRuntime().availableProcessors();
+      long seed = 1;
+      long reportMillis = 1000;
+      String record = null;
+      String bookFile = null;
+      double bookTemperature = 0;
+      MancalaRules rules = MancalaRules.KALAH;
+      for (int i = 0; i + 1 < args.length; i += 2)
+      {
+         String value = args[i + 1];
+         switch (args[i])
+         {
+         case "--games":
+            games = Integer.parseInt(value);
+            break;
+         case "--stones":
+            stones = Integer.parseInt(value);
+            break;
+         case "--a":
+            a = value;
+            break;
+         case "--b":
+            b = value;
+            break;
+         case "--threads":
+            threads = Integer.parseInt(value);
+            break;
+         case "--seed":
+            seed = Long.parseLong(value);
+            break;
+         case "--report-ms":
+            reportMillis = Long.parseLong(value);
+            break;
+         case "--record":
+            record = value;
+            break;
+         case "--rules":
+            rules = MancalaRules.parse(value);
+            break;
+         case "--book":
+            bookFile = value;
+            break;
+         case "--book-temperature":
+            bookTemperature = Double.parseDouble(value);
+            break;
+         default:
+            throw new IllegalArgumentException("Unknown option: " + args[i]);
+         }
+      }
+      SimulationRunner runner = new SimulationRunner(games, stones, a, b,
+         threads, seed, reportMillis);
+      runner.setRules(rules);
+      if (bookFile != null)
+         runner.setOpeningBook(new OpeningBook(bookFile), bookTemperature);
+      if (record == null)
+      {
+         runner.run();
+         return;
+      }
+      try (GameRecordWriter writer = new GameRecordWriter(
+         new FileOutputStream(record), record.endsWith(".txt")))
+      {
+         runner.setRecorder(writer);
+         runner.run();
+      }
+   }
+}
@@ -0,0 +1,212 @@
+import java.util.SplittableRandom;
+
+/**
+ * Differential check of MancalaEngine.applyMove() against sowing one stone
+ * at a time, the way moves were played before full laps were computed at
+ * once. Random positions of every variant, with pits holding from a few
+ * up to a million stones, are played both ways; the boards, the side to
+ * move, the capture and the hash must all match, and the landing slot,
+ * free turn and capture predictions must agree with the move played.
+ *
+ * Usage: java SowingCheck [--positions N] [--seed S]
+ */
+public class SowingCheck
+{
+   private static final int[] MAX_STONES = { 3, 20, 100, 1000, 1000000 };
+
+   private static final String[] VARIANTS = { "kalah", "kalah4", "kalah8",
+      "oware", "oware6", "nocapture-nosweep", "kalah3-nosweep" };
+
+   /**
+    * Run the check from the command line.
+    * @param args command line arguments
+    */
+   public static void main(String[] args)
+   {
+      int positions = 2000;
+      long seed = 1;
+      for (int i = 0; i + 1 < args.length; i += 2)
+      {
+         String value = args[i + 1];
+         switch (args[i])
+         {
+         case "--positions":
+            positions = Integer.parseInt(value);
+            break;
+         case "--seed":
+            seed = Long.parseLong(value);
+            break;
+         default:
+            throw new IllegalArgumentException("Unknown option: " + args[i]);
+         }
+      }
+
+      SplittableRandom random = new SplittableRandom(seed);
+      long moves = 0;
+      long failures = 0;
+      for (String variant : VARIANTS)
+      {
+         MancalaRules rules = MancalaRules.parse(variant);
+         for (int max : MAX_STONES)
+         {
+            for (int i = 0; i < positions; i++)
+            {
+               MancalaEngine engine = randomPosition(rules, max, random);
+               for (int pit = 0; pit < rules.getPits(); pit++)
+               {
+                  if (!engine.isLegal(pit))
+                     continue;
+                  moves++;
+                  String error = compare(engine, pit);
+                  if (error != null && failures++ < 10)
+                     System.out.println(variant + " max " + max + " pit "
+                        + pit + ": " + error);
+               }
+            }
+         }
+         System.out.println(variant + " ok");
+      }
+      System.out.printf("%d moves, %d mismatches%n", moves, failures);
+      if (failures > 0)
+      {
+         System.out.println("FAILED");
+         System.exit(1);
+      }
+      System.out.println("ok");
+   }
+
+   /**
+    * Helper method to build a random position.
+    * @param rules rules of the position
+    * @param max most stones in one slot
+    * @param random source of the counts
+    * @return the position
+    */
+   private static MancalaEngine randomPosition(MancalaRules rules, int max,
+      SplittableRandom random)
+   {
+      int[] counts = new int[rules.getSlots()];
+      for (int i = 0; i < counts.length; i++)
+      {
+         // Mostly small counts with a few large pits, like a real game
+         // started with many stones
+         counts[i] = random.nextInt(4) == 0 ? random.nextInt(max + 1)
+            : random.nextInt(Math.min(max, 4) + 1);
+      }
+      MancalaEngine engine = new MancalaEngine(0, rules);
+      engine.setPosition(counts, random.nextInt(2));
+      return engine;
+   }
+
+   /**
+    * Helper method to play one move both ways.
+    * @param position position before the move
+    * @param pit pit to play
+    * @return description of the first difference, or null if none
+    */
+   private static String compare(MancalaEngine position, int pit)
+   {
+      MancalaRules rules = position.getRules();
+      int side = position.getSide();
+      int[] board = new int[rules.getSlots()];
+      for (int i = 0; i < board.length; i++)
+         board[i] = position.getSlot(i);
+      int[] result = new int[3];
+      sowByStone(rules, board, side, pit, result);
+      int slot = result[0];
+
+      MancalaEngine engine = position.copy();
+      int landing = engine.landingSlot(pit);
+      boolean freeTurn = engine.isFreeTurn(pit);
+      boolean capture = engine.isCapture(pit);
+      engine.applyMove(pit);
+
+      for (int i = 0; i < board.length; i++)
+      {
+         if (engine.getSlot(i) != board[i])
+            return "slot " + i + " is " + engine.getSlot(i) + ", expected "
+               + board[i];
+      }
+      if (engine.getSide() != result[1])
+         return "side to move differs";
+      if (engine.getLastCapture() != result[2])
+         return "capture is " + engine.getLastCapture() + ", expected "
+            + result[2];
+      if (engine.getHash() != engine.computeHash())
+         return "hash differs from the board";
+      if (landing != slot)
+         return "landing slot " + landing + ", expected " + slot;
+      if (freeTurn != (slot == rules.mancalaSlot(side)))
+         return "free turn prediction differs";
+      if (capture != (result[2] >= 0))
+         return "capture prediction differs";
+      return null;
+   }
+
+   /**
+    * Play a move sowing one stone at a time. Also used by MancalaBenchmark
+    * as the baseline.
+    * @param rules rules of the position
+    * @param board slot counts, changed to the position after the move
+    * @param side side to move
+    * @param pit pit to play
+    * @param result receives the last slot sown, the side to move after
+    *    the move and the capture as getLastCapture() reports it
+    */
+   static void sowByStone(MancalaRules rules, int[] board, int side,
+      int pit, int[] result)
+   {
+      int pits = rules.getPits();
+      int stride = pits + 1;
+      int first = side * stride;
+      int mancala = first + pits;
+      int[] next = rules.nextSlots(side);
+      int origin = first + pit;
+      int stones = board[origin];
+      int capture = -1;
+
+      int slot = origin;
+      while (stones != 0)
+      {
+         slot = next[slot];
+         board[slot]++;
+         stones--;
+      }
+
+      result[0] = slot;
+      if (slot != mancala)
+      {
+         side ^= 1;
+         if (rules.getCapture() == MancalaRules.Capture.KALAH)
+         {
+            if (slot >= first && slot < mancala && board[slot] == 1)
+            {
+               int oppSlot = 2 * pits - slot;
+               capture = board[oppSlot];
+               board[mancala] += board[oppSlot] + 1;
+               board[slot] = 0;
+               board[oppSlot] = 0;
+            }
+         }
+         else if (rules.getCapture() == MancalaRules.Capture.OWARE)
+         {
+            int other = stride - first;
+            int taken = 0;
+            int threes = 0;
+            for (int s = slot; s >= other && s < other + pits
+               && (board[s] == 2 || board[s] == 3); s--)
+            {
+               threes |= (board[s] - 2) << taken;
+               board[mancala] += board[s];
+               board[s] = 0;
+               taken++;
+            }
+            if (taken > 0)
+               capture = taken << 8 | threes;
+         }
+      }
+      board[origin] = 0;
+      result[1] = side;
+      result[2] = capture;
+   }
+}
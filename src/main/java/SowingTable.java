@@ -0,0 +1,189 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Precomputed outcomes of sowing for one rule variant. Where the last
+ * stone of a move lands, and which slots get one stone more than the
+ * others, depends only on the side, the pit and the stone count modulo
+ * the sowing cycle of slots - 1 slots, so every case is computed once.
+ *
+ * For PackedBoard the table also holds each case as increments of its
+ * packed 16 bit lanes, so sowing a pit is one add per word: the increment
+ * of the remainder plus the number of full laps times the lap increment.
+ */
+public final class SowingTable
+{
+   private static final ConcurrentHashMap<MancalaRules, SowingTable> TABLES =
+      new ConcurrentHashMap<MancalaRules, SowingTable>();
+
+   private final int pits;
+   private final int cycle;
+   private final int words;
+   private final byte[] landing;
+   private final int[] extraSlots;
+   private final long[] extraLanes;
+   private final long[] lapLanes;
+
+   /**
+    * Constructor.
+    * @param rules the variant
+    */
+   private SowingTable(MancalaRules rules)
+   {
+      pits = rules.getPits();
+      int slots = rules.getSlots();
+      cycle = slots - 1;
+      words = PackedBoard.words(slots);
+      int entries = 2 * pits * cycle;
+      landing = new byte[entries];
+      extraSlots = new int[entries];
+      extraLanes = new long[entries * words];
+      lapLanes = new long[2 * words];
+
+      for (int side = 0; side < 2; side++)
+      {
+         int[] next = rules.nextSlots(side);
+         int skip = rules.mancalaSlot(side ^ 1);
+         for (int slot = 0; slot < slots; slot++)
+         {
+            if (slot != skip)
+               lapLanes[side * words + (slot >> 2)] += lane(slot);
+         }
+
+         for (int pit = 0; pit < pits; pit++)
+         {
+            int origin = rules.pitSlot(side, pit);
+            for (int rest = 0; rest < cycle; rest++)
+            {
+               int entry = index(side, pit, rest);
+               int slot = origin;
+               int mask = 0;
+               for (int i = 0; i < rest; i++)
+               {
+                  slot = next[slot];
+                  mask |= 1 << slot;
+                  extraLanes[entry * words + (slot >> 2)] += lane(slot);
+               }
+               landing[entry] = (byte) slot;
+               extraSlots[entry] = mask;
+            }
+         }
+      }
+   }
+
+   /**
+    * Get the table of a variant, building it on first use.
+    * @param rules the variant
+    * @return the table
+    */
+   public static SowingTable get(MancalaRules rules)
+   {
+      return TABLES.computeIfAbsent(rules, SowingTable::new);
+   }
+
+   /**
+    * Get the slot where the last stone of a pit lands.
+    * @param side side playing the pit
+    * @param pitNumber pit number, 0 to pits - 1
+    * @param stones stones in the pit, at least one
+    * @return landing slot index
+    */
+   public int getLandingSlot(int side, int pitNumber, int stones)
+   {
+      return landing[index(side, pitNumber, stones % cycle)];
+   }
+
+   /**
+    * Check if playing a pit ends in the own mancala.
+    * @param side side playing the pit
+    * @param pitNumber pit number, 0 to pits - 1
+    * @param stones stones in the pit, at least one
+    * @return true if the move gives a free turn
+    */
+   public boolean isFreeTurn(int side, int pitNumber, int stones)
+   {
+      int mancala = side * (pits + 1) + pits;
+      return getLandingSlot(side, pitNumber, stones) == mancala;
+   }
+
+   /**
+    * Get the slots that get one stone more than a full lap gives.
+    * @param side side playing the pit
+    * @param pitNumber pit number, 0 to pits - 1
+    * @param stones stones in the pit
+    * @return bit mask of slot indexes
+    */
+   public int getExtraSlots(int side, int pitNumber, int stones)
+   {
+      return extraSlots[index(side, pitNumber, stones % cycle)];
+   }
+
+   /**
+    * Get the number of slots in the sowing cycle.
+    * @return slots - 1
+    */
+   public int getCycle()
+   {
+      return cycle;
+   }
+
+   /**
+    * Helper method to find the entry of a case.
+    * @param side side playing the pit
+    * @param pitNumber pit number
+    * @param rest stone count modulo the cycle
+    * @return entry index
+    */
+   int index(int side, int pitNumber, int rest)
+   {
+      return (side * pits + pitNumber) * cycle + rest;
+   }
+
+   /**
+    * Get the landing slot of an entry.
+    * @param entry entry index
+    * @return slot index
+    */
+   int landing(int entry)
+   {
+      return landing[entry];
+   }
+
+   /**
+    * Get the extra slots of an entry.
+    * @param entry entry index
+    * @return bit mask of slot indexes
+    */
+   int extraSlots(int entry)
+   {
+      return extraSlots[entry];
+   }
+
+   /**
+    * Get the packed lane increments of all entries, one PackedBoard
+    * word after the other.
+    * @return increments, not to be changed
+    */
+   long[] extraLanes()
+   {
+      return extraLanes;
+   }
+
+   /**
+    * Get the packed lane increments of one full lap for each side.
+    * @return increments, not to be changed
+    */
+   long[] lapLanes()
+   {
+      return lapLanes;
+   }
+
+   /**
+    * Helper method for a one in the packed lane of a slot.
+    * @param slot slot index
+    * @return value to add to the slot's word
+    */
+   private static long lane(int slot)
+   {
+      return 1L << ((slot & 3) << 4);
+   }
+}
@@ -0,0 +1,95 @@
+import java.awt.Shape;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of precomputed stone layouts for one StyleFormatter. Layouts are
+ * keyed by container kind and stone count, so a format builds each layout
+ * once and repaints reuse it. Small stone counts are kept in arrays, large
+ * ones in a bounded least recently used map.
+ *
+ * The cached arrays and shapes are shared and must not be modified.
+ */
+public abstract class StoneLayoutCache
+{
+   public static final int PIT = 0;
+   public static final int MANCALA = 1;
+
+   // Stone counts below this limit are cached in arrays
+   private static final int DIRECT_COUNTS = 256;
+   private static final int MAX_LARGE_LAYOUTS = 32;
+
+   private final Shape[][][] direct = new Shape[2][DIRECT_COUNTS][];
+   private final Map<Long, Shape[]> large =
+      new LinkedHashMap<Long, Shape[]>(16, 0.75f, true)
+      {
+         protected boolean removeEldestEntry(Map.Entry<Long, Shape[]> e)
+         {
+            return size() > MAX_LARGE_LAYOUTS;
+         }
+      };
+   private long hits;
+   private long misses;
+
+   /**
+    * Get the layout for a container and stone count, building it on first
+    * use.
+    * @param kind PIT or MANCALA
+    * @param stoneAmount number of stones to draw
+    * @return shared array of shapes, not to be modified
+    */
+   public synchronized Shape[] get(int kind, int stoneAmount)
+   {
+      if (stoneAmount >= 0 && stoneAmount < DIRECT_COUNTS)
+      {
+         Shape[] shapes = direct[kind][stoneAmount];
+         if (shapes == null)
+         {
+            misses++;
+            shapes = createShapes(kind, stoneAmount);
+            direct[kind][stoneAmount] = shapes;
+         }
+         else
+            hits++;
+         return shapes;
+      }
+
+      Long key = ((long) stoneAmount << 1) | kind;
+      Shape[] shapes = large.get(key);
+      if (shapes == null)
+      {
+         misses++;
+         shapes = createShapes(kind, stoneAmount);
+         large.put(key, shapes);
+      }
+      else
+         hits++;
+      return shapes;
+   }
+
+   /**
+    * Get the number of requests answered from the cache.
+    * @return hit count
+    */
+   public synchronized long getHits()
+   {
+      return hits;
+   }
+
+   /**
+    * Get the number of layouts built.
+    * @return miss count
+    */
+   public synchronized long getMisses()
+   {
+      return misses;
+   }
+
+   /**
+    * Build a layout.
+    * @param kind PIT or MANCALA
+    * @param stoneAmount number of stones to draw
+    * @return array of shapes
+    */
+   protected abstract Shape[] createShapes(int kind, int stoneAmount);
+}
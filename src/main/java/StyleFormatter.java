@@ -30,14 +30,16 @@ public interface StyleFormatter
    public Shape getMancalaShape();
    
    /**
-    * Get the shapes to draw stones in a pit for this style.
+    * Get the shapes to draw stones in a pit for this style. The array may
+    * be shared between calls and must not be modified.
     * @param stoneAmount number of stones to draw
     * @return array of shape objects to be used
     */
    public Shape [] getPitStoneShapes(int stoneAmount);
    
    /**
-    * Get the shapes to draw stones in a mancala for this style.
+    * Get the shapes to draw stones in a mancala for this style. The array
+    * may be shared between calls and must not be modified.
     * @param stoneAmount number of stones to draw
     * @return array of shape objects to be used
     */
@@ -1,8 +1,11 @@
 import java.awt.FlowLayout;
+import java.awt.event.ItemEvent;
+import java.awt.event.ItemListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
@@ -14,7 +17,9 @@ public class TopPanel extends JPanel implements ChangeListener
 {
 	private JTextField statusText;
 	private JButton undoButton;
+	private JButton redoButton;
 	private JButton resetButton;
+	private JCheckBox hintBox;
 	private MancalaModel model;
 	private MancalaGame game;
 	
@@ -24,10 +29,21 @@ public class TopPanel extends JPanel implements ChangeListener
 	 * @param m the model this panel is attached to
 	 */
 	public TopPanel(MancalaGame g, MancalaModel m)
+	{
+		this(g, m, null);
+	}
+	
+	/**
+	 * Constructor for a panel with a move hint switch.
+	 * @param g the game this panel is for
+	 * @param m the model this panel is attached to
+	 * @param board board showing the hints, or null for no hint switch
+	 */
+	public TopPanel(MancalaGame g, MancalaModel m, GameBoard board)
 	{
 		model = m;
 		game = g;
-		statusText = new JTextField(55);
+		statusText = new JTextField(model.getUndoPolicy() == UndoPolicy.UNLIMITED ? 50 : 55);
 		statusText.setEditable(false);
 		undoButton = new JButton("Undo");
 		resetButton = new JButton("Reset");
@@ -40,6 +56,15 @@ public class TopPanel extends JPanel implements ChangeListener
 					}
 				});
 		undoButton.setEnabled(false);
+		redoButton = new JButton("Redo");
+		redoButton.addMouseListener(new MouseAdapter()
+				{
+					public void mousePressed(MouseEvent e)
+					{
+						model.redo();
+					}
+				});
+		redoButton.setEnabled(false);
 		resetButton.addMouseListener(new MouseAdapter()
 				{
 					public void mousePressed(MouseEvent e)
@@ -53,7 +78,21 @@ public class TopPanel extends JPanel implements ChangeListener
 				});
 		add(statusText);
 		add(undoButton);
+		if (model.getUndoPolicy() == UndoPolicy.UNLIMITED)
+			add(redoButton);
 		add(resetButton);
+		if (board != null)
+		{
+			hintBox = new JCheckBox("Hints");
+			hintBox.addItemListener(new ItemListener()
+					{
+						public void itemStateChanged(ItemEvent e)
+						{
+							board.setHintsEnabled(hintBox.isSelected());
+						}
+					});
+			add(hintBox);
+		}
 	}
 	
 	/**
@@ -66,7 +105,15 @@ public class TopPanel extends JPanel implements ChangeListener
 		else
 			this.undoButton.setEnabled(false);
 		
-		String text = "Player " + Character.toUpperCase(model.getCurrPlayer()) + "'s Turn | " + model.getUndoCount() + " Undos Remain";
+		redoButton.setEnabled(model.canRedo());
+		
+		String undos = model.getUndoPolicy() == UndoPolicy.UNLIMITED ? "Unlimited Undos" : model.getUndoCount() + " Undos Remain";
+		String text = "Player " + Character.toUpperCase(model.getCurrPlayer()) + "'s Turn | " + undos;
 		statusText.setText(text);
+		String tip = "Repaints: " + GameBoard.getRepaints() + " done, " + GameBoard.getRepaintsSkipped() + " skipped";
+		EdtMonitor monitor = EdtMonitor.getInstalled();
+		if (monitor != null)
+			tip += " | " + monitor.getSummary();
+		statusText.setToolTipText(tip);
 	}
 }
\ No newline at end of file
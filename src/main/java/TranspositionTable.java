@@ -0,0 +1,283 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Fixed-size hash table of search results keyed by Zobrist hash. Entries
+ * are packed into two parallel long arrays, one for the key and one for
+ * the data, so the table holds no per-entry objects. Each slot keeps the
+ * deeper of two results unless its entry is left over from an earlier
+ * search.
+ *
+ * The table may be shared by several search threads without locking. The
+ * key array holds the key XORed with the data, so an entry torn by two
+ * concurrent writers fails the key check and reads as a miss. The
+ * counters are not synchronized and are approximate under sharing.
+ *
+ * Data layout: bits 0-31 score, 32-39 depth, 40-41 bound flag,
+ * 42-45 best move (15 = none), 46-53 search generation. Results whose
+ * every line reached the end of the game are stored with depth SOLVED and
+ * hold at any depth.
+ */
+public class TranspositionTable
+{
+   public static final int EXACT = 1;
+   public static final int LOWER = 2;
+   public static final int UPPER = 3;
+   public static final int NO_MOVE = 15;
+   public static final int SOLVED = 255;
+
+   private static final int ENTRY_BYTES = 16;
+   private static final long MAX_ENTRIES = 1L << 30;
+
+   private final long[] keys;
+   private final long[] data;
+   private final int mask;
+   private int generation;
+   private long hits;
+   private long misses;
+   private long collisions;
+   private long stores;
+
+   /**
+    * Constructor.
+    * @param megabytes memory to use, rounded down to a power of two
+    *    number of entries
+    */
+   public TranspositionTable(long megabytes)
+   {
+      long entries = Math.max(1, megabytes) * 1024 * 1024 / ENTRY_BYTES;
+      entries = Math.min(Long.highestOneBit(entries), MAX_ENTRIES);
+      keys = new long[(int) entries];
+      data = new long[(int) entries];
+      mask = (int) entries - 1;
+   }
+
+   /**
+    * Look up a position.
+    * @param key Zobrist hash of the position
+    * @return packed entry data, or 0 if the position is not stored
+    */
+   public long probe(long key)
+   {
+      int index = (int) key & mask;
+      long entry = data[index];
+      if (entry != 0 && (keys[index] ^ entry) == key)
+      {
+         hits++;
+         return entry;
+      }
+      misses++;
+      if (entry != 0)
+         collisions++;
+      return 0;
+   }
+
+   /**
+    * Store a search result. A result of the position already stored is
+    * only replaced by one searched at least as deep, and a solved value
+    * never by a bound. A slot holding a different position is only
+    * replaced by a result searched at least as deep, or if its entry is
+    * from an earlier search.
+    * @param key Zobrist hash of the position
+    * @param depth remaining depth the result was searched to, SOLVED if
+    *    no line was cut off
+    * @param flag EXACT, LOWER or UPPER
+    * @param score score from the point of view of the side to move
+    * @param move best move, or -1 if none
+    */
+   public void store(long key, int depth, int flag, int score, int move)
+   {
+      int index = (int) key & mask;
+      long old = data[index];
+      depth = Math.min(depth, SOLVED);
+      if (old != 0)
+      {
+         if ((keys[index] ^ old) == key)
+         {
+            // A deeper result of the same position holds at any depth the
+            // new one does, and a solved value beats a solved bound
+            if (depth(old) > depth || depth(old) == SOLVED
+               && flag(old) == EXACT && flag != EXACT)
+               return;
+         }
+         else if (generation(old) == generation && depth(old) > depth)
+            return;
+      }
+
+      long entry = (score & 0xFFFFFFFFL)
+         | ((long) depth << 32)
+         | ((long) flag << 40)
+         | ((long) (move < 0 ? NO_MOVE : move) << 42)
+         | ((long) generation << 46);
+      keys[index] = key ^ entry;
+      data[index] = entry;
+      stores++;
+   }
+
+   /**
+    * Mark the start of a new search, so entries from earlier searches
+    * may be replaced.
+    */
+   public void newSearch()
+   {
+      generation = (generation + 1) & 0xFF;
+   }
+
+   /**
+    * Remove all entries and reset the counters.
+    */
+   public void clear()
+   {
+      Arrays.fill(keys, 0);
+      Arrays.fill(data, 0);
+      hits = 0;
+      misses = 0;
+      collisions = 0;
+      stores = 0;
+   }
+
+   /**
+    * Write the solved entries to a stream, as key and data pairs ended by
+    * a pair of zeros. The table may be in use by running searches; an
+    * entry torn by a concurrent store is written under a key that no
+    * position has.
+    * @param out stream to write to
+    * @return number of entries written
+    * @throws IOException if the stream cannot be written
+    */
+   public long writeSolved(DataOutputStream out) throws IOException
+   {
+      long count = 0;
+      for (int i = 0; i < data.length; i++)
+      {
+         long entry = data[i];
+         if (entry != 0 && depth(entry) == SOLVED)
+         {
+            out.writeLong(keys[i] ^ entry);
+            out.writeLong(entry);
+            count++;
+         }
+      }
+      out.writeLong(0);
+      out.writeLong(0);
+      return count;
+   }
+
+   /**
+    * Store the entries written by writeSolved(), in the current generation.
+    * @param in stream to read from
+    * @return number of entries read
+    * @throws IOException if the stream cannot be read or ends too early
+    */
+   public long readSolved(DataInputStream in) throws IOException
+   {
+      long count = 0;
+      for (;;)
+      {
+         long key = in.readLong();
+         long entry = in.readLong();
+         if (entry == 0)
+            return count;
+         store(key, SOLVED, flag(entry), score(entry), move(entry));
+         count++;
+      }
+   }
+
+   /**
+    * Get the number of entries the table can hold.
+    * @return entry count
+    */
+   public int capacity()
+   {
+      return mask + 1;
+   }
+
+   /**
+    * Get the number of probes that found their position.
+    * @return hit count
+    */
+   public long getHits()
+   {
+      return hits;
+   }
+
+   /**
+    * Get the number of probes that did not find their position.
+    * @return miss count
+    */
+   public long getMisses()
+   {
+      return misses;
+   }
+
+   /**
+    * Get the number of misses where the slot held a different position.
+    * @return collision count
+    */
+   public long getCollisions()
+   {
+      return collisions;
+   }
+
+   /**
+    * Get the number of results written to the table.
+    * @return store count
+    */
+   public long getStores()
+   {
+      return stores;
+   }
+
+   /**
+    * Get the score of an entry.
+    * @param entry packed entry data
+    * @return score from the point of view of the side to move
+    */
+   public static int score(long entry)
+   {
+      return (int) entry;
+   }
+
+   /**
+    * Get the search depth of an entry.
+    * @param entry packed entry data
+    * @return remaining depth
+    */
+   public static int depth(long entry)
+   {
+      return (int) (entry >>> 32) & 0xFF;
+   }
+
+   /**
+    * Get the bound flag of an entry.
+    * @param entry packed entry data
+    * @return EXACT, LOWER or UPPER
+    */
+   public static int flag(long entry)
+   {
+      return (int) (entry >>> 40) & 0x3;
+   }
+
+   /**
+    * Get the best move of an entry.
+    * @param entry packed entry data
+    * @return pit number, or -1 if none
+    */
+   public static int move(long entry)
+   {
+      int move = (int) (entry >>> 42) & 0xF;
+      return move == NO_MOVE ? -1 : move;
+   }
+
+   /**
+    * Helper method to get the generation of an entry.
+    * @param entry packed entry data
+    * @return generation, 0-255
+    */
+   private static int generation(long entry)
+   {
+      return (int) (entry >>> 46) & 0xFF;
+   }
+}
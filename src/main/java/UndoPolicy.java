@@ -0,0 +1,11 @@
+/**
+ * Rules for taking back moves in MancalaModel.
+ */
+public enum UndoPolicy
+{
+   /** One move may be taken back, at most three times in a row. */
+   CLASSIC,
+
+   /** Any number of moves may be taken back and redone. */
+   UNLIMITED
+}
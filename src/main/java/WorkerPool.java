@@ -0,0 +1,209 @@
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
+
+/**
+ * Pool of daemon threads for computer moves and analysis, so that no
+ * compute heavy work runs on the Swing Event Dispatch Thread. Results and
+ * failures are handed back on the EDT. A task can be cancelled at any
+ * time: a task not started yet never runs, a running one is asked to
+ * abort, and the result of a cancelled task is never delivered, even if
+ * it was already on its way to the EDT.
+ */
+public class WorkerPool
+{
+   private static final WorkerPool SHARED = new WorkerPool(2);
+
+   private final ExecutorService executor;
+   private final AtomicLong submitted = new AtomicLong();
+   private final AtomicLong delivered = new AtomicLong();
+   private final AtomicLong failed = new AtomicLong();
+   private final AtomicLong cancels = new AtomicLong();
+   private final AtomicLong busyNanos = new AtomicLong();
+
+   /**
+    * Constructor.
+    * @param threads number of worker threads
+    */
+   public WorkerPool(int threads)
+   {
+      executor = Executors.newFixedThreadPool(threads, new ThreadFactory()
+      {
+         public Thread newThread(Runnable r)
+         {
+            Thread t = new Thread(r, "mancala-worker");
+            t.setDaemon(true);
+            return t;
+         }
+      });
+   }
+
+   /**
+    * Get the pool shared by the GUI.
+    * @return the shared pool
+    */
+   public static WorkerPool getShared()
+   {
+      return SHARED;
+   }
+
+   /**
+    * Run work on a worker thread and deliver its result on the EDT.
+    * @param work the work, run on a worker thread
+    * @param abort called from the cancelling thread to stop the work early
+    *    if it is running, or null
+    * @param onResult called on the EDT with the result unless the task was
+    *    cancelled
+    * @param onError called on the EDT with the exception thrown by the work
+    *    unless the task was cancelled
+    * @return the task, for cancelling
+    */
+   public <T> Task submit(Callable<T> work, Runnable abort,
+      Consumer<T> onResult, Consumer<Exception> onError)
+   {
+      Task task = new Task(abort);
+      submitted.incrementAndGet();
+      task.future = executor.submit(new Runnable()
+      {
+         public void run()
+         {
+            // Set running before checking, cancel() checks the other way
+            task.running = true;
+            if (task.cancelled)
+            {
+               task.running = false;
+               return;
+            }
+            long start = System.nanoTime();
+            T value = null;
+            Exception error = null;
+            try
+            {
+               value = work.call();
+            }
+            catch (Exception e)
+            {
+               error = e;
+            }
+            finally
+            {
+               task.running = false;
+               busyNanos.addAndGet(System.nanoTime() - start);
+            }
+            final T result = value;
+            final Exception failure = error;
+            SwingUtilities.invokeLater(new Runnable()
+            {
+               public void run()
+               {
+                  if (task.cancelled)
+                     return;
+                  if (failure != null)
+                  {
+                     failed.incrementAndGet();
+                     onError.accept(failure);
+                     return;
+                  }
+                  delivered.incrementAndGet();
+                  onResult.accept(result);
+               }
+            });
+         }
+      });
+      return task;
+   }
+
+   /**
+    * Get the number of tasks submitted.
+    * @return task count
+    */
+   public long getSubmitted()
+   {
+      return submitted.get();
+   }
+
+   /**
+    * Get the number of results delivered to the EDT.
+    * @return task count
+    */
+   public long getDelivered()
+   {
+      return delivered.get();
+   }
+
+   /**
+    * Get the number of failures delivered to the EDT.
+    * @return task count
+    */
+   public long getFailed()
+   {
+      return failed.get();
+   }
+
+   /**
+    * Get the number of tasks cancelled.
+    * @return task count
+    */
+   public long getCancelled()
+   {
+      return cancels.get();
+   }
+
+   /**
+    * Get the total time the workers spent running tasks.
+    * @return time in nanoseconds
+    */
+   public long getBusyNanos()
+   {
+      return busyNanos.get();
+   }
+
+   /**
+    * A submitted piece of work.
+    */
+   public class Task
+   {
+      private final Runnable abort;
+      private volatile boolean cancelled;
+      private volatile boolean running;
+      private volatile Future<?> future;
+
+      /**
+       * Constructor.
+       * @param abort called to stop the running work, or null
+       */
+      private Task(Runnable abort)
+      {
+         this.abort = abort;
+      }
+
+      /**
+       * Cancel the task. Its result will not be delivered.
+       */
+      public void cancel()
+      {
+         if (cancelled)
+            return;
+         cancelled = true;
+         cancels.incrementAndGet();
+         if (running && abort != null)
+            abort.run();
+         if (future != null)
+            future.cancel(false);
+      }
+
+      /**
+       * Check if the task was cancelled.
+       * @return true if cancelled
+       */
+      public boolean isCancelled()
+      {
+         return cancelled;
+      }
+   }
+}
@@ -0,0 +1,97 @@
+/**
+ * Zobrist keys for Mancala positions. A position's hash is the XOR of one
+ * key per board slot and stone count, plus a key when side B is to move.
+ * The keys come from a fixed seed so hashes are stable between runs and
+ * can be stored in files.
+ */
+public final class Zobrist
+{
+   // Stone counts below this limit use the precomputed tables
+   private static final int TABLE_COUNTS = 64;
+   private static final long SEED = 0x4D616E63616C61L;
+
+   private static final int TABLE_SLOTS = MancalaRules.MAX_SLOTS;
+   private static final long[] KEYS = new long[TABLE_SLOTS * TABLE_COUNTS];
+   private static final long[] STEPS = new long[TABLE_SLOTS * TABLE_COUNTS];
+
+   /** Key XORed into the hash when side B is to move. */
+   public static final long SIDE = mix(SEED);
+
+   static
+   {
+      for (int slot = 0; slot < TABLE_SLOTS; slot++)
+      {
+         for (int count = 0; count < TABLE_COUNTS; count++)
+            KEYS[slot * TABLE_COUNTS + count] = compute(slot, count);
+         for (int count = 0; count < TABLE_COUNTS; count++)
+            STEPS[slot * TABLE_COUNTS + count] = key(slot, count) ^ key(slot, count + 1);
+      }
+   }
+
+   private Zobrist()
+   {
+   }
+
+   /**
+    * Get the key of a slot holding a number of stones.
+    * @param slot slot index
+    * @param count stone count
+    * @return the key
+    */
+   public static long key(int slot, int count)
+   {
+      if (count < TABLE_COUNTS)
+         return KEYS[slot * TABLE_COUNTS + count];
+      return compute(slot, count);
+   }
+
+   /**
+    * Get the hash change for adding one stone to a slot.
+    * @param slot slot index
+    * @param count stone count before the stone is added
+    * @return value to XOR into the hash
+    */
+   public static long step(int slot, int count)
+   {
+      if (count < TABLE_COUNTS)
+         return STEPS[slot * TABLE_COUNTS + count];
+      return compute(slot, count) ^ compute(slot, count + 1);
+   }
+
+   /**
+    * Get the key of a rule variant, so that positions of different
+    * variants hash differently. Standard Kalah has key 0, which keeps its
+    * hashes the same as before variants existed.
+    * @param rules the variant
+    * @return the key
+    */
+   public static long rules(MancalaRules rules)
+   {
+      if (rules.isStandard())
+         return 0;
+      return mix(SEED ^ ((long) rules.hashCode() << 40));
+   }
+
+   /**
+    * Helper method to derive a key from a slot and count.
+    * @param slot slot index
+    * @param count stone count
+    * @return the key
+    */
+   private static long compute(int slot, int count)
+   {
+      return mix(SEED + ((long) count << 5) + slot + 1);
+   }
+
+   /**
+    * Helper method implementing the SplitMix64 finalizer.
+    * @param z value to mix
+    * @return mixed value
+    */
+   private static long mix(long z)
+   {
+      z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+      return z ^ (z >>> 31);
+   }
+}